@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.Inv;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.CryptoBox;
+import ch.dissem.bitmessage.entity.payload.ObjectType;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.factory.Factory;
+import ch.dissem.bitmessage.factory.V3MessageReader;
+import ch.dissem.bitmessage.utils.Encode;
+import ch.dissem.bitmessage.utils.Singleton;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+
+/**
+ * Decodes a single large message, either from an {@link java.io.InputStream} like the blocking network handler
+ * does, or through the {@link V3MessageReader} which parses it directly from its {@link java.nio.ByteBuffer}.
+ * <p>
+ * {@code inv} contains 50,000 inventory vectors, {@code msg} is a msg object of about 256 KiB.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DecodeBenchmark {
+    private static final int INVENTORY_VECTORS = 50_000;
+    private static final int MSG_SIZE = 256 * 1024;
+
+    @Param({"inv", "msg"})
+    public String message;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        Singleton.initialize(new BouncyCryptography());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if ("inv".equals(message)) {
+            createInv().write(out);
+        } else {
+            createMsg().write(out);
+        }
+        data = out.toByteArray();
+    }
+
+    @Benchmark
+    public NetworkMessage inputStream() throws IOException {
+        return Factory.getNetworkMessage(3, new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public NetworkMessage byteBuffer() {
+        V3MessageReader reader = new V3MessageReader();
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(reader.getActiveBuffer().remaining(), data.length - offset);
+                reader.getActiveBuffer().put(data, offset, length);
+                offset += length;
+                reader.update();
+            }
+            return reader.getMessages().get(0);
+        } finally {
+            reader.cleanup();
+        }
+    }
+
+    private static NetworkMessage createInv() {
+        Random random = new Random();
+        List<InventoryVector> inventory = new ArrayList<>(INVENTORY_VECTORS);
+        for (int i = 0; i < INVENTORY_VECTORS; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            inventory.add(new InventoryVector(hash));
+        }
+        return new NetworkMessage(new Inv.Builder().inventory(inventory).build());
+    }
+
+    private static NetworkMessage createMsg() throws IOException {
+        byte[] plaintext = new byte[MSG_SIZE];
+        new Random().nextBytes(plaintext);
+        byte[] publicKey = cryptography().createPublicKey(cryptography().randomBytes(32));
+        CryptoBox encrypted = new CryptoBox(plaintext, publicKey);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[8]);
+        Encode.int64(UnixTime.now(+UnixTime.DAY), out);
+        Encode.int32(ObjectType.MSG.getNumber(), out);
+        Encode.varInt(1, out);
+        Encode.varInt(1, out);
+        encrypted.write(out);
+        byte[] object = out.toByteArray();
+        ObjectMessage msg = Factory.getObjectMessage(3, new ByteArrayInputStream(object), object.length);
+        return new NetworkMessage(msg);
+    }
+}
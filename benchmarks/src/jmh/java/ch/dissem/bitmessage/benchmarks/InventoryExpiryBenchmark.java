@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.networking.ExpiringMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each of 150 connections receives 100k inventory vectors in 'inv' messages of 1000 each, one message per
+ * connection every 6 seconds, and remembers them for 5 minutes.
+ * <p>
+ * {@link #expiringMap()} removes old inventory vectors with an {@link ExpiringMap}, as the connections do now.
+ * {@link #fullScan()} looks at every remembered inventory vector whenever an 'inv' message is received, as they
+ * did before. The score is the time spent per received inventory vector.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class InventoryExpiryBenchmark {
+    private static final int CONNECTIONS = 150;
+    private static final int INVENTORY_VECTORS = 100_000;
+    private static final int INV_SIZE = 1000;
+    private static final int INV_INTERVAL = 6;
+    private static final int CACHE_TIME = 5 * 60;
+
+    private List<List<InventoryVector>> invs;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random();
+        invs = new ArrayList<>(INVENTORY_VECTORS / INV_SIZE);
+        for (int i = 0; i < INVENTORY_VECTORS / INV_SIZE; i++) {
+            List<InventoryVector> inv = new ArrayList<>(INV_SIZE);
+            for (int j = 0; j < INV_SIZE; j++) {
+                byte[] hash = new byte[32];
+                random.nextBytes(hash);
+                inv.add(new InventoryVector(hash));
+            }
+            invs.add(inv);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONNECTIONS * INVENTORY_VECTORS)
+    public Object expiringMap() {
+        List<ExpiringMap<InventoryVector>> caches = new ArrayList<>(CONNECTIONS);
+        for (int i = 0; i < CONNECTIONS; i++) {
+            caches.add(new ExpiringMap<InventoryVector>(60));
+        }
+        long now = 0;
+        for (List<InventoryVector> inv : invs) {
+            now += INV_INTERVAL;
+            for (ExpiringMap<InventoryVector> cache : caches) {
+                cache.expire(now - CACHE_TIME);
+                cache.putAll(inv, now);
+            }
+        }
+        return caches;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONNECTIONS * INVENTORY_VECTORS)
+    public Object fullScan() {
+        List<Map<InventoryVector, Long>> caches = new ArrayList<>(CONNECTIONS);
+        for (int i = 0; i < CONNECTIONS; i++) {
+            caches.add(new ConcurrentHashMap<InventoryVector, Long>());
+        }
+        long now = 0;
+        for (List<InventoryVector> inv : invs) {
+            now += INV_INTERVAL;
+            for (Map<InventoryVector, Long> cache : caches) {
+                Long timedOut = now - CACHE_TIME;
+                for (Map.Entry<InventoryVector, Long> entry : cache.entrySet()) {
+                    if (entry.getValue() < timedOut) {
+                        cache.remove(entry.getKey());
+                    }
+                }
+                for (InventoryVector iv : inv) {
+                    cache.put(iv, now);
+                }
+            }
+        }
+        return caches;
+    }
+}
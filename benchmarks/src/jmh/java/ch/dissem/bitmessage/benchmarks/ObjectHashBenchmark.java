@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.GenericPayload;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.factory.Factory;
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.Singleton;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+
+/**
+ * The hashing done for every received object: the network handler, the inventory and the requested objects
+ * bookkeeping ask for its inventory vector, and the POW check needs the initial hash.
+ * <p>
+ * {@link #memoized()} reads the object and uses its cached hashes like the library does, {@link #recalculated()}
+ * reads the object and calculates every hash anew, as it was done before the hashes were kept in the object.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ObjectHashBenchmark {
+    /**
+     * Number of times the inventory vector is needed for an object received from the network.
+     */
+    private static final int IV_LOOKUPS = 5;
+
+    @Param({"1024", "262144", "1600000"})
+    int size;
+
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        Singleton.initialize(new BouncyCryptography());
+
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        ObjectMessage object = new ObjectMessage.Builder()
+            .nonce(new byte[8])
+            .stream(1)
+            .expiresTime(UnixTime.now(+UnixTime.DAY))
+            .objectType(42)
+            .payload(new GenericPayload(1, 1, data))
+            .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        object.write(out);
+        serialized = out.toByteArray();
+    }
+
+    @Benchmark
+    public void memoized(Blackhole bh) {
+        ObjectMessage object = read();
+        for (int i = 0; i < IV_LOOKUPS; i++) {
+            bh.consume(object.getInventoryVector());
+        }
+        bh.consume(object.getInitialHash());
+    }
+
+    @Benchmark
+    public void recalculated(Blackhole bh) {
+        ObjectMessage object = read();
+        for (int i = 0; i < IV_LOOKUPS; i++) {
+            bh.consume(new InventoryVector(Bytes.truncate(
+                cryptography().doubleSha512(object.getNonce(), object.getPayloadBytesWithoutNonce()), 32)));
+        }
+        bh.consume(cryptography().sha512(object.getPayloadBytesWithoutNonce()));
+    }
+
+    private ObjectMessage read() {
+        return Factory.getObjectMessage(1, new ByteArrayInputStream(serialized), serialized.length);
+    }
+}
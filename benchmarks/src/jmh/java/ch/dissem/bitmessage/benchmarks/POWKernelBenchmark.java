@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.POWKernel;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes per second of a single POW trial, comparing the {@link POWKernel} with plain {@link MessageDigest}.
+ * Run with <code>-t</code> to see how it scales with the number of threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class POWKernelBenchmark {
+    private final byte[] initialHash = new byte[64];
+    private final byte[] target = {0, 0, 0, 0, 0, 0, 0, 1};
+    private final byte[] nonce = new byte[8];
+    private MessageDigest mda;
+    private POWKernel kernel;
+    private long n;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        new Random().nextBytes(initialHash);
+        mda = MessageDigest.getInstance("SHA-512");
+        kernel = new POWKernel(initialHash, target);
+    }
+
+    @Benchmark
+    public boolean messageDigest() {
+        Bytes.inc(nonce);
+        mda.update(nonce);
+        mda.update(initialHash);
+        return Bytes.lt(target, mda.digest(mda.digest()), 8);
+    }
+
+    @Benchmark
+    public boolean kernel() {
+        return kernel.isValid(n++);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.ports.MultiThreadedPOWEngine;
+import ch.dissem.bitmessage.ports.ProofOfWorkEngine;
+import ch.dissem.bitmessage.ports.SimplePOWEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nonce calculation with the POW engines. The target is chosen so that on average {@value #EXPECTED_TRIALS}
+ * trials are needed to find a nonce, and each invocation counts as that many operations, so the reported
+ * throughput can be read as hashes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ProofOfWorkEngineBenchmark.EXPECTED_TRIALS)
+public class ProofOfWorkEngineBenchmark {
+    static final int EXPECTED_TRIALS = 1 << 16;
+    private static final byte[] TARGET = {0, 0, -1, -1, -1, -1, -1, -1};
+
+    @State(Scope.Thread)
+    public static class Jobs {
+        private final Random random = new Random();
+        private final byte[] initialHash = new byte[64];
+
+        byte[] next() {
+            random.nextBytes(initialHash);
+            return initialHash;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Threaded {
+        @Param({"1", "2", "4", "8"})
+        int threads;
+
+        MultiThreadedPOWEngine engine;
+
+        @Setup
+        public void setUp() {
+            engine = new MultiThreadedPOWEngine(threads);
+        }
+    }
+
+    @Benchmark
+    public void simple(Jobs jobs) throws InterruptedException {
+        calculateNonce(new SimplePOWEngine(), jobs.next());
+    }
+
+    @Benchmark
+    public void multiThreaded(Threaded threaded, Jobs jobs) throws InterruptedException {
+        calculateNonce(threaded.engine, jobs.next());
+    }
+
+    private static void calculateNonce(ProofOfWorkEngine engine, byte[] initialHash) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        engine.calculateNonce(initialHash, TARGET, new ProofOfWorkEngine.Callback() {
+            @Override
+            public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.GenericPayload;
+import ch.dissem.bitmessage.ports.MultiThreadedPOWEngine;
+import ch.dissem.bitmessage.ports.ProofOfWorkEngine;
+import ch.dissem.bitmessage.utils.Singleton;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
+import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+
+/**
+ * Calculating the POW target and checking the POW of received objects, for realistic object sizes and TTLs.
+ * <p>
+ * The objects are checked with a difficulty of one trial per byte, so the setup can find a valid nonce within
+ * seconds. The cost of the check itself doesn't depend on the difficulty.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProofOfWorkTargetBenchmark {
+    private static final long CHECK_NONCE_TRIALS_PER_BYTE = 1;
+    private static final long CHECK_EXTRA_BYTES = 1;
+
+    @Param({"1024", "16384", "262144"})
+    int size;
+
+    @Param({"3600", "345600", "2419200"})
+    long ttl;
+
+    private ObjectMessage object;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        Singleton.initialize(new BouncyCryptography());
+
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        object = new ObjectMessage.Builder()
+            .stream(1)
+            .expiresTime(UnixTime.now(+ttl))
+            .objectType(42)
+            .payload(new GenericPayload(1, 1, data))
+            .build();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        byte[] target = cryptography().getProofOfWorkTarget(object, CHECK_NONCE_TRIALS_PER_BYTE, CHECK_EXTRA_BYTES);
+        new MultiThreadedPOWEngine().calculateNonce(cryptography().getInitialHash(object), target,
+            new ProofOfWorkEngine.Callback() {
+                @Override
+                public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                    object.setNonce(nonce);
+                    latch.countDown();
+                }
+            });
+        latch.await();
+    }
+
+    @Benchmark
+    public byte[] getProofOfWorkTarget() {
+        return cryptography().getProofOfWorkTarget(object, NETWORK_NONCE_TRIALS_PER_BYTE, NETWORK_EXTRA_BYTES);
+    }
+
+    @Benchmark
+    public void checkProofOfWork() throws IOException {
+        cryptography().checkProofOfWork(object, CHECK_NONCE_TRIALS_PER_BYTE, CHECK_EXTRA_BYTES);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.Inv;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.factory.Factory;
+import ch.dissem.bitmessage.factory.V3MessageReader;
+import ch.dissem.bitmessage.utils.Singleton;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+
+/**
+ * A peer floods a loopback connection with small inv messages.
+ * <p>
+ * {@link #receiveBuffer()} reads them with the {@link V3MessageReader}, which parses every message a read returns.
+ * {@link #headerThenPayload()} reads them like the reader did before, with one read for the header and one for
+ * the exactly sized payload. The {@link Reads} counters show how many reads, i.e. system calls, were needed.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReceiveBufferBenchmark {
+    private static final int MESSAGES = 10_000;
+
+    private ServerSocketChannel serverChannel;
+    private SocketChannel sender;
+    private SocketChannel receiver;
+    private ExecutorService executor;
+    private byte[] flood;
+
+    @Setup
+    public void setUp() throws IOException {
+        Singleton.initialize(new BouncyCryptography());
+
+        Random random = new Random();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            new NetworkMessage(new Inv.Builder().addInventoryVector(new InventoryVector(hash)).build()).write(out);
+        }
+        flood = out.toByteArray();
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+        sender = SocketChannel.open(serverChannel.getLocalAddress());
+        receiver = serverChannel.accept();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        sender.close();
+        receiver.close();
+        serverChannel.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void receiveBuffer(Reads reads, Blackhole bh) throws Exception {
+        Future<?> sending = send();
+        V3MessageReader reader = new V3MessageReader();
+        while (reader.getMessages().size() < MESSAGES) {
+            receiver.read(reader.getActiveBuffer());
+            reads.reads++;
+            reader.update();
+        }
+        reads.messages += MESSAGES;
+        bh.consume(reader.getMessages());
+        reader.cleanup();
+        sending.get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void headerThenPayload(Reads reads, Blackhole bh) throws Exception {
+        Future<?> sending = send();
+        for (int i = 0; i < MESSAGES; i++) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                receiver.read(header);
+                reads.reads++;
+            }
+            int length = header.getInt(16);
+            ByteBuffer message = ByteBuffer.allocate(HEADER_SIZE + length);
+            header.flip();
+            message.put(header);
+            while (message.hasRemaining()) {
+                receiver.read(message);
+                reads.reads++;
+            }
+            bh.consume(Factory.getNetworkMessage(3, new ByteArrayInputStream(message.array())));
+        }
+        reads.messages += MESSAGES;
+        sending.get();
+    }
+
+    private Future<?> send() {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(flood);
+                    while (buffer.hasRemaining()) {
+                        sender.write(buffer);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Divide {@code reads} by {@code messages} to get the number of reads per message.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Reads {
+        public long reads;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            reads = 0;
+            messages = 0;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.CryptoBox;
+import ch.dissem.bitmessage.entity.payload.ObjectType;
+import ch.dissem.bitmessage.factory.Factory;
+import ch.dissem.bitmessage.factory.V3MessageReader;
+import ch.dissem.bitmessage.utils.Encode;
+import ch.dissem.bitmessage.utils.Singleton;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+
+/**
+ * Handles a received msg object the way a node does if it's not for us: it's read, its proof of work is checked
+ * using the initial hash, it's stored in the inventory and offered to other nodes using its inventory vector.
+ * {@link #relayAndParse(Blackhole)} additionally parses the payload, as it's done for trial decryption.
+ * <p>
+ * Run with {@code -prof gc} to see how many bytes are allocated per object.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RelayBenchmark {
+    @Param({"1024", "65536"})
+    public int size;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        Singleton.initialize(new BouncyCryptography());
+
+        byte[] plaintext = new byte[size];
+        new Random().nextBytes(plaintext);
+        byte[] publicKey = cryptography().createPublicKey(cryptography().randomBytes(32));
+        CryptoBox encrypted = new CryptoBox(plaintext, publicKey);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[8]);
+        Encode.int64(UnixTime.now(+UnixTime.DAY), out);
+        Encode.int32(ObjectType.MSG.getNumber(), out);
+        Encode.varInt(1, out);
+        Encode.varInt(1, out);
+        encrypted.write(out);
+        byte[] object = out.toByteArray();
+        ObjectMessage msg = Factory.getObjectMessage(3, new ByteArrayInputStream(object), object.length);
+
+        out.reset();
+        new NetworkMessage(msg).write(out);
+        data = out.toByteArray();
+    }
+
+    @Benchmark
+    public void relay(Blackhole bh) {
+        relay(read(), bh);
+    }
+
+    @Benchmark
+    public void relayAndParse(Blackhole bh) {
+        ObjectMessage object = read();
+        bh.consume(object.getPayload());
+        relay(object, bh);
+    }
+
+    private static void relay(ObjectMessage object, Blackhole bh) {
+        bh.consume(object.getInitialHash());
+        bh.consume(Encode.bytes(object));
+        bh.consume(object.getInventoryVector());
+    }
+
+    private ObjectMessage read() {
+        V3MessageReader reader = new V3MessageReader();
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(reader.getActiveBuffer().remaining(), data.length - offset);
+                reader.getActiveBuffer().put(data, offset, length);
+                offset += length;
+                reader.update();
+            }
+            return (ObjectMessage) reader.getMessages().get(0).getPayload();
+        } finally {
+            reader.cleanup();
+        }
+    }
+}
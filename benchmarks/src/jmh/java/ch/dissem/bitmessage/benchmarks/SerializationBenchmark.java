@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.benchmarks;
+
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.Inv;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.GenericPayload;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.utils.Singleton;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.factory.BufferPool.bufferPool;
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+
+/**
+ * Serializes outbound messages the way the network handlers do. Run with {@code -prof gc} to see how many bytes
+ * are allocated per message.
+ * <p>
+ * {@link #pooledBuffer()} writes the message in place into a pooled direct buffer, like the NIO handler.
+ * {@link #headerAndPayloadBuffer()} writes the header and the payload into separate heap buffers, and
+ * {@link #outputStream()} writes to a stream like the blocking handler.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SerializationBenchmark {
+    @Param({"inv", "object"})
+    public String message;
+
+    private NetworkMessage networkMessage;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        Singleton.initialize(new BouncyCryptography());
+
+        Random random = new Random();
+        if ("inv".equals(message)) {
+            List<InventoryVector> inventory = new ArrayList<>(1000);
+            for (int i = 0; i < 1000; i++) {
+                byte[] hash = new byte[32];
+                random.nextBytes(hash);
+                inventory.add(new InventoryVector(hash));
+            }
+            networkMessage = new NetworkMessage(new Inv.Builder().inventory(inventory).build());
+        } else {
+            byte[] data = new byte[10_000];
+            random.nextBytes(data);
+            networkMessage = new NetworkMessage(new ObjectMessage.Builder()
+                .nonce(new byte[8])
+                .expiresTime(UnixTime.now(+UnixTime.DAY))
+                .objectType(42)
+                .stream(1)
+                .payload(new GenericPayload(1, 1, data))
+                .build());
+        }
+        out = new ByteArrayOutputStream(networkMessage.getSerializedSize());
+    }
+
+    @Benchmark
+    public void pooledBuffer(Blackhole bh) {
+        ByteBuffer buffer = bufferPool.allocate(networkMessage.getSerializedSize());
+        networkMessage.write(buffer);
+        bh.consume(buffer);
+        bufferPool.deallocate(buffer);
+    }
+
+    @Benchmark
+    public void headerAndPayloadBuffer(Blackhole bh) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        bh.consume(networkMessage.writeHeaderAndGetPayloadBuffer(header));
+        bh.consume(header);
+    }
+
+    @Benchmark
+    public void outputStream(Blackhole bh) throws IOException {
+        out.reset();
+        networkMessage.write(out);
+        bh.consume(out);
+    }
+}
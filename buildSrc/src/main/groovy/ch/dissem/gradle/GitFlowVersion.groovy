@@ -12,21 +12,15 @@ import org.gradle.api.Project
  */
 class GitFlowVersion implements Plugin<Project> {
     def getBranch(Project project) {
-        def stdout = new ByteArrayOutputStream()
-        project.exec {
+        return project.providers.exec {
             commandLine 'git', 'rev-parse', '--abbrev-ref', 'HEAD'
-            standardOutput = stdout
-        }
-        return stdout.toString().trim()
+        }.standardOutput.asText.get().trim()
     }
 
     def getTag(Project project) {
-        def stdout = new ByteArrayOutputStream()
-        project.exec {
+        return project.providers.exec {
             commandLine 'git', 'describe', '--abbrev=0'
-            standardOutput = stdout
-        }
-        return stdout.toString().trim()
+        }.standardOutput.asText.get().trim()
     }
 
     def isRelease(Project project) {
@@ -50,7 +44,7 @@ class GitFlowVersion implements Plugin<Project> {
         project.ext.isRelease = isRelease(project)
         project.version = getVersion(project)
 
-        project.task('version') << {
+        project.task('version').doLast {
             println "Version deduced from git: '${project.version}'"
         }
     }
@@ -179,6 +179,14 @@ public class BitmessageContext {
         }
     }
 
+    /**
+     * Deletes the message. If it's still being sent, the proof of work for it and its acknowledgement is stopped.
+     */
+    public void delete(Plaintext msg) {
+        ctx.getProofOfWorkService().cancel(msg);
+        ctx.getMessageRepository().remove(msg);
+    }
+
     public void startup() {
         ctx.getNetworkHandler().start();
     }
@@ -282,7 +290,8 @@ public class BitmessageContext {
     public Property status() {
         return new Property("status", null,
             ctx.getNetworkHandler().getNetworkStatus(),
-            new Property("unacknowledged", ctx.getMessageRepository().findMessagesToResend().size())
+            new Property("unacknowledged", ctx.getMessageRepository().findMessagesToResend().size()),
+            ctx.getProofOfWorkService().getStatus()
         );
     }
 
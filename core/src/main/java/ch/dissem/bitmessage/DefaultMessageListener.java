@@ -52,6 +52,10 @@ class DefaultMessageListener implements NetworkHandler.MessageListener, Internal
     @Override
     @SuppressWarnings("ConstantConditions")
     public void receive(ObjectMessage object) throws IOException {
+        List<BitmessageAddress> keys = decryptionKeys(object);
+        if (keys != null && keys.isEmpty()) {
+            return;
+        }
         ObjectPayload payload = object.getPayload();
         if (payload.getType() == null) {
             if (payload instanceof GenericPayload) {
@@ -70,11 +74,11 @@ class DefaultMessageListener implements NetworkHandler.MessageListener, Internal
                 break;
             }
             case MSG: {
-                receive(object, (Msg) payload);
+                receive(object, (Msg) payload, keys);
                 break;
             }
             case BROADCAST: {
-                receive(object, (Broadcast) payload);
+                receive(object, (Broadcast) payload, keys);
                 break;
             }
             default: {
@@ -83,6 +87,23 @@ class DefaultMessageListener implements NetworkHandler.MessageListener, Internal
         }
     }
 
+    /**
+     * Parsing msg and broadcast objects is rather expensive, so it's skipped if there are no keys to decrypt them
+     * anyway. (Acks are msg objects too, but we only expect them if we sent messages from one of our identities.)
+     * The keys are then used for decryption, so they're only loaded once per object.
+     *
+     * @return the identities for msg objects, the subscriptions for broadcasts, or null for any other object type
+     */
+    private List<BitmessageAddress> decryptionKeys(ObjectMessage object) {
+        if (object.getType() == ObjectType.MSG.getNumber()) {
+            return ctx.getAddressRepository().getIdentities();
+        }
+        if (object.getType() == ObjectType.BROADCAST.getNumber()) {
+            return ctx.getAddressRepository().getSubscriptions(object.getVersion());
+        }
+        return null;
+    }
+
     protected void receive(ObjectMessage object, GetPubkey getPubkey) {
         BitmessageAddress identity = ctx.getAddressRepository().findIdentity(getPubkey.getRipeTag());
         if (identity != null && identity.getPrivateKey() != null && !identity.isChan()) {
@@ -125,7 +146,11 @@ class DefaultMessageListener implements NetworkHandler.MessageListener, Internal
     }
 
     protected void receive(ObjectMessage object, Msg msg) throws IOException {
-        for (BitmessageAddress identity : ctx.getAddressRepository().getIdentities()) {
+        receive(object, msg, ctx.getAddressRepository().getIdentities());
+    }
+
+    private void receive(ObjectMessage object, Msg msg, List<BitmessageAddress> identities) throws IOException {
+        for (BitmessageAddress identity : identities) {
             try {
                 msg.decrypt(identity.getPrivateKey().getPrivateEncryptionKey());
                 Plaintext plaintext = msg.getPlaintext();
@@ -152,8 +177,13 @@ class DefaultMessageListener implements NetworkHandler.MessageListener, Internal
     }
 
     protected void receive(ObjectMessage object, Broadcast broadcast) throws IOException {
+        receive(object, broadcast, ctx.getAddressRepository().getSubscriptions(broadcast.getVersion()));
+    }
+
+    private void receive(ObjectMessage object, Broadcast broadcast, List<BitmessageAddress> subscriptions)
+        throws IOException {
         byte[] tag = broadcast instanceof V5Broadcast ? ((V5Broadcast) broadcast).getTag() : null;
-        for (BitmessageAddress subscription : ctx.getAddressRepository().getSubscriptions(broadcast.getVersion())) {
+        for (BitmessageAddress subscription : subscriptions) {
             if (tag != null && !Arrays.equals(tag, subscription.getTag())) {
                 continue;
             }
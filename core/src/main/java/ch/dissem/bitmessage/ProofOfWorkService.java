@@ -2,29 +2,51 @@ package ch.dissem.bitmessage;
 
 import ch.dissem.bitmessage.entity.*;
 import ch.dissem.bitmessage.entity.payload.Msg;
+import ch.dissem.bitmessage.entity.payload.ObjectType;
 import ch.dissem.bitmessage.entity.payload.Pubkey;
 import ch.dissem.bitmessage.ports.Cryptography;
 import ch.dissem.bitmessage.ports.MessageRepository;
 import ch.dissem.bitmessage.ports.ProofOfWorkEngine;
 import ch.dissem.bitmessage.ports.ProofOfWorkRepository;
 import ch.dissem.bitmessage.ports.ProofOfWorkRepository.Item;
+import ch.dissem.bitmessage.utils.Property;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
 import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
+import static ch.dissem.bitmessage.utils.Numbers.max;
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
 
 /**
+ * Schedules the proof of work for objects to send. Acknowledgements and messages are done first, then
+ * other objects, and within each group the objects that expire first.
+ * <p>
+ * If the proof of work engine supports it ({@link ProofOfWorkEngine.WithProgress}), one object is calculated at a
+ * time, and an object that is more urgent than the one in progress preempts it. The nonces tried so far are
+ * regularly stored as a checkpoint in the {@link ProofOfWorkRepository}, so neither preemption nor restarting the
+ * application causes work to be repeated.
+ * </p>
+ *
  * @author Christian Basler
  */
 public class ProofOfWorkService implements ProofOfWorkEngine.Callback, InternalContext.ContextHolder {
     private final static Logger LOG = LoggerFactory.getLogger(ProofOfWorkService.class);
+    private final static long CHECKPOINT_INTERVAL_SECONDS = 60;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        pool("POW-scheduler").daemon().build());
+    private final PriorityQueue<Scheduled> waiting = new PriorityQueue<>();
+    private Scheduled running;
+    private ScheduledFuture<?> checkpoints;
 
     private Cryptography cryptography;
     private InternalContext ctx;
@@ -36,17 +58,24 @@ public class ProofOfWorkService implements ProofOfWorkEngine.Callback, InternalC
         if (items.isEmpty()) return;
 
         // Wait for 30 seconds, to let the application start up before putting heavy load on the CPU
-        new Timer().schedule(new TimerTask() {
+        scheduler.schedule(new Runnable() {
             @Override
             public void run() {
                 LOG.info("Doing POW for " + items.size() + " tasks.");
+                List<Scheduled> scheduled = new ArrayList<>(items.size());
                 for (byte[] initialHash : items) {
-                    Item item = powRepo.getItem(initialHash);
-                    cryptography.doProofOfWork(item.object, item.nonceTrialsPerByte, item.extraBytes,
-                        ProofOfWorkService.this);
+                    try {
+                        scheduled.add(new Scheduled(initialHash, powRepo.getItem(initialHash)));
+                    } catch (RuntimeException e) {
+                        LOG.error("Could not load POW item", e);
+                    }
+                }
+                Collections.sort(scheduled);
+                for (Scheduled s : scheduled) {
+                    schedule(s);
                 }
             }
-        }, delayInMilliseconds);
+        }, delayInMilliseconds, TimeUnit.MILLISECONDS);
     }
 
     public void doProofOfWork(ObjectMessage object) {
@@ -60,12 +89,13 @@ public class ProofOfWorkService implements ProofOfWorkEngine.Callback, InternalC
         long extraBytes = pubkey == null ? NETWORK_EXTRA_BYTES : pubkey.getExtraBytes();
 
         powRepo.putObject(object, nonceTrialsPerByte, extraBytes);
+        byte[] initialHash = cryptography.getInitialHash(object);
         if (object.getPayload() instanceof PlaintextHolder) {
             Plaintext plaintext = ((PlaintextHolder) object.getPayload()).getPlaintext();
-            plaintext.setInitialHash(cryptography.getInitialHash(object));
+            plaintext.setInitialHash(initialHash);
             messageRepo.save(plaintext);
         }
-        cryptography.doProofOfWork(object, nonceTrialsPerByte, extraBytes, this);
+        schedule(new Scheduled(initialHash, new Item(object, nonceTrialsPerByte, extraBytes)));
     }
 
     public void doProofOfWorkWithAck(Plaintext plaintext, long expirationTime) {
@@ -74,7 +104,79 @@ public class ProofOfWorkService implements ProofOfWorkEngine.Callback, InternalC
         Item item = new Item(ack, NETWORK_NONCE_TRIALS_PER_BYTE, NETWORK_EXTRA_BYTES,
             expirationTime, plaintext);
         powRepo.putObject(item);
-        cryptography.doProofOfWork(ack, NETWORK_NONCE_TRIALS_PER_BYTE, NETWORK_EXTRA_BYTES, this);
+        schedule(new Scheduled(cryptography.getInitialHash(ack), item));
+    }
+
+    private synchronized void schedule(Scheduled scheduled) {
+        ProofOfWorkEngine engine = ctx.getProofOfWorkEngine();
+        if (!(engine instanceof ProofOfWorkEngine.WithProgress)) {
+            Item item = scheduled.item;
+            cryptography.doProofOfWork(item.object, item.nonceTrialsPerByte, item.extraBytes, this);
+            return;
+        }
+        waiting.add(scheduled);
+        if (running != null && running.job != null && scheduled.compareTo(running) < 0 && running.job.cancel()) {
+            LOG.debug("Preempting POW for less urgent object");
+            checkpoint(running);
+            waiting.add(running);
+            running = null;
+        }
+        if (running == null) {
+            startNext((ProofOfWorkEngine.WithProgress) engine);
+        }
+    }
+
+    private synchronized void startNext(ProofOfWorkEngine.WithProgress engine) {
+        Scheduled next = waiting.poll();
+        if (next == null) return;
+
+        running = next;
+        Item item = next.item;
+        byte[] target = cryptography.getProofOfWorkTarget(item.object,
+            max(item.nonceTrialsPerByte, NETWORK_NONCE_TRIALS_PER_BYTE),
+            max(item.extraBytes, NETWORK_EXTRA_BYTES));
+        next.job = engine.calculateNonce(next.initialHash, target, next.checkpoint, this);
+
+        if (checkpoints == null) {
+            checkpoints = scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    checkpoint();
+                }
+            }, CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private synchronized void checkpoint() {
+        if (running != null) {
+            checkpoint(running);
+        }
+    }
+
+    private void checkpoint(Scheduled scheduled) {
+        if (scheduled.job == null) return;
+        long checkpoint = scheduled.job.getCheckpoint();
+        if (checkpoint > scheduled.checkpoint) {
+            scheduled.checkpoint = checkpoint;
+            powRepo.updateNonceCheckpoint(scheduled.initialHash, checkpoint);
+        }
+    }
+
+    private synchronized void finished(byte[] initialHash) {
+        Iterator<Scheduled> iterator = waiting.iterator();
+        while (iterator.hasNext()) {
+            Scheduled scheduled = iterator.next();
+            if (Arrays.equals(initialHash, scheduled.initialHash)) {
+                iterator.remove();
+            }
+        }
+        if (running != null && Arrays.equals(initialHash, running.initialHash)) {
+            running = null;
+            ProofOfWorkEngine engine = ctx.getProofOfWorkEngine();
+            if (engine instanceof ProofOfWorkEngine.WithProgress) {
+                startNext((ProofOfWorkEngine.WithProgress) engine);
+            }
+        }
     }
 
     @Override
@@ -113,6 +215,100 @@ public class ProofOfWorkService implements ProofOfWorkEngine.Callback, InternalC
             doProofOfWork(item.message.getTo(), object);
         }
         powRepo.removeObject(initialHash);
+        finished(initialHash);
+    }
+
+    /**
+     * @return the proof of work jobs that are in progress or waiting, the most important first, or an empty list if
+     * the proof of work engine doesn't provide this information.
+     */
+    public List<? extends ProofOfWorkEngine.Job> getJobs() {
+        ProofOfWorkEngine engine = ctx.getProofOfWorkEngine();
+        if (engine instanceof ProofOfWorkEngine.WithProgress) {
+            return ((ProofOfWorkEngine.WithProgress) engine).getJobs();
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Stops the proof of work for the object with the given initial hash and removes it from the repository,
+     * so it won't be resumed on the next start.
+     *
+     * @return true if a running job was cancelled
+     */
+    public boolean cancel(byte[] initialHash) {
+        boolean cancelled = false;
+        for (ProofOfWorkEngine.Job job : getJobs()) {
+            if (Arrays.equals(initialHash, job.getInitialHash())) {
+                cancelled = job.cancel();
+            }
+        }
+        powRepo.removeObject(initialHash);
+        finished(initialHash);
+        return cancelled;
+    }
+
+    /**
+     * Stops the proof of work for a message, i.e. because it was deleted. This includes the proof of work
+     * for its acknowledgement.
+     *
+     * @return true if any running job was cancelled
+     */
+    public boolean cancel(Plaintext message) {
+        List<byte[]> initialHashes = new ArrayList<>();
+        for (ProofOfWorkEngine.Job job : getJobs()) {
+            initialHashes.add(job.getInitialHash());
+        }
+        synchronized (this) {
+            for (Scheduled scheduled : waiting) {
+                initialHashes.add(scheduled.initialHash);
+            }
+        }
+        boolean cancelled = false;
+        for (byte[] initialHash : initialHashes) {
+            if (Arrays.equals(initialHash, message.getInitialHash()) || isAckFor(initialHash, message)) {
+                cancelled |= cancel(initialHash);
+            }
+        }
+        return cancelled;
+    }
+
+    private boolean isAckFor(byte[] initialHash, Plaintext message) {
+        try {
+            Item item = powRepo.getItem(initialHash);
+            return item.message != null && message.getId() != null
+                && Objects.equals(item.message.getId(), message.getId());
+        } catch (RuntimeException e) {
+            LOG.debug(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    public Property getStatus() {
+        List<? extends ProofOfWorkEngine.Job> jobs = getJobs();
+        Property[] jobProperties = new Property[jobs.size()];
+        long hashRate = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            ProofOfWorkEngine.Job job = jobs.get(i);
+            hashRate += job.getHashRate();
+            jobProperties[i] = new Property("job " + (i + 1), null,
+                new Property("trials", job.getTrials()),
+                new Property("expected trials", job.getExpectedTrials()),
+                new Property("hash rate", job.getHashRate()),
+                new Property("estimated seconds remaining", job.getEstimatedTimeRemaining())
+            );
+        }
+        int waitingJobs;
+        synchronized (this) {
+            waitingJobs = waiting.size();
+        }
+        return new Property("proof of work", null,
+            new Property("jobs", jobs.size()),
+            new Property("waiting", waitingJobs),
+            new Property("hash rate", hashRate),
+            new Property("queue", null, jobProperties)
+        );
     }
 
     @Override
@@ -122,4 +318,42 @@ public class ProofOfWorkService implements ProofOfWorkEngine.Callback, InternalC
         this.powRepo = ctx.getProofOfWorkRepository();
         this.messageRepo = ctx.getMessageRepository();
     }
+
+    private static class Scheduled implements Comparable<Scheduled> {
+        final byte[] initialHash;
+        final Item item;
+        final int rank;
+        final long expiresTime;
+        long checkpoint;
+        ProofOfWorkEngine.Job job;
+
+        Scheduled(byte[] initialHash, Item item) {
+            this.initialHash = initialHash;
+            this.item = item;
+            this.rank = rank(item);
+            this.expiresTime = item.object.getExpiresTime();
+            this.checkpoint = item.nonceCheckpoint;
+        }
+
+        /**
+         * Acknowledgements and messages first, as someone is waiting for them.
+         */
+        private static int rank(Item item) {
+            if (item.message != null || item.object.getType() == ObjectType.MSG.getNumber()) {
+                return 0;
+            }
+            if (item.object.getType() == ObjectType.PUBKEY.getNumber()) {
+                return 2;
+            }
+            return 1;
+        }
+
+        @Override
+        public int compareTo(Scheduled other) {
+            if (rank != other.rank) {
+                return Integer.compare(rank, other.rank);
+            }
+            return Long.compare(expiresTime, other.expiresTime);
+        }
+    }
 }
@@ -63,6 +63,15 @@ public class Addr implements MessagePayload {
         }
     }
 
+    @Override
+    public int getSerializedSize() {
+        int size = Encode.varIntSize(addresses.size());
+        for (NetworkAddress address : addresses) {
+            size += address.getSerializedSize();
+        }
+        return size;
+    }
+
     public static final class Builder {
         private List<NetworkAddress> addresses = new ArrayList<>();
 
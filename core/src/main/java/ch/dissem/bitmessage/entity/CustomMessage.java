@@ -52,6 +52,12 @@ public class CustomMessage implements MessagePayload {
         return new CustomMessage(varString(in, counter), bytes(in, length - counter.length()));
     }
 
+    public static CustomMessage read(ByteBuffer in, int length) {
+        int start = in.position();
+        String command = varString(in);
+        return new CustomMessage(command, bytes(in, length - (in.position() - start)));
+    }
+
     @Override
     public Command getCommand() {
         return Command.CUSTOM;
@@ -97,6 +103,16 @@ public class CustomMessage implements MessagePayload {
         }
     }
 
+    @Override
+    public int getSerializedSize() {
+        if (data != null) {
+            return Encode.varStringSize(command) + data.length;
+        } else {
+            throw new ApplicationException("Tried to write custom message without data. " +
+                    "Programmer: did you forget to override #getSerializedSize()?");
+        }
+    }
+
     public boolean isError() {
         return COMMAND_ERROR.equals(command);
     }
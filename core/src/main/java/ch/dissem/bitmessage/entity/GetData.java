@@ -64,6 +64,15 @@ public class GetData implements MessagePayload {
         }
     }
 
+    @Override
+    public int getSerializedSize() {
+        int size = Encode.varIntSize(inventory.size());
+        for (InventoryVector iv : inventory) {
+            size += iv.getSerializedSize();
+        }
+        return size;
+    }
+
     public static final class Builder {
         private List<InventoryVector> inventory = new LinkedList<>();
 
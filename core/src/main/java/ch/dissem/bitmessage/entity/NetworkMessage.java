@@ -23,10 +23,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
 
 /**
@@ -47,14 +45,6 @@ public class NetworkMessage implements Streamable {
         this.payload = payload;
     }
 
-    /**
-     * First 4 bytes of sha512(payload)
-     */
-    private byte[] getChecksum(byte[] bytes) throws NoSuchProviderException, NoSuchAlgorithmException {
-        byte[] d = cryptography().sha512(bytes);
-        return new byte[]{d[0], d[1], d[2], d[3]};
-    }
-
     /**
      * The actual data, a message or an object. Not to be confused with objectPayload.
      */
@@ -64,88 +54,90 @@ public class NetworkMessage implements Streamable {
 
     @Override
     public void write(OutputStream out) throws IOException {
-        // magic
-        Encode.int32(MAGIC, out);
-
-        // ASCII string identifying the packet content, NULL padded (non-NULL padding results in packet rejected)
-        String command = payload.getCommand().name().toLowerCase();
-        out.write(command.getBytes("ASCII"));
-        for (int i = command.length(); i < 12; i++) {
-            out.write('\0');
+        if (payload instanceof ObjectFrame) {
+            out.write(((ObjectFrame) payload).getFrame());
+            return;
         }
-
-        byte[] payloadBytes = Encode.bytes(payload);
-
-        // Length of payload in number of bytes. Because of other restrictions, there is no reason why this length would
-        // ever be larger than 1600003 bytes. Some clients include a sanity-check to avoid processing messages which are
-        // larger than this.
-        Encode.int32(payloadBytes.length, out);
-
-        // checksum
-        try {
-            out.write(getChecksum(payloadBytes));
-        } catch (GeneralSecurityException e) {
-            throw new ApplicationException(e);
-        }
-
-        // message payload
-        out.write(payloadBytes);
+        byte[] bytes = new byte[getSerializedSize()];
+        write(ByteBuffer.wrap(bytes));
+        out.write(bytes);
     }
 
     /**
-     * A more efficient implementation of the write method, writing header data to the provided buffer and returning
-     * a new buffer containing the payload.
+     * Writes the header to the provided buffer and returns a new buffer containing the payload.
+     * <p>
+     * If possible, use {@link #write(ByteBuffer)} with a buffer of {@link #getSerializedSize()} bytes instead,
+     * which serializes the payload right behind the header.
+     * </p>
      *
      * @param headerBuffer where the header data is written to (24 bytes)
      * @return a buffer containing the payload, ready to be read.
      */
     public ByteBuffer writeHeaderAndGetPayloadBuffer(ByteBuffer headerBuffer) {
-        return ByteBuffer.wrap(writeHeader(headerBuffer));
+        if (payload instanceof ObjectFrame) {
+            byte[] frame = ((ObjectFrame) payload).getFrame();
+            headerBuffer.put(frame, 0, HEADER_SIZE);
+            return ByteBuffer.wrap(frame, HEADER_SIZE, frame.length - HEADER_SIZE).slice();
+        }
+        ByteBuffer payloadBuffer = ByteBuffer.allocate(payload.getSerializedSize());
+        payload.write(payloadBuffer);
+        payloadBuffer.flip();
+        writeHeader(payload.getCommand(), payloadBuffer, headerBuffer);
+        return payloadBuffer;
     }
 
     /**
-     * For improved memory efficiency, you should use {@link #writeHeaderAndGetPayloadBuffer(ByteBuffer)}
-     * and write the header buffer as well as the returned payload buffer into the channel.
+     * Writes the whole message without any intermediate copies: the payload is serialized right behind the space
+     * reserved for the header, which is filled in once the payload's checksum is known.
      *
-     * @param buffer where everything gets written to. Needs to be large enough for the whole message
-     *               to be written.
+     * @param buffer where everything gets written to. Needs at least {@link #getSerializedSize()} bytes remaining.
      */
     @Override
     public void write(ByteBuffer buffer) {
-        byte[] payloadBytes = writeHeader(buffer);
-        buffer.put(payloadBytes);
+        if (payload instanceof ObjectFrame) {
+            buffer.put(((ObjectFrame) payload).getFrame());
+            return;
+        }
+        ByteBuffer header = buffer.duplicate();
+        buffer.position(buffer.position() + HEADER_SIZE);
+        ByteBuffer payloadBuffer = buffer.slice();
+        payload.write(buffer);
+        payloadBuffer.limit(buffer.position() - header.position() - HEADER_SIZE);
+        writeHeader(payload.getCommand(), payloadBuffer, header);
+    }
+
+    @Override
+    public int getSerializedSize() {
+        if (payload instanceof ObjectFrame) {
+            return ((ObjectFrame) payload).getSize();
+        }
+        return HEADER_SIZE + payload.getSerializedSize();
     }
 
-    private byte[] writeHeader(ByteBuffer out) {
+    /**
+     * @param payload the serialized payload, between its position and limit, which are left unchanged
+     */
+    static void writeHeader(MessagePayload.Command command, ByteBuffer payload, ByteBuffer out) {
         // magic
         Encode.int32(MAGIC, out);
 
         // ASCII string identifying the packet content, NULL padded (non-NULL padding results in packet rejected)
-        String command = payload.getCommand().name().toLowerCase();
+        String commandName = command.name().toLowerCase();
         try {
-            out.put(command.getBytes("ASCII"));
+            out.put(commandName.getBytes("ASCII"));
         } catch (UnsupportedEncodingException e) {
             throw new ApplicationException(e);
         }
-        for (int i = command.length(); i < 12; i++) {
+        for (int i = commandName.length(); i < 12; i++) {
             out.put((byte) 0);
         }
 
-        byte[] payloadBytes = Encode.bytes(payload);
-
         // Length of payload in number of bytes. Because of other restrictions, there is no reason why this length would
         // ever be larger than 1600003 bytes. Some clients include a sanity-check to avoid processing messages which are
         // larger than this.
-        Encode.int32(payloadBytes.length, out);
-
-        // checksum
-        try {
-            out.put(getChecksum(payloadBytes));
-        } catch (GeneralSecurityException e) {
-            throw new ApplicationException(e);
-        }
+        Encode.int32(payload.remaining(), out);
 
-        // message payload
-        return payloadBytes;
+        // checksum, the first 4 bytes of sha512(payload)
+        out.put(cryptography().sha512(payload), 0, 4);
     }
 }
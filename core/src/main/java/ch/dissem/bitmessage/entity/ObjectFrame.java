@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.entity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+
+/**
+ * An object in its serialized form, together with the network message header. Sending it to another node doesn't
+ * need to parse, serialize or hash the object, so one frame may be sent to many nodes at little cost.
+ */
+public class ObjectFrame implements MessagePayload {
+    private static final long serialVersionUID = 3751391405378652428L;
+
+    private final byte[] frame;
+
+    /**
+     * @param objectBytes the serialized object, as written by {@link ObjectMessage#write(OutputStream)}
+     */
+    public ObjectFrame(byte[] objectBytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + objectBytes.length);
+        NetworkMessage.writeHeader(Command.OBJECT, ByteBuffer.wrap(objectBytes), buffer);
+        buffer.put(objectBytes);
+        this.frame = buffer.array();
+    }
+
+    @Override
+    public Command getCommand() {
+        return Command.OBJECT;
+    }
+
+    /**
+     * @return the whole network message, ready to be written
+     */
+    public ByteBuffer getBuffer() {
+        return ByteBuffer.wrap(frame).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the size of the whole network message in bytes
+     */
+    public int getSize() {
+        return frame.length;
+    }
+
+    byte[] getFrame() {
+        return frame;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        out.write(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        buffer.put(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+    }
+
+    @Override
+    public int getSerializedSize() {
+        return frame.length - HEADER_SIZE;
+    }
+}
@@ -23,7 +23,9 @@ import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.entity.valueobject.PrivateKey;
 import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.exception.DecryptionFailedException;
+import ch.dissem.bitmessage.factory.Factory;
 import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.Decode;
 import ch.dissem.bitmessage.utils.Encode;
 
 import java.io.ByteArrayOutputStream;
@@ -50,8 +52,23 @@ public class ObjectMessage implements MessagePayload {
     private long version;
     private long stream;
 
-    private ObjectPayload payload;
+    /**
+     * Null for objects read from the network until the payload is needed, as most of them are just relayed.
+     */
+    private volatile ObjectPayload payload;
+
+    /**
+     * The serialized payload and the hashes calculated from it are kept until the payload is signed or encrypted,
+     * as a received object is hashed by the network handler, the inventory and the POW check. The inventory vector
+     * also depends on the nonce.
+     */
     private byte[] payloadBytes;
+    /**
+     * Where the payload starts within {@link #payloadBytes} while it isn't parsed yet.
+     */
+    private int payloadOffset;
+    private byte[] initialHash;
+    private InventoryVector inventoryVector;
 
     private ObjectMessage(Builder builder) {
         nonce = builder.nonce;
@@ -60,6 +77,32 @@ public class ObjectMessage implements MessagePayload {
         version = builder.payload.getVersion();
         stream = builder.streamNumber > 0 ? builder.streamNumber : builder.payload.getStream();
         payload = builder.payload;
+        inventoryVector = builder.inventoryVector;
+    }
+
+    private ObjectMessage(byte[] nonce, byte[] payloadBytes, InventoryVector inventoryVector) {
+        ByteBuffer in = ByteBuffer.wrap(payloadBytes);
+        this.nonce = nonce;
+        this.expiresTime = Decode.int64(in);
+        this.objectType = Decode.uint32(in);
+        this.version = Decode.varInt(in);
+        this.stream = Decode.varInt(in);
+        this.payloadBytes = payloadBytes;
+        this.payloadOffset = in.position();
+        this.inventoryVector = inventoryVector;
+    }
+
+    /**
+     * Reads an object from the buffer's remaining bytes. Only the header is decoded, the payload is kept as
+     * received and parsed when {@link #getPayload()} is first called. Objects that are only relayed are therefore
+     * never parsed, and they are hashed and written using the exact bytes that were received.
+     *
+     * @param inventoryVector of the object if it's already known, may be null
+     */
+    public static ObjectMessage read(ByteBuffer in, InventoryVector inventoryVector) {
+        byte[] nonce = Decode.bytes(in, 8);
+        byte[] payloadBytes = Decode.bytes(in, in.remaining());
+        return new ObjectMessage(nonce, payloadBytes, inventoryVector);
     }
 
     @Override
@@ -73,6 +116,7 @@ public class ObjectMessage implements MessagePayload {
 
     public void setNonce(byte[] nonce) {
         this.nonce = nonce;
+        inventoryVector = null;
     }
 
     public long getExpiresTime() {
@@ -84,6 +128,18 @@ public class ObjectMessage implements MessagePayload {
     }
 
     public ObjectPayload getPayload() {
+        ObjectPayload payload = this.payload;
+        if (payload == null) {
+            payload = parsePayload();
+        }
+        return payload;
+    }
+
+    private synchronized ObjectPayload parsePayload() {
+        if (payload == null) {
+            ByteBuffer in = ByteBuffer.wrap(payloadBytes, payloadOffset, payloadBytes.length - payloadOffset);
+            payload = Factory.getObjectPayload(objectType, version, stream, in.slice());
+        }
         return payload;
     }
 
@@ -96,24 +152,44 @@ public class ObjectMessage implements MessagePayload {
     }
 
     public InventoryVector getInventoryVector() {
-        return new InventoryVector(
-                Bytes.truncate(cryptography().doubleSha512(nonce, getPayloadBytesWithoutNonce()), 32)
-        );
+        if (inventoryVector == null) {
+            inventoryVector = new InventoryVector(
+                    Bytes.truncate(cryptography().doubleSha512(nonce, getPayloadBytesWithoutNonce()), 32)
+            );
+        }
+        return inventoryVector;
+    }
+
+    /**
+     * @return the hash of the payload without nonce, which is used to calculate and check the proof of work.
+     */
+    public byte[] getInitialHash() {
+        if (initialHash == null) {
+            initialHash = cryptography().sha512(getPayloadBytesWithoutNonce());
+        }
+        return initialHash;
+    }
+
+    private void payloadChanged() {
+        payloadBytes = null;
+        initialHash = null;
+        inventoryVector = null;
     }
 
     private boolean isEncrypted() {
+        ObjectPayload payload = getPayload();
         return payload instanceof Encrypted && !((Encrypted) payload).isDecrypted();
     }
 
     public boolean isSigned() {
-        return payload.isSigned();
+        return getPayload().isSigned();
     }
 
     private byte[] getBytesToSign() {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             writeHeaderWithoutNonce(out);
-            payload.writeBytesToSign(out);
+            getPayload().writeBytesToSign(out);
             return out.toByteArray();
         } catch (IOException e) {
             throw new ApplicationException(e);
@@ -121,33 +197,41 @@ public class ObjectMessage implements MessagePayload {
     }
 
     public void sign(PrivateKey key) {
+        ObjectPayload payload = getPayload();
         if (payload.isSigned()) {
             payload.setSignature(cryptography().getSignature(getBytesToSign(), key));
+            payloadChanged();
         }
     }
 
     public void decrypt(PrivateKey key) throws IOException, DecryptionFailedException {
+        ObjectPayload payload = getPayload();
         if (payload instanceof Encrypted) {
             ((Encrypted) payload).decrypt(key.getPrivateEncryptionKey());
         }
     }
 
     public void decrypt(byte[] privateEncryptionKey) throws IOException, DecryptionFailedException {
+        ObjectPayload payload = getPayload();
         if (payload instanceof Encrypted) {
             ((Encrypted) payload).decrypt(privateEncryptionKey);
         }
     }
 
     public void encrypt(byte[] publicEncryptionKey) throws IOException {
+        ObjectPayload payload = getPayload();
         if (payload instanceof Encrypted) {
             ((Encrypted) payload).encrypt(publicEncryptionKey);
+            payloadChanged();
         }
     }
 
     public void encrypt(Pubkey publicKey) {
+        ObjectPayload payload = getPayload();
         try {
             if (payload instanceof Encrypted) {
                 ((Encrypted) payload).encrypt(publicKey.getEncryptionKey());
+                payloadChanged();
             }
         } catch (IOException e) {
             throw new ApplicationException(e);
@@ -156,7 +240,7 @@ public class ObjectMessage implements MessagePayload {
 
     public boolean isSignatureValid(Pubkey pubkey) throws IOException {
         if (isEncrypted()) throw new IllegalStateException("Payload must be decrypted first");
-        return cryptography().isSignatureValid(getBytesToSign(), payload.getSignature(), pubkey);
+        return cryptography().isSignatureValid(getBytesToSign(), getPayload().getSignature(), pubkey);
     }
 
     @Override
@@ -179,6 +263,11 @@ public class ObjectMessage implements MessagePayload {
         buffer.put(getPayloadBytesWithoutNonce());
     }
 
+    @Override
+    public int getSerializedSize() {
+        return 8 + getPayloadBytesWithoutNonce().length;
+    }
+
     private void writeHeaderWithoutNonce(OutputStream out) throws IOException {
         Encode.int64(expiresTime, out);
         Encode.int32(objectType, out);
@@ -186,18 +275,26 @@ public class ObjectMessage implements MessagePayload {
         Encode.varInt(stream, out);
     }
 
+    private void writeHeaderWithoutNonce(ByteBuffer buffer) {
+        Encode.int64(expiresTime, buffer);
+        Encode.int32(objectType, buffer);
+        Encode.varInt(version, buffer);
+        Encode.varInt(stream, buffer);
+    }
+
+    private int getHeaderSizeWithoutNonce() {
+        return 8 + 4 + Encode.varIntSize(version) + Encode.varIntSize(stream);
+    }
+
     public byte[] getPayloadBytesWithoutNonce() {
-        try {
-            if (payloadBytes == null) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                writeHeaderWithoutNonce(out);
-                payload.write(out);
-                payloadBytes = out.toByteArray();
-            }
-            return payloadBytes;
-        } catch (IOException e) {
-            throw new ApplicationException(e);
+        if (payloadBytes == null) {
+            byte[] bytes = new byte[getHeaderSizeWithoutNonce() + payload.getSerializedSize()];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            writeHeaderWithoutNonce(buffer);
+            payload.write(buffer);
+            payloadBytes = bytes;
         }
+        return payloadBytes;
     }
 
     public static final class Builder {
@@ -206,6 +303,7 @@ public class ObjectMessage implements MessagePayload {
         private long objectType = -1;
         private long streamNumber;
         private ObjectPayload payload;
+        private InventoryVector inventoryVector;
 
         public Builder nonce(byte[] nonce) {
             this.nonce = nonce;
@@ -239,6 +337,15 @@ public class ObjectMessage implements MessagePayload {
             return this;
         }
 
+        /**
+         * Sets the inventory vector if it's already known, i.e. for objects read from the network, where it's
+         * calculated from the received bytes together with the checksum. It must match the object's content.
+         */
+        public Builder inventoryVector(InventoryVector inventoryVector) {
+            this.inventoryVector = inventoryVector;
+            return this;
+        }
+
         public ObjectMessage build() {
             return new ObjectMessage(this);
         }
@@ -255,7 +362,7 @@ public class ObjectMessage implements MessagePayload {
                 objectType == that.objectType &&
                 version == that.version &&
                 stream == that.stream &&
-                Objects.equals(payload, that.payload);
+                Objects.equals(getPayload(), that.getPayload());
     }
 
     @Override
@@ -265,7 +372,7 @@ public class ObjectMessage implements MessagePayload {
         result = 31 * result + (int) (objectType ^ (objectType >>> 32));
         result = 31 * result + (int) (version ^ (version >>> 32));
         result = 31 * result + (int) (stream ^ (stream >>> 32));
-        result = 31 * result + (payload != null ? payload.hashCode() : 0);
+        result = 31 * result + getPayload().hashCode();
         return result;
     }
 }
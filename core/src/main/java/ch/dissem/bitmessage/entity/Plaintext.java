@@ -217,7 +217,8 @@ public class Plaintext implements Streamable {
         buffer.put(message);
         if (type == Type.MSG) {
             if (to.has(Feature.DOES_ACK) && getAckMessage() != null) {
-                Encode.varBytes(Encode.bytes(getAckMessage()), buffer);
+                Encode.varInt(getAckMessage().getSerializedSize(), buffer);
+                getAckMessage().write(buffer);
             } else {
                 Encode.varInt(0, buffer);
             }
@@ -242,6 +243,35 @@ public class Plaintext implements Streamable {
         write(buffer, true);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return getSerializedSize(true);
+    }
+
+    public int getSerializedSize(boolean includeSignature) {
+        int size = Encode.varIntSize(from.getVersion()) + Encode.varIntSize(from.getStream()) + 4 + 64 + 64;
+        if (from.getVersion() >= 3) {
+            size += Encode.varIntSize(from.getPubkey().getNonceTrialsPerByte());
+            size += Encode.varIntSize(from.getPubkey().getExtraBytes());
+        }
+        if (type == Type.MSG) {
+            size += to.getRipe().length;
+        }
+        size += Encode.varIntSize(encoding) + Encode.varBytesSize(message);
+        if (type == Type.MSG) {
+            if (to.has(Feature.DOES_ACK) && getAckMessage() != null) {
+                int ackSize = getAckMessage().getSerializedSize();
+                size += Encode.varIntSize(ackSize) + ackSize;
+            } else {
+                size += Encode.varIntSize(0);
+            }
+        }
+        if (includeSignature) {
+            size += signature == null ? Encode.varIntSize(0) : Encode.varBytesSize(signature);
+        }
+        return size;
+    }
+
     public Object getId() {
         return id;
     }
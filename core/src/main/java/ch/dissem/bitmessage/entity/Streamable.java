@@ -28,4 +28,10 @@ public interface Streamable extends Serializable {
     void write(OutputStream stream) throws IOException;
 
     void write(ByteBuffer buffer);
+
+    /**
+     * @return the exact number of bytes {@link #write(OutputStream)} and {@link #write(ByteBuffer)} will write,
+     * so a buffer of the right size can be allocated beforehand.
+     */
+    int getSerializedSize();
 }
@@ -40,4 +40,9 @@ public class VerAck implements MessagePayload {
     public void write(ByteBuffer buffer) {
         // 'verack' doesn't have any payload, so there is nothing to write
     }
+
+    @Override
+    public int getSerializedSize() {
+        return 0;
+    }
 }
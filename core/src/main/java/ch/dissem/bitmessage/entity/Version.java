@@ -146,6 +146,12 @@ public class Version implements MessagePayload {
         Encode.varIntList(streams, buffer);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return 4 + 8 + 8 + addrRecv.getSerializedSize(true) + addrFrom.getSerializedSize(true) + 8
+            + Encode.varStringSize(userAgent) + Encode.varIntListSize(streams);
+    }
+
 
     public static final class Builder {
         private int version;
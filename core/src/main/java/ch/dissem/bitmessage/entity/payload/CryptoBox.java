@@ -17,7 +17,6 @@
 package ch.dissem.bitmessage.entity.payload;
 
 import ch.dissem.bitmessage.entity.Streamable;
-import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.exception.DecryptionFailedException;
 import ch.dissem.bitmessage.utils.*;
 import org.slf4j.Logger;
@@ -93,6 +92,19 @@ public class CryptoBox implements Streamable {
                 .build();
     }
 
+    public static CryptoBox read(ByteBuffer in, int length) {
+        int start = in.position();
+        Builder builder = new Builder()
+                .IV(Decode.bytes(in, 16))
+                .curveType(Decode.uint16(in))
+                .X(Decode.shortVarBytes(in))
+                .Y(Decode.shortVarBytes(in));
+        return builder
+                .encrypted(Decode.bytes(in, length - (in.position() - start) - 32))
+                .MAC(Decode.bytes(in, 32))
+                .build();
+    }
+
     /**
      * @param k a private key, typically should be 32 bytes long
      * @return an InputStream yielding the decrypted data
@@ -121,13 +133,9 @@ public class CryptoBox implements Streamable {
     }
 
     private byte[] calculateMac(byte[] key_m) {
-        try {
-            ByteArrayOutputStream macData = new ByteArrayOutputStream();
-            writeWithoutMAC(macData);
-            return cryptography().mac(key_m, macData.toByteArray());
-        } catch (IOException e) {
-            throw new ApplicationException(e);
-        }
+        byte[] macData = new byte[getSerializedSize() - 32];
+        writeWithoutMAC(ByteBuffer.wrap(macData));
+        return cryptography().mac(key_m, macData);
     }
 
     private void writeWithoutMAC(OutputStream out) throws IOException {
@@ -138,6 +146,14 @@ public class CryptoBox implements Streamable {
         out.write(encrypted);
     }
 
+    private void writeWithoutMAC(ByteBuffer buffer) {
+        buffer.put(initializationVector);
+        Encode.int16(curveType, buffer);
+        writeCoordinateComponent(buffer, Points.getX(R));
+        writeCoordinateComponent(buffer, Points.getY(R));
+        buffer.put(encrypted);
+    }
+
     private void writeCoordinateComponent(OutputStream out, byte[] x) throws IOException {
         int offset = Bytes.numberOfLeadingZeros(x);
         int length = x.length - offset;
@@ -160,14 +176,20 @@ public class CryptoBox implements Streamable {
 
     @Override
     public void write(ByteBuffer buffer) {
-        buffer.put(initializationVector);
-        Encode.int16(curveType, buffer);
-        writeCoordinateComponent(buffer, Points.getX(R));
-        writeCoordinateComponent(buffer, Points.getY(R));
-        buffer.put(encrypted);
+        writeWithoutMAC(buffer);
         buffer.put(mac);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return 16 + 2 + getCoordinateComponentSize(Points.getX(R)) + getCoordinateComponentSize(Points.getY(R))
+            + encrypted.length + 32;
+    }
+
+    private static int getCoordinateComponentSize(byte[] x) {
+        return 2 + x.length - Bytes.numberOfLeadingZeros(x);
+    }
+
     public static final class Builder {
         private byte[] initializationVector;
         private int curveType;
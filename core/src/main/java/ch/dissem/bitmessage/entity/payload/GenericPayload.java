@@ -44,6 +44,10 @@ public class GenericPayload extends ObjectPayload {
         return new GenericPayload(version, stream, Decode.bytes(is, length));
     }
 
+    public static GenericPayload read(long version, long stream, ByteBuffer in, int length) {
+        return new GenericPayload(version, stream, Decode.bytes(in, length));
+    }
+
     @Override
     public ObjectType getType() {
         return null;
@@ -68,6 +72,11 @@ public class GenericPayload extends ObjectPayload {
         buffer.put(data);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return data.length;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -52,6 +52,10 @@ public class GetPubkey extends ObjectPayload {
         return new GetPubkey(version, stream, Decode.bytes(is, length));
     }
 
+    public static GetPubkey read(ByteBuffer in, long stream, int length, long version) {
+        return new GetPubkey(version, stream, Decode.bytes(in, length));
+    }
+
     /**
      * @return an array of bytes that represent either the ripe, or the tag of an address, depending on the
      * address version.
@@ -79,4 +83,9 @@ public class GetPubkey extends ObjectPayload {
     public void write(ByteBuffer buffer) {
         buffer.put(ripeTag);
     }
+
+    @Override
+    public int getSerializedSize() {
+        return ripeTag.length;
+    }
 }
@@ -56,6 +56,10 @@ public class Msg extends ObjectPayload implements Encrypted, PlaintextHolder {
         return new Msg(stream, CryptoBox.read(in, length));
     }
 
+    public static Msg read(ByteBuffer in, long stream, int length) {
+        return new Msg(stream, CryptoBox.read(in, length));
+    }
+
     @Override
     public Plaintext getPlaintext() {
         return plaintext;
@@ -118,6 +122,12 @@ public class Msg extends ObjectPayload implements Encrypted, PlaintextHolder {
         encrypted.write(buffer);
     }
 
+    @Override
+    public int getSerializedSize() {
+        if (encrypted == null) throw new IllegalStateException("Msg must be signed and encrypted before writing it.");
+        return encrypted.getSerializedSize();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
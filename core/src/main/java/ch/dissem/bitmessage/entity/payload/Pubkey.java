@@ -65,6 +65,13 @@ public abstract class Pubkey extends ObjectPayload {
         write(buffer);
     }
 
+    /**
+     * @return the number of bytes {@link #writeUnencrypted(ByteBuffer)} writes
+     */
+    public int getUnencryptedSize() {
+        return getSerializedSize();
+    }
+
     protected byte[] add0x04(byte[] key) {
         if (key.length == 65) return key;
         byte[] result = new byte[65];
@@ -56,6 +56,15 @@ public class V2Pubkey extends Pubkey {
                 .build();
     }
 
+    public static V2Pubkey read(ByteBuffer in, long stream) {
+        return new V2Pubkey.Builder()
+                .stream(stream)
+                .behaviorBitfield((int) Decode.uint32(in))
+                .publicSigningKey(Decode.bytes(in, 64))
+                .publicEncryptionKey(Decode.bytes(in, 64))
+                .build();
+    }
+
     @Override
     public long getVersion() {
         return 2;
@@ -100,6 +109,11 @@ public class V2Pubkey extends Pubkey {
         buffer.put(publicEncryptionKey, 1, 64);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return 4 + 64 + 64;
+    }
+
     public static class Builder {
         private long streamNumber;
         private int behaviorBitfield;
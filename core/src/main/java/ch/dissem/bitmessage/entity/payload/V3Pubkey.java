@@ -22,6 +22,7 @@ import ch.dissem.bitmessage.utils.Encode;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -58,6 +59,18 @@ public class V3Pubkey extends V2Pubkey {
                 .build();
     }
 
+    public static V3Pubkey read(ByteBuffer in, long stream) {
+        return new V3Pubkey.Builder()
+                .stream(stream)
+                .behaviorBitfield(Decode.int32(in))
+                .publicSigningKey(Decode.bytes(in, 64))
+                .publicEncryptionKey(Decode.bytes(in, 64))
+                .nonceTrialsPerByte(Decode.varInt(in))
+                .extraBytes(Decode.varInt(in))
+                .signature(Decode.varBytes(in))
+                .build();
+    }
+
     @Override
     public void write(OutputStream out) throws IOException {
         writeBytesToSign(out);
@@ -65,6 +78,20 @@ public class V3Pubkey extends V2Pubkey {
         out.write(signature);
     }
 
+    @Override
+    public void write(ByteBuffer buffer) {
+        super.write(buffer);
+        Encode.varInt(nonceTrialsPerByte, buffer);
+        Encode.varInt(extraBytes, buffer);
+        Encode.varBytes(signature, buffer);
+    }
+
+    @Override
+    public int getSerializedSize() {
+        return super.getSerializedSize() + Encode.varIntSize(nonceTrialsPerByte) + Encode.varIntSize(extraBytes)
+            + Encode.varBytesSize(signature);
+    }
+
     @Override
     public long getVersion() {
         return 3;
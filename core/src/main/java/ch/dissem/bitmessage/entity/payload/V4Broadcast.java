@@ -45,6 +45,10 @@ public class V4Broadcast extends Broadcast {
         return new V4Broadcast(4, stream, CryptoBox.read(in, length), null);
     }
 
+    public static V4Broadcast read(ByteBuffer in, long stream, int length) {
+        return new V4Broadcast(4, stream, CryptoBox.read(in, length), null);
+    }
+
     @Override
     public ObjectType getType() {
         return ObjectType.BROADCAST;
@@ -64,4 +68,9 @@ public class V4Broadcast extends Broadcast {
     public void write(ByteBuffer buffer) {
         encrypted.write(buffer);
     }
+
+    @Override
+    public int getSerializedSize() {
+        return encrypted.getSerializedSize();
+    }
 }
@@ -64,6 +64,15 @@ public class V4Pubkey extends Pubkey implements Encrypted {
             return new V4Pubkey(V3Pubkey.read(in, stream));
     }
 
+    public static V4Pubkey read(ByteBuffer in, long stream, int length, boolean encrypted) {
+        if (encrypted)
+            return new V4Pubkey(stream,
+                    Decode.bytes(in, 32),
+                    CryptoBox.read(in, length - 32));
+        else
+            return new V4Pubkey(V3Pubkey.read(in, stream));
+    }
+
     @Override
     public void encrypt(byte[] publicKey) throws IOException {
         if (getSignature() == null) throw new IllegalStateException("Pubkey must be signed before encryption.");
@@ -92,6 +101,11 @@ public class V4Pubkey extends Pubkey implements Encrypted {
         encrypted.write(buffer);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return tag.length + encrypted.getSerializedSize();
+    }
+
     @Override
     public void writeUnencrypted(OutputStream out) throws IOException {
         decrypted.write(out);
@@ -102,6 +116,11 @@ public class V4Pubkey extends Pubkey implements Encrypted {
         decrypted.write(buffer);
     }
 
+    @Override
+    public int getUnencryptedSize() {
+        return decrypted.getSerializedSize();
+    }
+
     @Override
     public void writeBytesToSign(OutputStream out) throws IOException {
         out.write(tag);
@@ -23,6 +23,7 @@ import ch.dissem.bitmessage.utils.Decode;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Users who are subscribed to the sending address will see the message appear in their inbox.
@@ -48,6 +49,10 @@ public class V5Broadcast extends V4Broadcast {
         return new V5Broadcast(stream, Decode.bytes(is, 32), CryptoBox.read(is, length - 32));
     }
 
+    public static V5Broadcast read(ByteBuffer in, long stream, int length) {
+        return new V5Broadcast(stream, Decode.bytes(in, 32), CryptoBox.read(in, length - 32));
+    }
+
     public byte[] getTag() {
         return tag;
     }
@@ -63,4 +68,15 @@ public class V5Broadcast extends V4Broadcast {
         out.write(tag);
         super.write(out);
     }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        buffer.put(tag);
+        super.write(buffer);
+    }
+
+    @Override
+    public int getSerializedSize() {
+        return tag.length + super.getSerializedSize();
+    }
 }
@@ -66,6 +66,11 @@ public class InventoryVector implements Streamable, Serializable {
         buffer.put(hash);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return hash.length;
+    }
+
     @Override
     public String toString() {
         return Strings.hex(hash).toString();
@@ -147,6 +147,15 @@ public class NetworkAddress implements Streamable {
         Encode.int16(port, buffer);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return getSerializedSize(false);
+    }
+
+    public int getSerializedSize(boolean light) {
+        return (light ? 0 : 8 + 4) + 8 + ipv6.length + 2;
+    }
+
     public static final class Builder {
         private long time;
         private long stream;
@@ -185,14 +185,17 @@ public class PrivateKey implements Streamable {
     public void write(ByteBuffer buffer) {
         Encode.varInt(pubkey.getVersion(), buffer);
         Encode.varInt(pubkey.getStream(), buffer);
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            pubkey.writeUnencrypted(baos);
-            Encode.varBytes(baos.toByteArray(), buffer);
-        } catch (IOException e) {
-            throw new ApplicationException(e);
-        }
+        Encode.varInt(pubkey.getUnencryptedSize(), buffer);
+        pubkey.writeUnencrypted(buffer);
         Encode.varBytes(privateSigningKey, buffer);
         Encode.varBytes(privateEncryptionKey, buffer);
     }
+
+    @Override
+    public int getSerializedSize() {
+        int pubkeySize = pubkey.getUnencryptedSize();
+        return Encode.varIntSize(pubkey.getVersion()) + Encode.varIntSize(pubkey.getStream())
+            + Encode.varIntSize(pubkeySize) + pubkeySize
+            + Encode.varBytesSize(privateSigningKey) + Encode.varBytesSize(privateEncryptionKey);
+    }
 }
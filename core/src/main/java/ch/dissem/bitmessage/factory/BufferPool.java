@@ -16,77 +16,283 @@
 
 package ch.dissem.bitmessage.factory;
 
+import ch.dissem.bitmessage.utils.Property;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.Map;
-import java.util.Stack;
-import java.util.TreeMap;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
-import static ch.dissem.bitmessage.ports.NetworkHandler.MAX_PAYLOAD_SIZE;
+import static ch.dissem.bitmessage.ports.NetworkHandler.MAX_MESSAGE_SIZE;
 
 /**
- * A pool for {@link ByteBuffer}s. As they may use up a lot of memory,
+ * A pool for direct {@link ByteBuffer}s. As they may use up a lot of memory,
  * they should be reused as efficiently as possible.
+ * <p>
+ * Buffers come in a few sizes, called tiers. Each thread keeps a few buffers of each tier for itself, so most
+ * buffers are reused without any synchronization. Others are shared through a lock-free queue per tier. Both
+ * hold no more than a fixed number of buffers per tier, further buffers are left to the garbage collector.
+ * </p><p>
+ * In debug mode, the pool remembers where each buffer was allocated. It logs an error for every buffer that is
+ * garbage collected without having been deallocated, and throws an exception if a buffer is deallocated twice.
+ * </p>
  */
-class BufferPool {
+public class BufferPool {
     private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
 
+    /**
+     * Size of the buffer each connection reads into. Large enough that a single read usually returns many
+     * small messages.
+     */
+    static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
     public static final BufferPool bufferPool = new BufferPool();
 
-    private final Map<Integer, Stack<ByteBuffer>> pools = new TreeMap<>();
+    private final Tier[] tiers;
+    private final ThreadLocal<Queue<ByteBuffer>[]> localBuffers = new ThreadLocal<Queue<ByteBuffer>[]>() {
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        protected Queue<ByteBuffer>[] initialValue() {
+            Queue<ByteBuffer>[] local = new Queue[tiers.length];
+            for (int i = 0; i < tiers.length; i++) {
+                local[i] = new ArrayDeque<>(tiers[i].localCapacity);
+            }
+            return local;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong leaked = new AtomicLong();
+
+    private volatile boolean debug;
+    private final ConcurrentMap<Allocation, Allocation> allocations = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<>();
 
     private BufferPool() {
-        pools.put(HEADER_SIZE, new Stack<ByteBuffer>());
-        pools.put(54, new Stack<ByteBuffer>());
-        pools.put(1000, new Stack<ByteBuffer>());
-        pools.put(60000, new Stack<ByteBuffer>());
-        pools.put(MAX_PAYLOAD_SIZE, new Stack<ByteBuffer>());
-    }
-
-    public synchronized ByteBuffer allocate(int capacity) {
-        Integer targetSize = getTargetSize(capacity);
-        Stack<ByteBuffer> pool = pools.get(targetSize);
-        if (pool.isEmpty()) {
-            LOG.trace("Creating new buffer of size " + targetSize);
-            return ByteBuffer.allocate(targetSize);
-        } else {
-            return pool.pop();
-        }
+        this(
+            new Tier(HEADER_SIZE, 16, 1024),
+            new Tier(54, 16, 1024),
+            new Tier(1000, 8, 512),
+            new Tier(60000, 2, 64),
+            new Tier(RECEIVE_BUFFER_SIZE, 2, 256),
+            new Tier(MAX_MESSAGE_SIZE, 0, 4)
+        );
+    }
+
+    /**
+     * @param tiers ordered by size
+     */
+    BufferPool(Tier... tiers) {
+        this.tiers = tiers;
+    }
+
+    /**
+     * @return a buffer with at least the given capacity, with its limit set to its capacity
+     */
+    public ByteBuffer allocate(int capacity) {
+        return take(getTier(capacity));
     }
 
     /**
-     * Returns a buffer that has the size of the Bitmessage network message header, 24 bytes.
+     * Returns a buffer for reading from a channel. As it's direct, the data doesn't need to be copied from a
+     * temporary direct buffer.
      *
-     * @return a buffer of size 24
+     * @return a buffer of size {@link #RECEIVE_BUFFER_SIZE}
      */
-    public synchronized ByteBuffer allocateHeaderBuffer() {
-        Stack<ByteBuffer> pool = pools.get(HEADER_SIZE);
-        if (pool.isEmpty()) {
-            return ByteBuffer.allocate(HEADER_SIZE);
+    public ByteBuffer allocateReceiveBuffer() {
+        return allocate(RECEIVE_BUFFER_SIZE);
+    }
+
+    public void deallocate(ByteBuffer buffer) {
+        int index = getTierIndex(buffer.capacity());
+        if (index < 0) {
+            throw new IllegalArgumentException("Illegal buffer capacity " + buffer.capacity() + ".");
+        }
+        if (debug && allocations.remove(new Allocation(buffer)) == null) {
+            throw new IllegalStateException("Buffer was deallocated twice or wasn't allocated by this pool.");
+        }
+        outstanding.decrementAndGet();
+        outstandingBytes.addAndGet(-buffer.capacity());
+        buffer.clear();
+
+        Tier tier = tiers[index];
+        Queue<ByteBuffer> local = localBuffers.get()[index];
+        if (local.size() < tier.localCapacity) {
+            local.offer(buffer);
+        } else if (tier.pooled.incrementAndGet() <= tier.sharedCapacity) {
+            tier.shared.offer(buffer);
         } else {
-            return pool.pop();
+            tier.pooled.decrementAndGet();
+            discarded.incrementAndGet();
         }
     }
 
-    public synchronized void deallocate(ByteBuffer buffer) {
-        buffer.clear();
-        Stack<ByteBuffer> pool = pools.get(buffer.capacity());
-        if (pool == null) {
-            throw new IllegalArgumentException("Illegal buffer capacity " + buffer.capacity() +
-                " one of " + pools.keySet() + " expected.");
+    /**
+     * In debug mode, leaked and twice deallocated buffers are detected. This is rather expensive, so it should
+     * only be used to look for bugs. It must be enabled before any buffers are allocated, as deallocating a buffer
+     * that was allocated before is considered an error.
+     */
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+        if (!debug) {
+            allocations.clear();
+        }
+    }
+
+    public Property getStatus() {
+        long hits = this.hits.get();
+        long misses = this.misses.get();
+        return new Property("buffers", null,
+            new Property("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses)),
+            new Property("allocated", misses),
+            new Property("outstanding", outstanding.get()),
+            new Property("outstandingBytes", outstandingBytes.get()),
+            new Property("discarded", discarded.get()),
+            new Property("leaked", leaked.get())
+        );
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    long getLeaked() {
+        return leaked.get();
+    }
+
+    private ByteBuffer take(int index) {
+        Tier tier = tiers[index];
+        ByteBuffer buffer = localBuffers.get()[index].poll();
+        if (buffer == null) {
+            buffer = tier.shared.poll();
+            if (buffer != null) {
+                tier.pooled.decrementAndGet();
+            }
+        }
+        if (buffer == null) {
+            LOG.trace("Creating new buffer of size " + tier.size);
+            misses.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(tier.size);
         } else {
-            pool.push(buffer);
+            hits.incrementAndGet();
+        }
+        outstanding.incrementAndGet();
+        outstandingBytes.addAndGet(tier.size);
+        if (debug) {
+            track(buffer);
+        }
+        return buffer;
+    }
+
+    private void track(ByteBuffer buffer) {
+        Reference<? extends ByteBuffer> reference;
+        while ((reference = collected.poll()) != null) {
+            Allocation allocation = allocations.remove(reference);
+            if (allocation != null) {
+                leaked.incrementAndGet();
+                outstanding.decrementAndGet();
+                outstandingBytes.addAndGet(-allocation.capacity);
+                LOG.error("Buffer of size " + allocation.capacity + " was never deallocated.", allocation.trace);
+            }
         }
+        Allocation allocation = new Allocation(buffer, collected);
+        allocations.put(allocation, allocation);
     }
 
-    private Integer getTargetSize(int capacity) {
-        for (Integer size : pools.keySet()) {
-            if (size >= capacity) return size;
+    private int getTier(int capacity) {
+        for (int i = 0; i < tiers.length; i++) {
+            if (tiers[i].size >= capacity) return i;
         }
         throw new IllegalArgumentException("Requested capacity too large: " +
-            "requested=" + capacity + "; max=" + MAX_PAYLOAD_SIZE);
+            "requested=" + capacity + "; max=" + tiers[tiers.length - 1].size);
+    }
+
+    private int getTierIndex(int size) {
+        for (int i = 0; i < tiers.length; i++) {
+            if (tiers[i].size == size) return i;
+        }
+        return -1;
+    }
+
+    static class Tier {
+        private final int size;
+        private final int localCapacity;
+        private final int sharedCapacity;
+        private final Queue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        /**
+         * @param size           of the buffers
+         * @param localCapacity  number of buffers each thread keeps for itself
+         * @param sharedCapacity number of buffers all threads share
+         */
+        Tier(int size, int localCapacity, int sharedCapacity) {
+            this.size = size;
+            this.localCapacity = localCapacity;
+            this.sharedCapacity = sharedCapacity;
+        }
+    }
+
+    /**
+     * Remembers where a buffer was allocated. Allocations are equal if they refer to the same buffer, so one can
+     * be found in a map by its buffer. Once the buffer is garbage collected, an allocation only equals itself.
+     */
+    private static class Allocation extends WeakReference<ByteBuffer> {
+        private final int hash;
+        private final int capacity;
+        private final Throwable trace;
+
+        Allocation(ByteBuffer buffer) {
+            super(buffer);
+            this.hash = System.identityHashCode(buffer);
+            this.capacity = buffer.capacity();
+            this.trace = null;
+        }
+
+        Allocation(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+            super(buffer, queue);
+            this.hash = System.identityHashCode(buffer);
+            this.capacity = buffer.capacity();
+            this.trace = new Throwable("Allocated here");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Allocation)) return false;
+            ByteBuffer buffer = get();
+            return buffer != null && buffer == ((Allocation) o).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 }
@@ -23,6 +23,7 @@ import ch.dissem.bitmessage.entity.Plaintext;
 import ch.dissem.bitmessage.entity.payload.*;
 import ch.dissem.bitmessage.entity.valueobject.PrivateKey;
 import ch.dissem.bitmessage.exception.NodeException;
+import ch.dissem.bitmessage.utils.Decode;
 import ch.dissem.bitmessage.utils.TTL;
 import ch.dissem.bitmessage.utils.UnixTime;
 import org.slf4j.Logger;
@@ -32,6 +33,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 import static ch.dissem.bitmessage.entity.payload.ObjectType.MSG;
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
@@ -161,6 +163,58 @@ public class Factory {
         return GenericPayload.read(version, streamNumber, stream, length);
     }
 
+    /**
+     * Parses the payload of an object, which must be the buffer's remaining bytes. If it can't be parsed,
+     * a {@link GenericPayload} containing those bytes is returned instead.
+     */
+    public static ObjectPayload getObjectPayload(long objectType, long version, long streamNumber, ByteBuffer in) {
+        int position = in.position();
+        try {
+            return getObjectPayload(objectType, version, streamNumber, in, in.remaining());
+        } catch (Exception e) {
+            LOG.trace("Could not parse object payload - using generic payload instead", e);
+            in.position(position);
+            return new GenericPayload(version, streamNumber, Decode.bytes(in, in.remaining()));
+        }
+    }
+
+    /**
+     * Same as {@link #getObjectPayload(long, long, long, InputStream, int)}, but reads from a buffer.
+     */
+    static ObjectPayload getObjectPayload(long objectType,
+                                          long version,
+                                          long streamNumber,
+                                          ByteBuffer in,
+                                          int length) {
+        ObjectType type = ObjectType.fromNumber(objectType);
+        if (type != null) {
+            switch (type) {
+                case GET_PUBKEY:
+                    return GetPubkey.read(in, streamNumber, length, version);
+                case PUBKEY:
+                    Pubkey pubkey = readPubkey(version, streamNumber, in, length, true);
+                    return pubkey != null ? pubkey : GenericPayload.read(version, streamNumber, in, length);
+                case MSG:
+                    return Msg.read(in, streamNumber, length);
+                case BROADCAST:
+                    switch ((int) version) {
+                        case 4:
+                            return V4Broadcast.read(in, streamNumber, length);
+                        case 5:
+                            return V5Broadcast.read(in, streamNumber, length);
+                        default:
+                            LOG.debug("Encountered unknown broadcast version " + version);
+                            return GenericPayload.read(version, streamNumber, in, length);
+                    }
+                default:
+                    LOG.error("This should not happen, someone broke something in the code!");
+            }
+        }
+        // fallback: just store the message - we don't really care what it is
+        LOG.trace("Unexpected object type: " + objectType);
+        return GenericPayload.read(version, streamNumber, in, length);
+    }
+
     private static ObjectPayload parseGetPubkey(long version, long streamNumber, InputStream stream, int length) throws IOException {
         return GetPubkey.read(stream, streamNumber, length, version);
     }
@@ -178,6 +232,19 @@ public class Factory {
         return null;
     }
 
+    public static Pubkey readPubkey(long version, long stream, ByteBuffer in, int length, boolean encrypted) {
+        switch ((int) version) {
+            case 2:
+                return V2Pubkey.read(in, stream);
+            case 3:
+                return V3Pubkey.read(in, stream);
+            case 4:
+                return V4Pubkey.read(in, stream, length, encrypted);
+        }
+        LOG.debug("Unexpected pubkey version " + version + ", handling as generic payload object");
+        return null;
+    }
+
     private static ObjectPayload parsePubkey(long version, long streamNumber, InputStream stream, int length) throws IOException {
         Pubkey pubkey = readPubkey(version, streamNumber, stream, length, true);
         return pubkey != null ? pubkey : GenericPayload.read(version, streamNumber, stream, length);
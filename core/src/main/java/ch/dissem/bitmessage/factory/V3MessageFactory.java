@@ -23,6 +23,7 @@ import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
 import ch.dissem.bitmessage.exception.NodeException;
 import ch.dissem.bitmessage.utils.AccessCounter;
+import ch.dissem.bitmessage.utils.Bytes;
 import ch.dissem.bitmessage.utils.Decode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,12 +31,16 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import static ch.dissem.bitmessage.entity.NetworkMessage.MAGIC_BYTES;
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
 
 /**
- * Creates protocol v3 network messages from {@link InputStream InputStreams}
+ * Creates protocol v3 network messages from {@link InputStream InputStreams}, or payloads from
+ * {@link ByteBuffer ByteBuffers}
  */
 class V3MessageFactory {
     private static Logger LOG = LoggerFactory.getLogger(V3MessageFactory.class);
@@ -51,8 +56,9 @@ class V3MessageFactory {
 
         byte[] payloadBytes = Decode.bytes(in, length);
 
-        if (testChecksum(checksum, payloadBytes)) {
-            MessagePayload payload = getPayload(command, new ByteArrayInputStream(payloadBytes), length);
+        byte[] payloadHash = cryptography().sha512(payloadBytes);
+        if (testChecksum(checksum, payloadHash)) {
+            MessagePayload payload = getPayload(command, new ByteArrayInputStream(payloadBytes), length, payloadHash);
             if (payload != null)
                 return new NetworkMessage(payload);
             else
@@ -62,7 +68,11 @@ class V3MessageFactory {
         }
     }
 
-    static MessagePayload getPayload(String command, InputStream stream, int length) throws IOException {
+    /**
+     * @param payloadHash the SHA-512 hash of the payload, as calculated for the checksum
+     */
+    static MessagePayload getPayload(String command, InputStream stream, int length, byte[] payloadHash)
+        throws IOException {
         switch (command) {
             case "version":
                 return parseVersion(stream);
@@ -75,7 +85,7 @@ class V3MessageFactory {
             case "getdata":
                 return parseGetData(stream);
             case "object":
-                return readObject(stream, length);
+                return readObject(stream, length, payloadHash);
             case "custom":
                 return readCustom(stream, length);
             default:
@@ -84,11 +94,47 @@ class V3MessageFactory {
         }
     }
 
+    /**
+     * Parses the payload in the buffer's remaining bytes. Nothing in the result refers to the buffer, so it may be
+     * reused afterwards.
+     *
+     * @param payloadHash the SHA-512 hash of the payload, as calculated for the checksum
+     */
+    static MessagePayload getPayload(String command, ByteBuffer in, byte[] payloadHash) {
+        switch (command) {
+            case "version":
+                return parseVersion(in);
+            case "verack":
+                return new VerAck();
+            case "addr":
+                return parseAddr(in);
+            case "inv":
+                return parseInv(in);
+            case "getdata":
+                return parseGetData(in);
+            case "object":
+                return readObject(in, payloadHash);
+            case "custom":
+                return CustomMessage.read(in, in.remaining());
+            default:
+                LOG.debug("Unknown command: " + command);
+                return null;
+        }
+    }
+
     private static MessagePayload readCustom(InputStream in, int length) throws IOException {
         return CustomMessage.read(in, length);
     }
 
     public static ObjectMessage readObject(InputStream in, int length) throws IOException {
+        return readObject(in, length, null);
+    }
+
+    /**
+     * @param payloadHash the SHA-512 hash of the object as received, so its inventory vector doesn't need to be
+     *                    calculated from the parsed object. May be null.
+     */
+    static ObjectMessage readObject(InputStream in, int length, byte[] payloadHash) throws IOException {
         AccessCounter counter = new AccessCounter();
         byte nonce[] = Decode.bytes(in, 8, counter);
         long expiresTime = Decode.int64(in, counter);
@@ -106,15 +152,33 @@ class V3MessageFactory {
             payload = new GenericPayload(version, stream, data);
         }
 
+        InventoryVector inventoryVector = null;
+        if (payloadHash != null) {
+            inventoryVector = new InventoryVector(Bytes.truncate(cryptography().sha512(payloadHash), 32));
+        }
         return new ObjectMessage.Builder()
             .nonce(nonce)
             .expiresTime(expiresTime)
             .objectType(objectType)
             .stream(stream)
             .payload(payload)
+            .inventoryVector(inventoryVector)
             .build();
     }
 
+    /**
+     * Reads the object in the buffer's remaining bytes. Its payload is only parsed when it's needed.
+     *
+     * @param payloadHash the SHA-512 hash of the object as received. May be null.
+     */
+    static ObjectMessage readObject(ByteBuffer in, byte[] payloadHash) {
+        InventoryVector inventoryVector = null;
+        if (payloadHash != null) {
+            inventoryVector = new InventoryVector(Bytes.truncate(cryptography().sha512(payloadHash), 32));
+        }
+        return ObjectMessage.read(in, inventoryVector);
+    }
+
     private static GetData parseGetData(InputStream stream) throws IOException {
         long count = Decode.varInt(stream);
         GetData.Builder builder = new GetData.Builder();
@@ -188,10 +252,78 @@ class V3MessageFactory {
             .build();
     }
 
-    private static boolean testChecksum(byte[] checksum, byte[] payload) {
-        byte[] payloadChecksum = cryptography().sha512(payload);
+    private static GetData parseGetData(ByteBuffer in) {
+        return new GetData.Builder().inventory(parseInventoryVectors(in)).build();
+    }
+
+    private static Inv parseInv(ByteBuffer in) {
+        return new Inv.Builder().inventory(parseInventoryVectors(in)).build();
+    }
+
+    private static List<InventoryVector> parseInventoryVectors(ByteBuffer in) {
+        int count = Decode.count(in, 32);
+        List<InventoryVector> inventory = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            inventory.add(new InventoryVector(Decode.bytes(in, 32)));
+        }
+        return inventory;
+    }
+
+    private static Addr parseAddr(ByteBuffer in) {
+        // time, stream, services, IPv6 address and port
+        int count = Decode.count(in, 8 + 4 + 8 + 16 + 2);
+        Addr.Builder builder = new Addr.Builder();
+        for (int i = 0; i < count; i++) {
+            builder.addAddress(parseAddress(in, false));
+        }
+        return builder.build();
+    }
+
+    private static Version parseVersion(ByteBuffer in) {
+        int version = Decode.int32(in);
+        long services = Decode.int64(in);
+        long timestamp = Decode.int64(in);
+        NetworkAddress addrRecv = parseAddress(in, true);
+        NetworkAddress addrFrom = parseAddress(in, true);
+        long nonce = Decode.int64(in);
+        String userAgent = Decode.varString(in);
+        long[] streamNumbers = Decode.varIntList(in);
+
+        return new Version.Builder()
+            .version(version)
+            .services(services)
+            .timestamp(timestamp)
+            .addrRecv(addrRecv).addrFrom(addrFrom)
+            .nonce(nonce)
+            .userAgent(userAgent)
+            .streams(streamNumbers).build();
+    }
+
+    private static NetworkAddress parseAddress(ByteBuffer in, boolean light) {
+        long time;
+        long streamNumber;
+        if (!light) {
+            time = Decode.int64(in);
+            streamNumber = Decode.uint32(in);
+        } else {
+            time = 0;
+            streamNumber = 0;
+        }
+        long services = Decode.int64(in);
+        byte[] ipv6 = Decode.bytes(in, 16);
+        int port = Decode.uint16(in);
+        return new NetworkAddress.Builder()
+            .time(time)
+            .stream(streamNumber)
+            .services(services)
+            .ipv6(ipv6)
+            .port(port)
+            .build();
+    }
+
+    static boolean testChecksum(byte[] checksum, byte[] payloadHash) {
         for (int i = 0; i < checksum.length; i++) {
-            if (checksum[i] != payloadChecksum[i]) {
+            if (checksum[i] != payloadHash[i]) {
                 return false;
             }
         }
@@ -22,9 +22,8 @@ import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.exception.NodeException;
 import ch.dissem.bitmessage.utils.Decode;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
@@ -36,9 +35,13 @@ import static ch.dissem.bitmessage.utils.Singleton.cryptography;
 
 /**
  * Similar to the {@link V3MessageFactory}, but used for NIO buffers which may or may not contain a whole message.
+ * <p>
+ * Data is read into a large receive buffer, and every complete message in it is parsed at once. Only payloads
+ * that don't fit into the receive buffer are collected in a separate buffer.
+ * </p>
  */
 public class V3MessageReader {
-    private ByteBuffer headerBuffer;
+    private ByteBuffer receiveBuffer;
     private ByteBuffer dataBuffer;
 
     private ReaderState state = ReaderState.MAGIC;
@@ -48,74 +51,107 @@ public class V3MessageReader {
 
     private List<NetworkMessage> messages = new LinkedList<>();
 
+    /**
+     * @return the buffer the next read should write to. It's the receive buffer, except while a payload larger
+     * than the receive buffer is collected.
+     */
     public ByteBuffer getActiveBuffer() {
-        if (state != null && state != ReaderState.DATA) {
-            if (headerBuffer == null) {
-                headerBuffer = bufferPool.allocateHeaderBuffer();
-            }
+        if (state == ReaderState.DATA) {
+            return dataBuffer;
+        }
+        if (receiveBuffer == null) {
+            receiveBuffer = bufferPool.allocateReceiveBuffer();
         }
-        return state == ReaderState.DATA ? dataBuffer : headerBuffer;
+        return receiveBuffer;
     }
 
     public void update() {
-        if (state != ReaderState.DATA) {
-            getActiveBuffer();
-            headerBuffer.flip();
+        if (state == ReaderState.DATA) {
+            if (dataBuffer.hasRemaining()) {
+                return;
+            }
+            dataBuffer.flip();
+            try {
+                readPayload(dataBuffer);
+            } finally {
+                bufferPool.deallocate(dataBuffer);
+                dataBuffer = null;
+            }
+            return;
+        }
+        ByteBuffer buffer = getActiveBuffer();
+        buffer.flip();
+        try {
+            while (readMessage(buffer)) {
+                // read all complete messages in the buffer
+            }
+        } finally {
+            buffer.compact();
         }
+    }
+
+    /**
+     * @return true if a message was read and there might be more in the buffer
+     */
+    private boolean readMessage(ByteBuffer buffer) {
         switch (state) {
             case MAGIC:
-                if (!findMagicBytes(headerBuffer)) {
-                    headerBuffer.compact();
-                    return;
+                if (!findMagicBytes(buffer)) {
+                    return false;
                 }
                 state = ReaderState.HEADER;
             case HEADER:
-                if (headerBuffer.remaining() < 20) {
-                    headerBuffer.compact();
-                    headerBuffer.limit(20);
-                    return;
+                if (buffer.remaining() < 20) {
+                    return false;
                 }
-                command = getCommand(headerBuffer);
-                length = (int) Decode.uint32(headerBuffer);
+                command = getCommand(buffer);
+                length = (int) Decode.uint32(buffer);
                 if (length > MAX_PAYLOAD_SIZE) {
                     throw new NodeException("Payload of " + length + " bytes received, no more than " +
                         MAX_PAYLOAD_SIZE + " was expected.");
                 }
                 checksum = new byte[4];
-                headerBuffer.get(checksum);
-                state = ReaderState.DATA;
-                bufferPool.deallocate(headerBuffer);
-                headerBuffer = null;
-                dataBuffer = bufferPool.allocate(length);
-                dataBuffer.clear();
-                dataBuffer.limit(length);
-            case DATA:
-                if (dataBuffer.position() < length) {
-                    return;
-                } else {
-                    dataBuffer.flip();
-                }
-                if (!testChecksum(dataBuffer)) {
-                    state = ReaderState.MAGIC;
-                    throw new NodeException("Checksum failed for message '" + command + "'");
+                buffer.get(checksum);
+                if (length > buffer.capacity()) {
+                    // collect payload in its own buffer, the receive buffer is only used again afterwards
+                    state = ReaderState.DATA;
+                    dataBuffer = bufferPool.allocate(length);
+                    dataBuffer.clear();
+                    dataBuffer.limit(length);
+                    dataBuffer.put(buffer);
+                    return false;
                 }
-                try {
-                    MessagePayload payload = V3MessageFactory.getPayload(
-                        command,
-                        new ByteArrayInputStream(dataBuffer.array(),
-                            dataBuffer.arrayOffset() + dataBuffer.position(), length),
-                        length);
-                    if (payload != null) {
-                        messages.add(new NetworkMessage(payload));
-                    }
-                } catch (IOException e) {
-                    throw new NodeException(e.getMessage());
-                } finally {
-                    state = ReaderState.MAGIC;
-                    bufferPool.deallocate(dataBuffer);
-                    dataBuffer = null;
-                    dataBuffer = null;
+                state = ReaderState.PAYLOAD;
+            case PAYLOAD:
+                if (buffer.remaining() < length) {
+                    return false;
                 }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                buffer.position(buffer.position() + length);
+                readPayload(payload);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses the payload directly from the given buffer, which is reused once this method returns.
+     */
+    private void readPayload(ByteBuffer data) {
+        state = ReaderState.MAGIC;
+        byte[] payloadHash = cryptography().sha512(data);
+        if (!V3MessageFactory.testChecksum(checksum, payloadHash)) {
+            throw new NodeException("Checksum failed for message '" + command + "'");
+        }
+        try {
+            MessagePayload payload = V3MessageFactory.getPayload(command, data, payloadHash);
+            if (payload != null) {
+                messages.add(new NetworkMessage(payload));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new NodeException("Message '" + command + "' is shorter than its content");
         }
     }
 
@@ -145,45 +181,37 @@ public class V3MessageReader {
     }
 
     private static String getCommand(ByteBuffer buffer) {
-        int start = buffer.position();
+        byte[] bytes = new byte[12];
+        buffer.get(bytes);
         int l = 0;
-        while (l < 12 && buffer.get() != 0) l++;
+        while (l < 12 && bytes[l] != 0) l++;
         int i = l + 1;
         while (i < 12) {
-            if (buffer.get() != 0) throw new NodeException("'\\0' padding expected for command");
+            if (bytes[i] != 0) throw new NodeException("'\\0' padding expected for command");
             i++;
         }
         try {
-            return new String(buffer.array(), start, l, "ASCII");
+            return new String(bytes, 0, l, "ASCII");
         } catch (UnsupportedEncodingException e) {
             throw new ApplicationException(e);
         }
     }
 
-    private boolean testChecksum(ByteBuffer buffer) {
-        byte[] payloadChecksum = cryptography().sha512(buffer.array(),
-            buffer.arrayOffset() + buffer.position(), length);
-        for (int i = 0; i < checksum.length; i++) {
-            if (checksum[i] != payloadChecksum[i]) {
-                return false;
-            }
-        }
-        return true;
-    }
-
     /**
      * De-allocates all buffers. This method should be called iff the reader isn't used anymore, i.e. when its
      * connection is severed.
      */
     public void cleanup() {
         state = null;
-        if (headerBuffer != null) {
-            bufferPool.deallocate(headerBuffer);
+        if (receiveBuffer != null) {
+            bufferPool.deallocate(receiveBuffer);
+            receiveBuffer = null;
         }
         if (dataBuffer != null) {
             bufferPool.deallocate(dataBuffer);
+            dataBuffer = null;
         }
     }
 
-    private enum ReaderState {MAGIC, HEADER, DATA}
+    private enum ReaderState {MAGIC, HEADER, PAYLOAD, DATA}
 }
@@ -31,6 +31,7 @@ import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.Provider;
@@ -72,6 +73,12 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
         return hash("SHA-512", data);
     }
 
+    public byte[] sha512(ByteBuffer data) {
+        MessageDigest mda = md("SHA-512");
+        mda.update(data.duplicate());
+        return mda.digest();
+    }
+
     public byte[] doubleSha512(byte[]... data) {
         MessageDigest mda = md("SHA-512");
         for (byte[] d : data) {
@@ -129,7 +136,7 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
 
     @Override
     public byte[] getInitialHash(ObjectMessage object) {
-        return sha512(object.getPayloadBytesWithoutNonce());
+        return object.getInitialHash();
     }
 
     @Override
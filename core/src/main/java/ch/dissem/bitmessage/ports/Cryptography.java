@@ -22,6 +22,7 @@ import ch.dissem.bitmessage.exception.InsufficientProofOfWorkException;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 
@@ -52,6 +53,15 @@ public interface Cryptography {
      */
     byte[] sha512(byte[]... data);
 
+    /**
+     * A helper method to calculate SHA-512 hashes of buffers, e.g. direct ones, without copying them to an array
+     * first. The buffer's position isn't changed.
+     *
+     * @param data whose remaining bytes get hashed
+     * @return SHA-512 hash of data
+     */
+    byte[] sha512(ByteBuffer data);
+
     /**
      * A helper method to calculate doubleSHA-512 hashes. Please note that a new {@link MessageDigest} object is created
      * at each call (to ensure thread safety), so you shouldn't use this if you need to do many hash calculations in
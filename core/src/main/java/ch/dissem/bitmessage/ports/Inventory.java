@@ -16,6 +16,7 @@
 
 package ch.dissem.bitmessage.ports;
 
+import ch.dissem.bitmessage.entity.ObjectFrame;
 import ch.dissem.bitmessage.entity.ObjectMessage;
 import ch.dissem.bitmessage.entity.payload.ObjectType;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
@@ -39,6 +40,15 @@ public interface Inventory {
 
     ObjectMessage getObject(InventoryVector vector);
 
+    /**
+     * Returns the object ready to be sent to another node, without parsing it. As objects are usually requested by
+     * many nodes shortly after they were received, implementations should cache frames of recently requested
+     * objects.
+     *
+     * @return the object's network message, or null if we don't have it
+     */
+    ObjectFrame getObjectFrame(InventoryVector vector);
+
     /**
      * This method is mainly used to search for public keys to newly added addresses or broadcasts from new
      * subscriptions.
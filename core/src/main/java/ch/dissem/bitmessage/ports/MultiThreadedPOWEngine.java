@@ -16,113 +16,330 @@
 
 package ch.dissem.bitmessage.ports;
 
-import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.POWKernel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static ch.dissem.bitmessage.utils.Bytes.inc;
 import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
 
 /**
  * A POW engine using all available CPU cores.
+ * <p>
+ * A fixed pool of one worker per core takes jobs from a priority queue. The nonce space of a job is handed
+ * out in chunks, so all idle workers help with the most important job, and a job completes the moment any
+ * worker finds a nonce. Jobs with an easier target are done first, jobs with the same target in the order
+ * they were submitted.
+ * </p>
+ * <p>
+ * Jobs can be followed and cancelled through {@link #getJobs()}. The workers are daemon threads, so they don't
+ * keep the application running, but they can be stopped explicitly with {@link #shutdown()}.
+ * </p>
  */
-public class MultiThreadedPOWEngine implements ProofOfWorkEngine {
+public class MultiThreadedPOWEngine implements ProofOfWorkEngine.WithProgress {
     private static final Logger LOG = LoggerFactory.getLogger(MultiThreadedPOWEngine.class);
-    private final ExecutorService waiterPool = Executors.newSingleThreadExecutor(pool("POW-waiter").daemon().build());
-    private final ExecutorService workerPool = Executors.newCachedThreadPool(pool("POW-worker").daemon().build());
 
     /**
-     * This method will block until all pending nonce calculations are done, but not wait for its own calculation
-     * to finish.
-     * (This implementation becomes very inefficient if multiple nonce are calculated at the same time.)
-     *
-     * @param initialHash the SHA-512 hash of the object to send, sans nonce
-     * @param target      the target, representing an unsigned long
-     * @param callback    called with the calculated nonce as argument. The ProofOfWorkEngine implementation must make
+     * Number of nonces a worker tries before looking for a more important job.
      */
+    private static final long CHUNK_SIZE = 1 << 16;
+
+    private final Comparator<Task> priority = new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            if (Bytes.lt(b.target, a.target, 8)) return -1;
+            if (Bytes.lt(a.target, b.target, 8)) return 1;
+            return Long.compare(a.sequenceNumber, b.sequenceNumber);
+        }
+    };
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>(11, priority);
+    private final AtomicLong sequence = new AtomicLong();
+    private final HashRate hashRate = new HashRate();
+    private final ExecutorService workerPool;
+
+    public MultiThreadedPOWEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public MultiThreadedPOWEngine(int numberOfWorkers) {
+        workerPool = Executors.newFixedThreadPool(numberOfWorkers,
+            pool("POW-worker").daemon().lowPrio().build());
+        for (int i = 0; i < numberOfWorkers; i++) {
+            workerPool.execute(new Worker());
+        }
+        LOG.info("Doing POW using " + numberOfWorkers + " cores");
+    }
+
     @Override
-    public void calculateNonce(final byte[] initialHash, final byte[] target, final Callback callback) {
-        waiterPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                long startTime = System.currentTimeMillis();
-
-                int cores = Runtime.getRuntime().availableProcessors();
-                if (cores > 255) cores = 255;
-                LOG.info("Doing POW using " + cores + " cores");
-                List<Worker> workers = new ArrayList<>(cores);
-                for (int i = 0; i < cores; i++) {
-                    Worker w = new Worker((byte) cores, i, initialHash, target);
-                    workers.add(w);
-                }
-                List<Future<byte[]>> futures = new ArrayList<>(cores);
-                for (Worker w : workers) {
-                    // Doing this in the previous loop might cause a ConcurrentModificationException in the worker
-                    // if a worker finds a nonce while new ones are still being added.
-                    futures.add(workerPool.submit(w));
-                }
-                try {
-                    while (!Thread.interrupted()) {
-                        for (Future<byte[]> future : futures) {
-                            if (future.isDone()) {
-                                callback.onNonceCalculated(initialHash, future.get());
-                                LOG.info("Nonce calculated in " + ((System.currentTimeMillis() - startTime) / 1000) + " seconds");
-                                for (Future<byte[]> f : futures) {
-                                    f.cancel(true);
-                                }
-                                return;
-                            }
-                        }
-                        Thread.sleep(100);
-                    }
-                    LOG.error("POW waiter thread interrupted - this should not happen!");
-                } catch (ExecutionException e) {
-                    LOG.error(e.getMessage(), e);
-                } catch (InterruptedException e) {
-                    LOG.error("POW waiter thread interrupted - this should not happen!", e);
-                }
+    public void calculateNonce(byte[] initialHash, byte[] target, Callback callback) {
+        calculateNonce(initialHash, target, 0, callback);
+    }
+
+    @Override
+    public Task calculateNonce(byte[] initialHash, byte[] target, long startNonce, Callback callback) {
+        Task task = new Task(sequence.getAndIncrement(), initialHash, target, startNonce, callback);
+        synchronized (tasks) {
+            tasks.add(task);
+            tasks.notifyAll();
+        }
+        return task;
+    }
+
+    @Override
+    public List<Task> getJobs() {
+        List<Task> result;
+        synchronized (tasks) {
+            result = new ArrayList<>(tasks);
+        }
+        Collections.sort(result, priority);
+        return result;
+    }
+
+    /**
+     * @return the number of nonces that were tried per second by all workers together during the last few seconds,
+     * or 0 if there are no jobs.
+     */
+    public long getHashRate() {
+        synchronized (tasks) {
+            if (tasks.isEmpty()) return 0;
+        }
+        return hashRate.get();
+    }
+
+    /**
+     * @return the number of jobs that are waiting or in progress.
+     */
+    public int getNumberOfJobs() {
+        synchronized (tasks) {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * Stops the workers. Jobs that weren't completed yet are never completed.
+     */
+    public void shutdown() {
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * Creates the kernel a worker uses to search a task's nonces. It's created once per task and worker, and
+     * reused for all the chunks the worker searches. Override to use a different implementation.
+     */
+    protected POWKernel createKernel(byte[] initialHash, byte[] target) {
+        return new POWKernel(initialHash, target);
+    }
+
+    private Task nextTask() throws InterruptedException {
+        synchronized (tasks) {
+            while (tasks.isEmpty()) {
+                tasks.wait();
             }
-        });
+            return tasks.peek();
+        }
+    }
+
+    private boolean remove(Task task) {
+        synchronized (tasks) {
+            return tasks.remove(task);
+        }
+    }
+
+    private void complete(Task task, byte[] nonce) {
+        remove(task);
+        LOG.info("Nonce calculated in " + ((System.currentTimeMillis() - task.startTime) / 1000) + " seconds "
+            + "(" + task.trials.get() + " trials, " + task.getHashRate() + " hashes/s)");
+        try {
+            task.callback.onNonceCalculated(task.initialHash, nonce);
+        } catch (RuntimeException e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Every trial is equally likely to succeed, no matter how many were done before, so each job is expected to
+     * need another {@link Task#expectedTrials} trials, however long it's been running already.
+     */
+    private long getEstimatedTimeRemaining(Task task) {
+        long rate = hashRate.get();
+        if (rate == 0) return -1;
+        long remainingTrials = 0;
+        for (Task t : getJobs()) {
+            remainingTrials += t.expectedTrials;
+            if (t == task) {
+                return remainingTrials / rate;
+            }
+        }
+        return -1;
     }
 
-    private class Worker implements Callable<byte[]> {
-        private final byte numberOfCores;
+    public class Task implements Job {
+        private final long sequenceNumber;
         private final byte[] initialHash;
         private final byte[] target;
-        private final MessageDigest mda;
-        private final byte[] nonce = new byte[8];
+        private final long expectedTrials;
+        private final Callback callback;
+        private final long startTime = System.currentTimeMillis();
 
-        Worker(byte numberOfCores, int core, byte[] initialHash, byte[] target) {
-            this.numberOfCores = numberOfCores;
+        private final AtomicLong nextNonce;
+        private final AtomicLong trials;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final HashRate hashRate = new HashRate();
+
+        /**
+         * Chunks are finished out of order, so the ones above the checkpoint are remembered until the gap
+         * below them is closed.
+         */
+        private final Set<Long> finishedChunks = new HashSet<>();
+        private long checkpoint;
+
+        private Task(long sequenceNumber, byte[] initialHash, byte[] target, long startNonce, Callback callback) {
+            this.sequenceNumber = sequenceNumber;
             this.initialHash = initialHash;
             this.target = target;
-            this.nonce[7] = (byte) core;
-            try {
-                mda = MessageDigest.getInstance("SHA-512");
-            } catch (NoSuchAlgorithmException e) {
-                LOG.error(e.getMessage(), e);
-                throw new ApplicationException(e);
+            this.expectedTrials = POWKernel.expectedTrials(target);
+            this.callback = callback;
+            this.nextNonce = new AtomicLong(startNonce);
+            this.trials = new AtomicLong(startNonce);
+            this.checkpoint = startNonce;
+        }
+
+        @Override
+        public byte[] getInitialHash() {
+            return initialHash;
+        }
+
+        @Override
+        public long getTrials() {
+            return trials.get();
+        }
+
+        @Override
+        public synchronized long getCheckpoint() {
+            return checkpoint;
+        }
+
+        @Override
+        public long getExpectedTrials() {
+            return expectedTrials;
+        }
+
+        @Override
+        public long getHashRate() {
+            return hashRate.get();
+        }
+
+        @Override
+        public long getEstimatedTimeRemaining() {
+            return MultiThreadedPOWEngine.this.getEstimatedTimeRemaining(this);
+        }
+
+        @Override
+        public boolean cancel() {
+            if (done.compareAndSet(false, true)) {
+                remove(this);
+                LOG.info("POW cancelled after " + trials.get() + " trials");
+                return true;
+            }
+            return false;
+        }
+
+        private void addTrials(long n) {
+            trials.addAndGet(n);
+            hashRate.add(n);
+            MultiThreadedPOWEngine.this.hashRate.add(n);
+        }
+
+        private synchronized void finishChunk(long start) {
+            if (start != checkpoint) {
+                finishedChunks.add(start);
+                return;
+            }
+            checkpoint += CHUNK_SIZE;
+            while (finishedChunks.remove(checkpoint)) {
+                checkpoint += CHUNK_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Counts trials in two consecutive time windows, so the rate reflects the last few seconds.
+     */
+    private static class HashRate {
+        private static final long WINDOW = 5000;
+
+        private long previousStart = System.currentTimeMillis();
+        private long previousTrials;
+        private long currentStart = previousStart;
+        private long currentTrials;
+
+        synchronized void add(long trials) {
+            roll();
+            currentTrials += trials;
+        }
+
+        synchronized long get() {
+            roll();
+            long millis = System.currentTimeMillis() - previousStart;
+            return millis == 0 ? 0 : (previousTrials + currentTrials) * 1000 / millis;
+        }
+
+        private void roll() {
+            long now = System.currentTimeMillis();
+            if (now - currentStart >= 2 * WINDOW) {
+                previousStart = now;
+                previousTrials = 0;
+                currentStart = now;
+                currentTrials = 0;
+            } else if (now - currentStart >= WINDOW) {
+                previousStart = currentStart;
+                previousTrials = currentTrials;
+                currentStart = now;
+                currentTrials = 0;
             }
         }
+    }
+
+    private class Worker implements Runnable {
+        private Task task;
+        private POWKernel kernel;
 
         @Override
-        public byte[] call() throws Exception {
-            do {
-                inc(nonce, numberOfCores);
-                mda.update(nonce);
-                mda.update(initialHash);
-                if (!Bytes.lt(target, mda.digest(mda.digest()), 8)) {
-                    return nonce;
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    search(nextTask());
                 }
-            } while (!Thread.interrupted());
-            return null;
+            } catch (InterruptedException e) {
+                LOG.debug("POW worker interrupted", e);
+            }
+        }
+
+        private void search(Task task) {
+            if (task != this.task) {
+                this.task = task;
+                this.kernel = createKernel(task.initialHash, task.target);
+            }
+            long start = task.nextNonce.getAndAdd(CHUNK_SIZE);
+            long end = start + CHUNK_SIZE;
+            long n = kernel.search(start, end, task.done);
+            if (n < end && kernel.isValid(n)) {
+                task.addTrials(n - start + 1);
+                if (task.done.compareAndSet(false, true)) {
+                    complete(task, POWKernel.bytes(n));
+                }
+                return;
+            }
+            task.addTrials(n - start);
+            if (n == end) {
+                task.finishChunk(start);
+            }
         }
     }
 }
@@ -16,6 +16,8 @@
 
 package ch.dissem.bitmessage.ports;
 
+import java.util.List;
+
 /**
  * Does the proof of work necessary to send an object.
  */
@@ -37,4 +39,65 @@ public interface ProofOfWorkEngine {
          */
         void onNonceCalculated(byte[] initialHash, byte[] nonce);
     }
+
+    /**
+     * A nonce calculation that is either in progress or waiting to be started.
+     */
+    interface Job {
+        byte[] getInitialHash();
+
+        /**
+         * @return the number of nonces tried so far
+         */
+        long getTrials();
+
+        /**
+         * @return a nonce such that all nonces below it were tried without success. A calculation can be resumed
+         * from here.
+         */
+        long getCheckpoint();
+
+        /**
+         * @return the number of trials needed on average to find a nonce for this job's target
+         */
+        long getExpectedTrials();
+
+        /**
+         * @return the number of nonces tried per second during the last few seconds
+         */
+        long getHashRate();
+
+        /**
+         * @return the estimated number of seconds until the nonce is found, including the time needed for more
+         * important jobs, or -1 if there is no estimate yet. As finding a nonce is a matter of luck, this is
+         * nothing more than an educated guess. The trials already done don't make it any more likely that the
+         * next ones succeed, so the estimate doesn't shrink while a job is running.
+         */
+        long getEstimatedTimeRemaining();
+
+        /**
+         * Stops the calculation. The callback won't be called for a cancelled job.
+         *
+         * @return false if the nonce was already found (or the job was cancelled before)
+         */
+        boolean cancel();
+    }
+
+    /**
+     * A ProofOfWorkEngine that allows to follow the progress of and to cancel its calculations.
+     */
+    interface WithProgress extends ProofOfWorkEngine {
+        /**
+         * Like {@link #calculateNonce(byte[], byte[], Callback)}, but only tries nonces starting with
+         * <code>startNonce</code>, i.e. to resume a calculation from a checkpoint.
+         *
+         * @return the new job
+         */
+        Job calculateNonce(byte[] initialHash, byte[] target, long startNonce, Callback callback);
+
+        /**
+         * @return all jobs that are in progress or waiting, the most important first
+         */
+        List<? extends Job> getJobs();
+    }
 }
@@ -21,6 +21,12 @@ public interface ProofOfWorkRepository {
 
     void removeObject(byte[] initialHash);
 
+    /**
+     * Remembers that all nonces below <code>checkpoint</code> were tried, so the calculation can be resumed
+     * after a restart.
+     */
+    void updateNonceCheckpoint(byte[] initialHash, long checkpoint);
+
     class Item {
         public final ObjectMessage object;
         public final long nonceTrialsPerByte;
@@ -30,16 +36,25 @@ public interface ProofOfWorkRepository {
         public final Long expirationTime;
         public final Plaintext message;
 
+        // All nonces below were already tried
+        public final long nonceCheckpoint;
+
         public Item(ObjectMessage object, long nonceTrialsPerByte, long extraBytes) {
             this(object, nonceTrialsPerByte, extraBytes, 0, null);
         }
 
         public Item(ObjectMessage object, long nonceTrialsPerByte, long extraBytes, long expirationTime, Plaintext message) {
+            this(object, nonceTrialsPerByte, extraBytes, expirationTime, message, 0);
+        }
+
+        public Item(ObjectMessage object, long nonceTrialsPerByte, long extraBytes, long expirationTime, Plaintext message,
+                    long nonceCheckpoint) {
             this.object = object;
             this.nonceTrialsPerByte = nonceTrialsPerByte;
             this.extraBytes = extraBytes;
             this.expirationTime = expirationTime;
             this.message = message;
+            this.nonceCheckpoint = nonceCheckpoint;
         }
     }
 }
@@ -16,13 +16,7 @@
 
 package ch.dissem.bitmessage.ports;
 
-import ch.dissem.bitmessage.exception.ApplicationException;
-import ch.dissem.bitmessage.utils.Bytes;
-
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
-import static ch.dissem.bitmessage.utils.Bytes.inc;
+import ch.dissem.bitmessage.utils.POWKernel;
 
 /**
  * You should really use the MultiThreadedPOWEngine, but this one might help you grok the other one.
@@ -34,17 +28,11 @@ import static ch.dissem.bitmessage.utils.Bytes.inc;
 public class SimplePOWEngine implements ProofOfWorkEngine {
     @Override
     public void calculateNonce(byte[] initialHash, byte[] target, Callback callback) {
-        try {
-            MessageDigest mda = MessageDigest.getInstance("SHA-512");
-            byte[] nonce = new byte[8];
-            do {
-                inc(nonce);
-                mda.update(nonce);
-                mda.update(initialHash);
-            } while (Bytes.lt(target, mda.digest(mda.digest()), 8));
-            callback.onNonceCalculated(initialHash, nonce);
-        } catch (NoSuchAlgorithmException e) {
-            throw new ApplicationException(e);
-        }
+        POWKernel kernel = new POWKernel(initialHash, target);
+        long nonce = 0;
+        do {
+            nonce++;
+        } while (!kernel.isValid(nonce));
+        callback.onNonceCalculated(initialHash, POWKernel.bytes(nonce));
     }
 }
@@ -16,15 +16,24 @@
 
 package ch.dissem.bitmessage.utils;
 
+import ch.dissem.bitmessage.exception.NodeException;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static ch.dissem.bitmessage.utils.AccessCounter.inc;
 
 /**
  * This class handles decoding simple types from byte stream, according to
  * https://bitmessage.org/wiki/Protocol_specification#Common_structures
+ * <p>
+ * The methods reading from a {@link ByteBuffer} start at its position and advance it. They throw a
+ * {@link BufferUnderflowException} if the buffer ends too early, or a {@link NodeException} if a length or count
+ * can't possibly fit into the buffer. They never return a view on the buffer, so it may be reused afterwards.
+ * </p>
  */
 public class Decode {
     public static byte[] shortVarBytes(InputStream in, AccessCounter counter) throws IOException {
@@ -110,10 +119,6 @@ public class Decode {
         return in.read() << 24 | in.read() << 16 | in.read() << 8 | in.read();
     }
 
-    public static long uint32(ByteBuffer in) {
-        return u(in.get()) << 24 | u(in.get()) << 16 | u(in.get()) << 8 | u(in.get());
-    }
-
     public static int int32(InputStream in) throws IOException {
         return int32(in, null);
     }
@@ -143,6 +148,86 @@ public class Decode {
         return new String(bytes(in, length, counter), "utf-8");
     }
 
+    public static byte[] shortVarBytes(ByteBuffer in) {
+        return bytes(in, uint16(in));
+    }
+
+    public static byte[] varBytes(ByteBuffer in) {
+        return bytes(in, count(in, 1));
+    }
+
+    public static byte[] bytes(ByteBuffer in, int count) {
+        if (count < 0 || count > in.remaining()) {
+            // fail before allocating whatever a broken or malicious node announced
+            throw new BufferUnderflowException();
+        }
+        byte[] result = new byte[count];
+        in.get(result);
+        return result;
+    }
+
+    public static long[] varIntList(ByteBuffer in) {
+        int length = count(in, 1);
+        long[] result = new long[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = varInt(in);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the var_int announcing how many entries follow, e.g. the length of a byte array or the number of
+     * inventory vectors. As it was sent by another node, it's checked before anything is allocated for it.
+     *
+     * @param entrySize the minimal size of each entry in bytes
+     * @throws NodeException if the count is negative or there can't be that many entries in the remaining bytes
+     */
+    public static int count(ByteBuffer in, int entrySize) {
+        long count = varInt(in);
+        if (count < 0 || count > in.remaining() / entrySize) {
+            throw new NodeException("Invalid count " + count + " for the " + in.remaining() + " remaining bytes");
+        }
+        return (int) count;
+    }
+
+    public static long varInt(ByteBuffer in) {
+        int first = u(in.get());
+        switch (first) {
+            case 0xfd:
+                return uint16(in);
+            case 0xfe:
+                return uint32(in);
+            case 0xff:
+                return int64(in);
+            default:
+                return first;
+        }
+    }
+
+    public static int uint8(ByteBuffer in) {
+        return u(in.get());
+    }
+
+    public static int uint16(ByteBuffer in) {
+        return in.getShort() & 0xFFFF;
+    }
+
+    public static long uint32(ByteBuffer in) {
+        return in.getInt() & 0xFFFFFFFFL;
+    }
+
+    public static int int32(ByteBuffer in) {
+        return in.getInt();
+    }
+
+    public static long int64(ByteBuffer in) {
+        return in.getLong();
+    }
+
+    public static String varString(ByteBuffer in) {
+        return new String(varBytes(in), StandardCharsets.UTF_8);
+    }
+
     /**
      * Returns the given byte as if it were unsigned.
      */
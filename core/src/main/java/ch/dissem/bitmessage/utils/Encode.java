@@ -73,6 +73,40 @@ public class Encode {
         }
     }
 
+    /**
+     * @return the number of bytes {@link #varInt(long, ByteBuffer)} writes for the given value
+     */
+    public static int varIntSize(long value) {
+        if (value < 0) {
+            return 9;
+        } else if (value < 0xfd) {
+            return 1;
+        } else if (value <= 0xffffL) {
+            return 3;
+        } else if (value <= 0xffffffffL) {
+            return 5;
+        } else {
+            return 9;
+        }
+    }
+
+    public static int varIntListSize(long[] values) {
+        int size = varIntSize(values.length);
+        for (long value : values) {
+            size += varIntSize(value);
+        }
+        return size;
+    }
+
+    public static int varStringSize(String value) {
+        int length = utf8Length(value);
+        return varIntSize(length) + length;
+    }
+
+    public static int varBytesSize(byte[] data) {
+        return varIntSize(data.length) + data.length;
+    }
+
     public static byte[] varInt(long value) {
         ByteBuffer buffer = ByteBuffer.allocate(9);
         varInt(value, buffer);
@@ -177,13 +211,14 @@ public class Encode {
     public static byte[] bytes(Streamable streamable) {
         if (streamable == null) return null;
 
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        try {
-            streamable.write(stream);
-        } catch (IOException e) {
-            throw new ApplicationException(e);
+        byte[] result = new byte[streamable.getSerializedSize()];
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        streamable.write(buffer);
+        if (buffer.hasRemaining()) {
+            throw new ApplicationException(streamable.getClass().getSimpleName() + " wrote " + buffer.position() +
+                " bytes, but its serialized size is " + result.length);
         }
-        return stream.toByteArray();
+        return result;
     }
 
     /**
@@ -204,4 +239,26 @@ public class Encode {
         stream.write(result, offset, stream.size());
         return result;
     }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced by '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.utils;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A SHA-512 implementation specialized on calculating the trial value for the proof of work, i.e. the first
+ * 8 bytes of sha512(sha512(nonce||initialHash)), without allocating any memory per trial.
+ * <p>
+ * As nonce and initial hash always fit into one 128 byte block, the block can be prepared once per initial hash,
+ * and only its first word needs to be replaced for each trial. The same is true for the block of the second hash,
+ * which only depends on the first hash.
+ * </p>
+ * <p>
+ * Instances are not thread safe, every thread needs its own kernel. Subclasses may override
+ * {@link #search(long, long, AtomicBoolean)} to try several nonces at once.
+ * </p>
+ */
+public class POWKernel {
+    /**
+     * SHA-512 round constants.
+     */
+    protected static final long[] K = {
+        0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+        0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+        0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+        0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+        0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+        0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+        0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+        0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+        0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+        0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+        0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+        0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+        0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+        0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+        0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+        0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+        0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+        0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+        0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+        0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+    };
+
+    /**
+     * SHA-512 initial hash value.
+     */
+    protected static final long[] IV = {
+        0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+        0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    private static final BigInteger TWO_POW_64 = BigInteger.ONE.shiftLeft(64);
+
+    protected static final long PADDING = 0x8000000000000000L;
+    protected static final long FIRST_BLOCK_BITS = (8 + 64) * 8;
+    protected static final long SECOND_BLOCK_BITS = 64 * 8;
+
+    private final long[] block = new long[16];
+    private final long[] w = new long[80];
+    private final long[] state = new long[8];
+    private final long target;
+
+    /**
+     * @param initialHash the SHA-512 hash of the object to send, sans nonce
+     * @param target      the target, representing an unsigned long
+     */
+    public POWKernel(byte[] initialHash, byte[] target) {
+        for (int i = 0; i < 8; i++) {
+            block[i + 1] = getLong(initialHash, i * 8);
+        }
+        block[9] = PADDING;
+        block[15] = FIRST_BLOCK_BITS;
+        this.target = getLong(target, 0);
+    }
+
+    /**
+     * Tries the nonces from start (inclusive) to end (exclusive) until a valid one is found or the search is
+     * stopped.
+     *
+     * @param stop checked regularly, the search ends as soon as it is set
+     * @return the first valid nonce, the nonce at which the search was stopped, or end if no valid nonce was found.
+     * As the search might be stopped right after a valid nonce was found, use {@link #isValid(long)} to tell apart
+     * the first two cases.
+     */
+    public long search(long start, long end, AtomicBoolean stop) {
+        long n;
+        for (n = start; n < end && !stop.get(); n++) {
+            if (isValid(n)) {
+                return n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return true if the trial value for this nonce is not greater than the target.
+     */
+    public boolean isValid(long nonce) {
+        return (trialValue(nonce) ^ Long.MIN_VALUE) <= (target ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * @return the first 8 bytes of sha512(sha512(nonce||initialHash)) as an unsigned long.
+     */
+    public long trialValue(long nonce) {
+        long[] w = this.w;
+        long[] state = this.state;
+
+        w[0] = nonce;
+        System.arraycopy(block, 1, w, 1, 15);
+        compress(w, state);
+
+        for (int i = 0; i < 8; i++) {
+            w[i] = state[i];
+        }
+        w[8] = PADDING;
+        w[9] = 0;
+        w[10] = 0;
+        w[11] = 0;
+        w[12] = 0;
+        w[13] = 0;
+        w[14] = 0;
+        w[15] = SECOND_BLOCK_BITS;
+        compress(w, state);
+
+        return state[0];
+    }
+
+    /**
+     * Calculates the SHA-512 hash of the single block within the first 16 words of w, which is also used for the
+     * message schedule, and writes it into state.
+     */
+    private static void compress(long[] w, long[] state) {
+        for (int t = 16; t < 80; t++) {
+            long w2 = w[t - 2];
+            long w15 = w[t - 15];
+            long s1 = Long.rotateRight(w2, 19) ^ Long.rotateRight(w2, 61) ^ (w2 >>> 6);
+            long s0 = Long.rotateRight(w15, 1) ^ Long.rotateRight(w15, 8) ^ (w15 >>> 7);
+            w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+        }
+
+        long a = IV[0];
+        long b = IV[1];
+        long c = IV[2];
+        long d = IV[3];
+        long e = IV[4];
+        long f = IV[5];
+        long g = IV[6];
+        long h = IV[7];
+
+        // Eight rounds at a time, so the working variables don't need to be shifted
+        for (int t = 0; t < 80; t += 8) {
+            h += S1(e) + Ch(e, f, g) + K[t] + w[t];
+            d += h;
+            h += S0(a) + Maj(a, b, c);
+
+            g += S1(d) + Ch(d, e, f) + K[t + 1] + w[t + 1];
+            c += g;
+            g += S0(h) + Maj(h, a, b);
+
+            f += S1(c) + Ch(c, d, e) + K[t + 2] + w[t + 2];
+            b += f;
+            f += S0(g) + Maj(g, h, a);
+
+            e += S1(b) + Ch(b, c, d) + K[t + 3] + w[t + 3];
+            a += e;
+            e += S0(f) + Maj(f, g, h);
+
+            d += S1(a) + Ch(a, b, c) + K[t + 4] + w[t + 4];
+            h += d;
+            d += S0(e) + Maj(e, f, g);
+
+            c += S1(h) + Ch(h, a, b) + K[t + 5] + w[t + 5];
+            g += c;
+            c += S0(d) + Maj(d, e, f);
+
+            b += S1(g) + Ch(g, h, a) + K[t + 6] + w[t + 6];
+            f += b;
+            b += S0(c) + Maj(c, d, e);
+
+            a += S1(f) + Ch(f, g, h) + K[t + 7] + w[t + 7];
+            e += a;
+            a += S0(b) + Maj(b, c, d);
+        }
+
+        state[0] = IV[0] + a;
+        state[1] = IV[1] + b;
+        state[2] = IV[2] + c;
+        state[3] = IV[3] + d;
+        state[4] = IV[4] + e;
+        state[5] = IV[5] + f;
+        state[6] = IV[6] + g;
+        state[7] = IV[7] + h;
+    }
+
+    private static long Ch(long x, long y, long z) {
+        return (x & y) ^ (~x & z);
+    }
+
+    private static long Maj(long x, long y, long z) {
+        return (x & y) ^ (x & z) ^ (y & z);
+    }
+
+    private static long S0(long x) {
+        return Long.rotateRight(x, 28) ^ Long.rotateRight(x, 34) ^ Long.rotateRight(x, 39);
+    }
+
+    private static long S1(long x) {
+        return Long.rotateRight(x, 14) ^ Long.rotateRight(x, 18) ^ Long.rotateRight(x, 41);
+    }
+
+    /**
+     * @return the number of trials needed on average to find a nonce for the given target.
+     */
+    public static long expectedTrials(byte[] target) {
+        BigInteger expected = TWO_POW_64.divide(new BigInteger(1, target).add(BigInteger.ONE));
+        return expected.bitLength() < 64 ? expected.longValue() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the nonce as 8 bytes, big endian.
+     */
+    public static byte[] bytes(long nonce) {
+        byte[] result = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            result[i] = (byte) nonce;
+            nonce >>>= 8;
+        }
+        return result;
+    }
+
+    /**
+     * @return the 8 bytes at the offset as a big endian long
+     */
+    protected static long getLong(byte[] bytes, int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return result;
+    }
+}
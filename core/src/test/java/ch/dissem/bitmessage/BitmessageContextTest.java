@@ -96,6 +96,10 @@ public class BitmessageContextTest {
                     public void removeObject(byte[] initialHash) {
                         items.remove(initialHash);
                     }
+
+                    @Override
+                    public void updateNonceCheckpoint(byte[] initialHash, long checkpoint) {
+                    }
                 }))
                 .proofOfWorkEngine(spy(new ProofOfWorkEngine() {
                     @Override
@@ -210,6 +214,17 @@ public class BitmessageContextTest {
         verify(ctx.messages(), timeout(10000).atLeastOnce()).save(MessageMatchers.plaintext(Type.MSG));
     }
 
+    @Test
+    public void ensureDeletedMessageIsRemoved() throws Exception {
+        Plaintext msg = new Plaintext.Builder(Type.MSG)
+                .from(TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8"))
+                .to(TestUtils.loadContact())
+                .message("Subject", "Message")
+                .build();
+        ctx.delete(msg);
+        verify(ctx.messages()).remove(msg);
+    }
+
     @Test
     public void ensurePubkeyIsRequestedIfItIsMissing() throws Exception {
         ctx.send(TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8"),
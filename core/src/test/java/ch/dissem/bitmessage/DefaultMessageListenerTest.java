@@ -33,6 +33,7 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 
 import static ch.dissem.bitmessage.entity.Plaintext.Status.PUBKEY_REQUESTED;
@@ -130,6 +131,7 @@ public class DefaultMessageListenerTest extends TestBase {
         listener.receive(objectMessage);
 
         verify(messageRepo, atLeastOnce()).save(plaintext(MSG));
+        verify(addressRepo, times(1)).getIdentities();
     }
 
     @Test
@@ -153,5 +155,15 @@ public class DefaultMessageListenerTest extends TestBase {
         listener.receive(objectMessage);
 
         verify(messageRepo, atLeastOnce()).save(plaintext(BROADCAST));
+        verify(addressRepo, times(1)).getSubscriptions(anyLong());
+    }
+
+    @Test
+    public void ensureMsgIsNotParsedWithoutIdentities() throws Exception {
+        ObjectMessage objectMessage = spy(ObjectMessage.read(ByteBuffer.wrap(TestUtils.getBytes("V1Msg.payload")), null));
+
+        listener.receive(objectMessage);
+
+        verify(objectMessage, never()).getPayload();
     }
 }
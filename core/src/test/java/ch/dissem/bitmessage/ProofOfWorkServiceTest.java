@@ -20,20 +20,26 @@ import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
 import ch.dissem.bitmessage.entity.BitmessageAddress;
 import ch.dissem.bitmessage.entity.ObjectMessage;
 import ch.dissem.bitmessage.entity.Plaintext;
+import ch.dissem.bitmessage.entity.payload.GetPubkey;
 import ch.dissem.bitmessage.entity.payload.Msg;
 import ch.dissem.bitmessage.ports.*;
 import ch.dissem.bitmessage.utils.Singleton;
 import ch.dissem.bitmessage.utils.TestUtils;
+import ch.dissem.bitmessage.utils.UnixTime;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.Arrays;
+import java.util.Collections;
 
 import static ch.dissem.bitmessage.entity.Plaintext.Type.MSG;
+import static ch.dissem.bitmessage.utils.UnixTime.DAY;
+import static ch.dissem.bitmessage.utils.UnixTime.HOUR;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 /**
@@ -74,16 +80,57 @@ public class ProofOfWorkServiceTest {
 
     @Test
     public void ensureMissingProofOfWorkIsDone() {
+        ObjectMessage object = getPubkey(UnixTime.now(+HOUR));
         when(proofOfWorkRepo.getItems()).thenReturn(Arrays.asList(new byte[64]));
-        when(proofOfWorkRepo.getItem(any(byte[].class))).thenReturn(new ProofOfWorkRepository.Item(null, 1001, 1002));
+        when(proofOfWorkRepo.getItem(any(byte[].class))).thenReturn(new ProofOfWorkRepository.Item(object, 1001, 1002));
         doNothing().when(cryptography).doProofOfWork(any(ObjectMessage.class), anyLong(), anyLong(), any(ProofOfWorkEngine.Callback.class));
 
         proofOfWorkService.doMissingProofOfWork(10);
 
-        verify(cryptography, timeout(1000)).doProofOfWork((ObjectMessage) isNull(), eq(1001L), eq(1002L),
+        verify(cryptography, timeout(1000)).doProofOfWork(eq(object), eq(1001L), eq(1002L),
             any(ProofOfWorkEngine.Callback.class));
     }
 
+    @Test
+    public void ensureMoreUrgentObjectPreemptsRunningJobAndResumesIt() {
+        ProofOfWorkEngine.Job job = mock(ProofOfWorkEngine.Job.class);
+        when(job.cancel()).thenReturn(true);
+        when(job.getCheckpoint()).thenReturn(4096L);
+        ProofOfWorkEngine.WithProgress engine = mock(ProofOfWorkEngine.WithProgress.class);
+        doReturn(job).when(engine).calculateNonce(any(byte[].class), any(byte[].class), anyLong(),
+            any(ProofOfWorkEngine.Callback.class));
+        when(ctx.getProofOfWorkEngine()).thenReturn(engine);
+
+        ObjectMessage later = getPubkey(UnixTime.now(+2 * DAY));
+        ObjectMessage sooner = getPubkey(UnixTime.now(+HOUR));
+        ObjectMessage latest = getPubkey(UnixTime.now(+3 * DAY));
+        byte[] laterHash = cryptography.getInitialHash(later);
+        byte[] soonerHash = cryptography.getInitialHash(sooner);
+
+        proofOfWorkService.doProofOfWork(later);
+        verify(engine).calculateNonce(eq(laterHash), any(byte[].class), eq(0L), any(ProofOfWorkEngine.Callback.class));
+
+        proofOfWorkService.doProofOfWork(sooner);
+        verify(job).cancel();
+        verify(proofOfWorkRepo).updateNonceCheckpoint(eq(laterHash), eq(4096L));
+        verify(engine).calculateNonce(eq(soonerHash), any(byte[].class), eq(0L), any(ProofOfWorkEngine.Callback.class));
+
+        proofOfWorkService.doProofOfWork(latest);
+        verify(job).cancel();
+        assertThat(proofOfWorkService.getStatus().getProperty("waiting").getValue(), equalTo((Object) 2));
+
+        proofOfWorkService.cancel(soonerHash);
+        verify(engine).calculateNonce(eq(laterHash), any(byte[].class), eq(4096L), any(ProofOfWorkEngine.Callback.class));
+        assertThat(proofOfWorkService.getStatus().getProperty("waiting").getValue(), equalTo((Object) 1));
+    }
+
+    private ObjectMessage getPubkey(long expiresTime) {
+        return new ObjectMessage.Builder()
+            .expiresTime(expiresTime)
+            .payload(new GetPubkey(new BitmessageAddress("BM-opWQhvk9xtMFvQA2Kvetedpk8LkbraWHT")))
+            .build();
+    }
+
     @Test
     public void ensureCalculatedNonceIsStored() throws Exception {
         BitmessageAddress identity = TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8");
@@ -107,4 +154,21 @@ public class ProofOfWorkServiceTest {
         verify(networkHandler).offer(eq(object.getInventoryVector()));
         assertThat(plaintext.getInventoryVector(), equalTo(object.getInventoryVector()));
     }
+
+    @Test
+    public void ensureJobIsCancelledAndRemoved() {
+        byte[] initialHash = new byte[64];
+        ProofOfWorkEngine.Job job = mock(ProofOfWorkEngine.Job.class);
+        when(job.getInitialHash()).thenReturn(initialHash);
+        when(job.cancel()).thenReturn(true);
+        ProofOfWorkEngine.WithProgress engine = mock(ProofOfWorkEngine.WithProgress.class);
+        doReturn(Collections.singletonList(job)).when(engine).getJobs();
+        when(ctx.getProofOfWorkEngine()).thenReturn(engine);
+
+        assertTrue(proofOfWorkService.cancel(initialHash));
+
+        verify(job).cancel();
+        verify(proofOfWorkRepo).removeObject(eq(initialHash));
+        assertThat(proofOfWorkService.getStatus().getProperty("jobs").getValue(), equalTo((Object) 1));
+    }
 }
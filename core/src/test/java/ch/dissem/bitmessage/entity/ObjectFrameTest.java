@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.entity;
+
+import ch.dissem.bitmessage.utils.Encode;
+import ch.dissem.bitmessage.utils.TestBase;
+import ch.dissem.bitmessage.utils.TestUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+import static org.junit.Assert.*;
+
+public class ObjectFrameTest extends TestBase {
+    @Test
+    public void ensureFrameMatchesSerializedObject() throws IOException {
+        ObjectMessage object = TestUtils.loadObjectMessage(3, "V3Pubkey.payload");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new NetworkMessage(object).write(expected);
+
+        ObjectFrame frame = new ObjectFrame(Encode.bytes(object));
+
+        ByteBuffer buffer = frame.getBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertArrayEquals(expected.toByteArray(), bytes);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        new NetworkMessage(frame).write(written);
+        assertArrayEquals(expected.toByteArray(), written.toByteArray());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer payload = new NetworkMessage(frame).writeHeaderAndGetPayloadBuffer(header);
+        assertEquals(expected.size(), header.position() + payload.remaining());
+    }
+}
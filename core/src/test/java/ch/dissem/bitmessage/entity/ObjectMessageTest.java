@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.entity;
+
+import ch.dissem.bitmessage.entity.payload.GenericPayload;
+import ch.dissem.bitmessage.entity.payload.ObjectPayload;
+import ch.dissem.bitmessage.entity.payload.ObjectType;
+import ch.dissem.bitmessage.entity.payload.V4Pubkey;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.entity.valueobject.PrivateKey;
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.Encode;
+import ch.dissem.bitmessage.utils.TestBase;
+import ch.dissem.bitmessage.utils.TestUtils;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static org.junit.Assert.*;
+
+public class ObjectMessageTest extends TestBase {
+    @Test
+    public void ensureHashesAreCalculatedOnce() throws IOException {
+        ObjectMessage object = TestUtils.loadObjectMessage(3, "V3Pubkey.payload");
+
+        InventoryVector iv = object.getInventoryVector();
+        assertSame(iv, object.getInventoryVector());
+        assertEquals(calculateInventoryVector(object), iv);
+
+        byte[] initialHash = object.getInitialHash();
+        assertSame(initialHash, object.getInitialHash());
+        assertArrayEquals(cryptography().sha512(object.getPayloadBytesWithoutNonce()), initialHash);
+    }
+
+    @Test
+    public void ensureInventoryVectorChangesWithNonce() throws IOException {
+        ObjectMessage object = TestUtils.loadObjectMessage(3, "V3Pubkey.payload");
+        InventoryVector iv = object.getInventoryVector();
+        byte[] initialHash = object.getInitialHash();
+
+        object.setNonce(new byte[8]);
+
+        assertNotEquals(iv, object.getInventoryVector());
+        assertEquals(calculateInventoryVector(object), object.getInventoryVector());
+        assertSame(initialHash, object.getInitialHash());
+    }
+
+    @Test
+    public void ensureHashesChangeWhenSigned() {
+        PrivateKey privateKey = new PrivateKey(3, 1, "test");
+        ObjectMessage object = new ObjectMessage.Builder()
+            .objectType(ObjectType.PUBKEY)
+            .stream(1)
+            .payload(privateKey.getPubkey())
+            .build();
+        object.setNonce(new byte[8]);
+        InventoryVector iv = object.getInventoryVector();
+        byte[] initialHash = object.getInitialHash();
+
+        object.sign(privateKey);
+
+        assertNotEquals(iv, object.getInventoryVector());
+        assertEquals(calculateInventoryVector(object), object.getInventoryVector());
+        assertArrayEquals(cryptography().sha512(object.getPayloadBytesWithoutNonce()), object.getInitialHash());
+        assertFalse(Arrays.equals(initialHash, object.getInitialHash()));
+    }
+
+    @Test
+    public void ensureHashesChangeWhenEncrypted() throws IOException {
+        BitmessageAddress identity = TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8");
+        byte[] publicKey = cryptography().createPublicKey(identity.getPublicDecryptionKey());
+        ObjectMessage object = new ObjectMessage.Builder()
+            .stream(1)
+            .payload(identity.getPubkey())
+            .build();
+        object.sign(identity.getPrivateKey());
+        object.encrypt(publicKey);
+        object.setNonce(new byte[8]);
+        InventoryVector iv = object.getInventoryVector();
+        byte[] initialHash = object.getInitialHash();
+
+        object.encrypt(publicKey);
+
+        assertNotEquals(iv, object.getInventoryVector());
+        assertEquals(calculateInventoryVector(object), object.getInventoryVector());
+        assertFalse(Arrays.equals(initialHash, object.getInitialHash()));
+    }
+
+    @Test
+    public void ensureReadObjectIsWrittenAsReceived() throws IOException {
+        byte[] data = TestUtils.getBytes("V1Msg.payload");
+        ObjectMessage object = ObjectMessage.read(ByteBuffer.wrap(data), null);
+
+        assertEquals(2, object.getType());
+        assertEquals(1, object.getVersion());
+        assertEquals(1, object.getStream());
+        assertArrayEquals(data, Encode.bytes(object));
+
+        ObjectMessage parsed = TestUtils.loadObjectMessage(3, "V1Msg.payload");
+        assertEquals(parsed.getInventoryVector(), object.getInventoryVector());
+        assertArrayEquals(parsed.getInitialHash(), object.getInitialHash());
+    }
+
+    @Test
+    public void ensurePayloadIsParsedOnce() throws IOException {
+        ObjectMessage object = ObjectMessage.read(ByteBuffer.wrap(TestUtils.getBytes("V4Pubkey.payload")), null);
+
+        ObjectPayload payload = object.getPayload();
+        assertTrue(payload instanceof V4Pubkey);
+        assertSame(payload, object.getPayload());
+        assertEquals(TestUtils.loadObjectMessage(3, "V4Pubkey.payload"), object);
+    }
+
+    @Test
+    public void ensureUnparsablePayloadIsReadAsGenericPayload() {
+        byte[] ack = cryptography().randomBytes(32);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 4 + 1 + 1 + ack.length);
+        buffer.put(new byte[8]);
+        Encode.int64(UnixTime.now(), buffer);
+        Encode.int32(ObjectType.MSG.getNumber(), buffer);
+        Encode.varInt(1, buffer);
+        Encode.varInt(1, buffer);
+        buffer.put(ack);
+        buffer.flip();
+
+        ObjectMessage object = ObjectMessage.read(buffer, null);
+
+        assertTrue(object.getPayload() instanceof GenericPayload);
+        assertArrayEquals(ack, ((GenericPayload) object.getPayload()).getData());
+    }
+
+    private static InventoryVector calculateInventoryVector(ObjectMessage object) {
+        return new InventoryVector(Bytes.truncate(
+            cryptography().doubleSha512(object.getNonce(), object.getPayloadBytesWithoutNonce()), 32));
+    }
+}
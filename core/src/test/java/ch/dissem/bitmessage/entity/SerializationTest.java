@@ -20,13 +20,16 @@ import ch.dissem.bitmessage.entity.payload.*;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.entity.valueobject.Label;
 import ch.dissem.bitmessage.factory.Factory;
+import ch.dissem.bitmessage.utils.Encode;
 import ch.dissem.bitmessage.utils.TestBase;
 import ch.dissem.bitmessage.utils.TestUtils;
 import org.junit.Test;
 
 import java.io.*;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 
 import static ch.dissem.bitmessage.entity.Plaintext.Type.MSG;
@@ -122,6 +125,7 @@ public class SerializationTest extends TestBase {
 
         assertEquals(p1, p2);
         assertEquals(ackMessage1, p2.getAckMessage());
+        assertArrayEquals(out.toByteArray(), Encode.bytes(p1));
     }
 
     @Test
@@ -142,6 +146,21 @@ public class SerializationTest extends TestBase {
         assertEquals(ivs, invAfter.getInventory());
     }
 
+    @Test
+    public void ensureNetworkMessageIsWrittenInPlace() throws Exception {
+        ObjectMessage object = TestUtils.loadObjectMessage(3, "V4Broadcast.payload");
+        NetworkMessage message = new NetworkMessage(object);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.write(out);
+
+        ByteBuffer buffer = ByteBuffer.allocate(10 + message.getSerializedSize());
+        buffer.position(10);
+        message.write(buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(out.toByteArray(), Arrays.copyOfRange(buffer.array(), 10, buffer.capacity()));
+    }
+
     private void doTest(String resourceName, int version, Class<?> expectedPayloadType) throws IOException {
         byte[] data = TestUtils.getBytes(resourceName);
         InputStream in = new ByteArrayInputStream(data);
@@ -151,6 +170,11 @@ public class SerializationTest extends TestBase {
         object.write(out);
         assertArrayEquals(data, out.toByteArray());
         assertEquals(expectedPayloadType.getCanonicalName(), object.getPayload().getClass().getCanonicalName());
+
+        assertEquals(data.length, object.getSerializedSize());
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        object.getPayload().write(payload);
+        assertArrayEquals(payload.toByteArray(), Encode.bytes(object.getPayload()));
     }
 
     @Test
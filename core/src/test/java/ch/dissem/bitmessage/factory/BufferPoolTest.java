@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.factory;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+    private BufferPool pool = new BufferPool(
+        new BufferPool.Tier(100, 1, 1),
+        new BufferPool.Tier(1000, 0, 1)
+    );
+
+    @Test
+    public void ensureBufferOfNextLargerTierIsReturned() {
+        ByteBuffer buffer = pool.allocate(101);
+        assertEquals(1000, buffer.capacity());
+        assertEquals(1000, buffer.limit());
+        assertTrue(buffer.isDirect());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureTooLargeCapacityIsRejected() {
+        pool.allocate(1001);
+    }
+
+    @Test
+    public void ensureBuffersAreReused() {
+        ByteBuffer buffer = pool.allocate(100);
+        buffer.put((byte) 1);
+        pool.deallocate(buffer);
+
+        ByteBuffer reused = pool.allocate(100);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void ensureBuffersAreSharedBetweenThreads() throws Exception {
+        final ByteBuffer buffer = pool.allocate(1000);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.deallocate(buffer);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertSame(buffer, pool.allocate(1000));
+    }
+
+    @Test
+    public void ensurePooledBuffersAreCapped() {
+        ByteBuffer a = pool.allocate(100);
+        ByteBuffer b = pool.allocate(100);
+        ByteBuffer c = pool.allocate(100);
+        pool.deallocate(a);
+        pool.deallocate(b);
+        pool.deallocate(c);
+
+        assertEquals(1L, pool.getStatus().getProperty("discarded").getValue());
+        pool.allocate(100);
+        pool.allocate(100);
+        pool.allocate(100);
+        assertEquals(2, pool.getHits());
+        assertEquals(4, pool.getMisses());
+    }
+
+    @Test
+    public void ensureOutstandingBuffersAreCounted() {
+        ByteBuffer a = pool.allocate(100);
+        pool.allocate(1000);
+        assertEquals(2, pool.getOutstanding());
+        assertEquals(1100, pool.getOutstandingBytes());
+
+        pool.deallocate(a);
+        assertEquals(1, pool.getOutstanding());
+        assertEquals(1000, pool.getOutstandingBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void ensureDoubleDeallocationIsDetectedInDebugMode() {
+        pool.setDebug(true);
+        ByteBuffer buffer = pool.allocate(100);
+        pool.deallocate(buffer);
+        pool.deallocate(buffer);
+    }
+
+    @Test
+    public void ensureLeakedBuffersAreDetectedInDebugMode() throws Exception {
+        pool.setDebug(true);
+        pool.allocate(1000);
+        for (int i = 0; i < 100 && pool.getLeaked() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            pool.deallocate(pool.allocate(100));
+        }
+        assertEquals(1, pool.getLeaked());
+        assertEquals(0, pool.getOutstanding());
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.factory;
+
+import ch.dissem.bitmessage.entity.Addr;
+import ch.dissem.bitmessage.entity.Inv;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.VerAck;
+import ch.dissem.bitmessage.entity.Version;
+import ch.dissem.bitmessage.entity.payload.GenericPayload;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
+import ch.dissem.bitmessage.exception.NodeException;
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.Encode;
+import ch.dissem.bitmessage.utils.TestBase;
+import ch.dissem.bitmessage.utils.TestUtils;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static org.junit.Assert.*;
+
+public class V3MessageReaderTest extends TestBase {
+    @Test
+    public void ensureReceivedObjectHasInventoryVector() throws IOException {
+        ObjectMessage object = TestUtils.loadObjectMessage(3, "V3Pubkey.payload");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NetworkMessage(object).write(out);
+        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+
+        V3MessageReader reader = new V3MessageReader();
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = reader.getActiveBuffer();
+            while (buffer.hasRemaining() && data.hasRemaining()) {
+                buffer.put(data.get());
+            }
+            reader.update();
+        }
+
+        List<NetworkMessage> messages = reader.getMessages();
+        assertEquals(1, messages.size());
+        ObjectMessage received = (ObjectMessage) messages.get(0).getPayload();
+        assertEquals(object, received);
+        assertEquals(expectedInventoryVector(received), received.getInventoryVector());
+    }
+
+    @Test
+    public void ensureObjectReadFromStreamHasInventoryVector() throws IOException {
+        ObjectMessage object = TestUtils.loadObjectMessage(3, "V3Pubkey.payload");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NetworkMessage(object).write(out);
+
+        NetworkMessage message = V3MessageFactory.read(new ByteArrayInputStream(out.toByteArray()));
+
+        ObjectMessage received = (ObjectMessage) message.getPayload();
+        assertEquals(expectedInventoryVector(received), received.getInventoryVector());
+    }
+
+    @Test
+    public void ensureAllMessagesInBufferAreReadAtOnce() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            byte[] hash = new byte[32];
+            hash[0] = (byte) i;
+            new NetworkMessage(new Inv.Builder().addInventoryVector(new InventoryVector(hash)).build()).write(out);
+        }
+        byte[] data = out.toByteArray();
+
+        V3MessageReader reader = new V3MessageReader();
+        reader.getActiveBuffer().put(data);
+        reader.update();
+
+        List<NetworkMessage> messages = reader.getMessages();
+        assertEquals(100, messages.size());
+        for (int i = 0; i < 100; i++) {
+            Inv inv = (Inv) messages.get(i).getPayload();
+            assertEquals(i, inv.getInventory().get(0).getHash()[0]);
+        }
+        reader.cleanup();
+    }
+
+    @Test
+    public void ensureMessagesLargerThanReceiveBufferAreRead() throws IOException {
+        byte[] data = new byte[200_000];
+        new Random().nextBytes(data);
+        ObjectMessage object = new ObjectMessage.Builder()
+            .nonce(new byte[8])
+            .expiresTime(UnixTime.now(+UnixTime.DAY))
+            .objectType(42)
+            .stream(1)
+            .payload(new GenericPayload(1, 1, data))
+            .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NetworkMessage(new VerAck()).write(out);
+        new NetworkMessage(object).write(out);
+        new NetworkMessage(new VerAck()).write(out);
+
+        List<NetworkMessage> messages = readInChunks(out.toByteArray(), 1000);
+
+        assertEquals(3, messages.size());
+        assertTrue(messages.get(0).getPayload() instanceof VerAck);
+        assertEquals(object, messages.get(1).getPayload());
+        assertTrue(messages.get(2).getPayload() instanceof VerAck);
+    }
+
+    @Test
+    public void ensureAllObjectTypesAreReadFromBuffer() throws IOException {
+        String[] resources = {"V1Msg.payload", "V2GetPubkey.payload", "V2Pubkey.payload", "V3GetPubkey.payload",
+            "V3Pubkey.payload", "V4Broadcast.payload", "V4GetPubkey.payload", "V4Pubkey.payload",
+            "V5Broadcast.payload"};
+        for (String resource : resources) {
+            ObjectMessage object = TestUtils.loadObjectMessage(3, resource);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new NetworkMessage(object).write(out);
+
+            List<NetworkMessage> messages = readInChunks(out.toByteArray(), 1000);
+
+            assertEquals(resource, 1, messages.size());
+            ObjectMessage received = (ObjectMessage) messages.get(0).getPayload();
+            assertEquals(resource, object.getPayload().getClass(), received.getPayload().getClass());
+            // not all payloads implement equals, but they must serialize to the same bytes
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            messages.get(0).write(written);
+            assertArrayEquals(resource, out.toByteArray(), written.toByteArray());
+        }
+    }
+
+    @Test
+    public void ensureVersionAndAddrAreReadFromBuffer() throws IOException {
+        NetworkAddress address = new NetworkAddress.Builder()
+            .ipv4(127, 0, 0, 1).port(8444).stream(1).time(UnixTime.now()).services(1).build();
+        Version version = new Version.Builder().defaults(42).addrFrom(address).addrRecv(address).build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NetworkMessage(version).write(out);
+        new NetworkMessage(new Addr.Builder().addAddress(address).build()).write(out);
+
+        List<NetworkMessage> messages = readInChunks(out.toByteArray(), 1000);
+
+        Version receivedVersion = (Version) messages.get(0).getPayload();
+        assertEquals(version.getVersion(), receivedVersion.getVersion());
+        assertEquals(version.getTimestamp(), receivedVersion.getTimestamp());
+        assertEquals(address, receivedVersion.getAddrFrom());
+        assertEquals(42, receivedVersion.getNonce());
+        assertEquals(version.getUserAgent(), receivedVersion.getUserAgent());
+        assertArrayEquals(version.getStreams(), receivedVersion.getStreams());
+        Addr receivedAddr = (Addr) messages.get(1).getPayload();
+        assertEquals(address, receivedAddr.getAddresses().get(0));
+        assertEquals(address.getTime(), receivedAddr.getAddresses().get(0).getTime());
+        assertEquals(1, receivedAddr.getAddresses().get(0).getStream());
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureTruncatedPayloadIsRejected() throws IOException {
+        // announces two inventory vectors, but only contains one
+        byte[] payload = new byte[1 + 32];
+        payload[0] = 2;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(NetworkMessage.MAGIC_BYTES);
+        out.write(Arrays.copyOf("inv".getBytes("ASCII"), 12));
+        Encode.int32(payload.length, out);
+        out.write(cryptography().sha512(payload), 0, 4);
+        out.write(payload);
+
+        readInChunks(out.toByteArray(), 1000);
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureNegativeInventoryCountIsRejected() throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(9 + 32);
+        payload.put((byte) 0xff).putLong(-1).put(new byte[32]);
+        readInChunks(frame("inv", payload.array()), 1000);
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureHugeInventoryCountIsRejected() throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(9 + 32);
+        payload.put((byte) 0xff).putLong(Long.MAX_VALUE / 16).put(new byte[32]);
+        readInChunks(frame("getdata", payload.array()), 1000);
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureHugeAddressCountIsRejected() throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(9 + 38);
+        payload.put((byte) 0xff).putLong(Integer.MAX_VALUE).put(new byte[38]);
+        readInChunks(frame("addr", payload.array()), 1000);
+    }
+
+    private static byte[] frame(String command, byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(NetworkMessage.MAGIC_BYTES);
+        out.write(Arrays.copyOf(command.getBytes("ASCII"), 12));
+        Encode.int32(payload.length, out);
+        out.write(cryptography().sha512(payload), 0, 4);
+        out.write(payload);
+        return out.toByteArray();
+    }
+
+    private static List<NetworkMessage> readInChunks(byte[] bytes, int chunkSize) {
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+        V3MessageReader reader = new V3MessageReader();
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = reader.getActiveBuffer();
+            int n = Math.min(chunkSize, Math.min(buffer.remaining(), data.remaining()));
+            for (int i = 0; i < n; i++) {
+                buffer.put(data.get());
+            }
+            reader.update();
+        }
+        reader.cleanup();
+        return reader.getMessages();
+    }
+
+    private static InventoryVector expectedInventoryVector(ObjectMessage object) {
+        return new InventoryVector(Bytes.truncate(
+            cryptography().doubleSha512(object.getNonce(), object.getPayloadBytesWithoutNonce()), 32));
+    }
+}
@@ -18,11 +18,18 @@ package ch.dissem.bitmessage.ports;
 
 import ch.dissem.bitmessage.utils.Bytes;
 import ch.dissem.bitmessage.utils.CallbackWaiter;
+import ch.dissem.bitmessage.utils.POWKernel;
 import ch.dissem.bitmessage.utils.TestBase;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 public class ProofOfWorkEngineTest extends TestBase {
     @Test(timeout = 90_000)
@@ -69,4 +76,127 @@ public class ProofOfWorkEngineTest extends TestBase {
         assertTrue("Second nonce must be quicker to find", waiter1.getTime() > waiter2.getTime());
     }
 
+    @Test(timeout = 90_000)
+    public void ensureConcurrentJobsAreAllCompleted() throws InterruptedException {
+        MultiThreadedPOWEngine engine = new MultiThreadedPOWEngine();
+        byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+        List<CallbackWaiter<byte[]>> waiters = new ArrayList<>();
+        List<byte[]> initialHashes = new ArrayList<>();
+        for (byte i = 0; i < 10; i++) {
+            byte[] initialHash = cryptography().sha512(new byte[]{1, 3, 6, i});
+            final CallbackWaiter<byte[]> waiter = new CallbackWaiter<>();
+            engine.calculateNonce(initialHash, target,
+                    new ProofOfWorkEngine.Callback() {
+                        @Override
+                        public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                            waiter.setValue(nonce);
+                        }
+                    });
+            initialHashes.add(initialHash);
+            waiters.add(waiter);
+        }
+        for (int i = 0; i < waiters.size(); i++) {
+            byte[] nonce = waiters.get(i).waitForValue();
+            assertTrue(Bytes.lt(cryptography().doubleSha512(nonce, initialHashes.get(i)), target, 8));
+        }
+        assertEquals(0, engine.getNumberOfJobs());
+        assertEquals(0, engine.getHashRate());
+    }
+
+    @Test(timeout = 90_000)
+    public void ensureJobProgressIsReportedAndJobCanBeCancelled() throws InterruptedException {
+        MultiThreadedPOWEngine engine = new MultiThreadedPOWEngine();
+        byte[] initialHash = cryptography().sha512(new byte[]{1, 3, 6, 4});
+        byte[] target = {0, 0, 0, 0, 0, -1, -1, -1};
+
+        ProofOfWorkEngine.Callback callback = mock(ProofOfWorkEngine.Callback.class);
+        engine.calculateNonce(initialHash, target, callback);
+        Thread.sleep(1000);
+
+        List<MultiThreadedPOWEngine.Task> jobs = engine.getJobs();
+        assertEquals(1, jobs.size());
+        ProofOfWorkEngine.Job job = jobs.get(0);
+        assertArrayEquals(initialHash, job.getInitialHash());
+        assertEquals(1L << 40, job.getExpectedTrials());
+        assertTrue(job.getTrials() > 0);
+        assertTrue(job.getHashRate() > 0);
+        assertTrue(job.getEstimatedTimeRemaining() > 0);
+
+        assertTrue(job.cancel());
+        assertFalse(job.cancel());
+        assertEquals(0, engine.getNumberOfJobs());
+        // workers stop at the next trial, but still account for the trials of their current chunk
+        Thread.sleep(100);
+        long trials = job.getTrials();
+        Thread.sleep(500);
+        assertEquals(trials, job.getTrials());
+        verifyZeroInteractions(callback);
+    }
+
+    @Test(timeout = 90_000)
+    public void ensureTimeRemainingIsEstimatedForJobResumedBeyondExpectedTrials() throws InterruptedException {
+        MultiThreadedPOWEngine engine = new MultiThreadedPOWEngine();
+        byte[] initialHash = cryptography().sha512(new byte[]{1, 3, 6, 4});
+        byte[] target = {0, 0, 0, 0, 0, -1, -1, -1};
+
+        ProofOfWorkEngine.Job job = engine.calculateNonce(initialHash, target, 1L << 41,
+                mock(ProofOfWorkEngine.Callback.class));
+        Thread.sleep(1000);
+
+        assertTrue(job.getTrials() > job.getExpectedTrials());
+        assertTrue(job.getEstimatedTimeRemaining() > 0);
+        job.cancel();
+        engine.shutdown();
+    }
+
+    @Test(timeout = 90_000)
+    public void ensureSearchResumesAtCheckpoint() throws InterruptedException {
+        MultiThreadedPOWEngine engine = new MultiThreadedPOWEngine();
+        byte[] initialHash = cryptography().sha512(new byte[]{1, 3, 6, 4});
+        byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+        long checkpoint = 5L << 32;
+
+        final CallbackWaiter<byte[]> waiter = new CallbackWaiter<>();
+        ProofOfWorkEngine.Job job = engine.calculateNonce(initialHash, target, checkpoint,
+                new ProofOfWorkEngine.Callback() {
+                    @Override
+                    public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                        waiter.setValue(nonce);
+                    }
+                });
+        byte[] nonce = waiter.waitForValue();
+        assertTrue(Bytes.lt(cryptography().doubleSha512(nonce, initialHash), target, 8));
+        assertTrue(Bytes.lt(POWKernel.bytes(checkpoint - 1), nonce, 8));
+        assertTrue(job.getCheckpoint() >= checkpoint);
+        assertTrue(job.getTrials() > checkpoint);
+    }
+
+    @Test(timeout = 90_000)
+    public void ensureKernelIsCreatedOncePerTaskAndWorker() throws InterruptedException {
+        final AtomicInteger kernels = new AtomicInteger();
+        MultiThreadedPOWEngine engine = new MultiThreadedPOWEngine(2) {
+            @Override
+            protected POWKernel createKernel(byte[] initialHash, byte[] target) {
+                kernels.incrementAndGet();
+                return super.createKernel(initialHash, target);
+            }
+        };
+        byte[] initialHash = cryptography().sha512(new byte[]{1, 3, 6, 4});
+        // about 16 chunks are needed on average
+        byte[] target = {0, 0, 0x10, 0, 0, 0, 0, 0};
+
+        final CallbackWaiter<byte[]> waiter = new CallbackWaiter<>();
+        ProofOfWorkEngine.Job job = engine.calculateNonce(initialHash, target, 0,
+                new ProofOfWorkEngine.Callback() {
+                    @Override
+                    public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                        waiter.setValue(nonce);
+                    }
+                });
+        waiter.waitForValue();
+        engine.shutdown();
+
+        assertTrue(kernels.get() <= 2);
+        assertTrue(job.getTrials() > 0);
+    }
 }
@@ -16,10 +16,13 @@
 
 package ch.dissem.bitmessage.utils;
 
+import ch.dissem.bitmessage.exception.NodeException;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class DecodeTest {
@@ -32,9 +35,55 @@ public class DecodeTest {
         }
     }
 
+    @Test
+    public void ensureStringsAndBytesAreDecodedFromBuffer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Encode.varString("Hello, wörld", out);
+        Encode.varBytes(new byte[]{1, 2, 3}, out);
+        Encode.varIntList(new long[]{1, 300, 70000}, out);
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+
+        assertEquals("Hello, wörld", Decode.varString(in));
+        assertArrayEquals(new byte[]{1, 2, 3}, Decode.varBytes(in));
+        assertArrayEquals(new long[]{1, 300, 70000}, Decode.varIntList(in));
+        assertEquals(0, in.remaining());
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureTooLongVarBytesAreRejectedFromBuffer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Encode.varInt(Integer.MAX_VALUE, out);
+        Decode.varBytes(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureNegativeLengthIsRejectedFromBuffer() {
+        Decode.varBytes(negativeVarInt());
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureNegativeListLengthIsRejectedFromBuffer() {
+        Decode.varIntList(negativeVarInt());
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureOverflowingCountIsRejectedFromBuffer() {
+        // count * 32 overflows to a negative number
+        ByteBuffer in = ByteBuffer.allocate(9 + 32);
+        in.put((byte) 0xff).putLong(Long.MAX_VALUE / 16).put(new byte[32]).flip();
+        Decode.count(in, 32);
+    }
+
+    private static ByteBuffer negativeVarInt() {
+        ByteBuffer in = ByteBuffer.allocate(9 + 8);
+        in.put((byte) 0xff).putLong(-4294967294L).put(new byte[8]).flip();
+        return in;
+    }
+
     private void testCodec(long number) throws IOException {
         ByteArrayOutputStream is = new ByteArrayOutputStream();
         Encode.varInt(number, is);
         assertEquals(number, Decode.varInt(new ByteArrayInputStream(is.toByteArray())));
+        assertEquals(number, Decode.varInt(ByteBuffer.wrap(is.toByteArray())));
     }
 }
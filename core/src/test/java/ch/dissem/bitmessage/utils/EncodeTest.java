@@ -112,6 +112,19 @@ public class EncodeTest {
         checkBytes(stream, 255, 255, 255, 255, 255, 255, 255, 255, 255);
     }
 
+    @Test
+    public void ensureSizesMatchWrittenBytes() throws IOException {
+        for (long value : new long[]{0, 252, 253, 65535, 65536, 4294967295L, 4294967296L, -1L}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            Encode.varInt(value, stream);
+            assertEquals(stream.size(), Encode.varIntSize(value));
+        }
+        for (String value : new String[]{"", "ASCII", "wörld", "\u20ac", "\ud83d\ude00", "\ud83d"}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            Encode.varString(value, stream);
+            assertEquals(value, stream.size(), Encode.varStringSize(value));
+        }
+    }
 
     public void checkBytes(ByteArrayOutputStream stream, int... bytes) {
         assertEquals(bytes.length, stream.size());
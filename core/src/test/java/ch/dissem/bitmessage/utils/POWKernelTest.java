@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.utils;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class POWKernelTest {
+    private static final Random RANDOM = new Random();
+
+    @Test
+    public void ensureTrialValueMatchesMessageDigest() throws Exception {
+        MessageDigest mda = MessageDigest.getInstance("SHA-512");
+        for (int i = 0; i < 1000; i++) {
+            byte[] initialHash = new byte[64];
+            RANDOM.nextBytes(initialHash);
+            long nonce = RANDOM.nextLong();
+
+            mda.update(POWKernel.bytes(nonce));
+            mda.update(initialHash);
+            byte[] expected = Bytes.truncate(mda.digest(mda.digest()), 8);
+
+            POWKernel kernel = new POWKernel(initialHash, new byte[8]);
+            assertArrayEquals(expected, POWKernel.bytes(kernel.trialValue(nonce)));
+        }
+    }
+
+    @Test
+    public void ensureTargetIsComparedUnsigned() {
+        byte[] initialHash = new byte[64];
+        RANDOM.nextBytes(initialHash);
+        for (long nonce = 0; nonce < 1000; nonce++) {
+            byte[] value = POWKernel.bytes(new POWKernel(initialHash, new byte[8]).trialValue(nonce));
+            byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+            assertEquals(!Bytes.lt(target, value, 8), new POWKernel(initialHash, target).isValid(nonce));
+        }
+    }
+}
@@ -26,6 +26,7 @@ import ch.dissem.bitmessage.factory.Factory;
 import ch.dissem.bitmessage.utils.Encode;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import static ch.dissem.bitmessage.utils.Decode.*;
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
@@ -118,6 +119,17 @@ public class CryptoCustomMessage<T extends Streamable> extends CustomMessage {
         container.write(out);
     }
 
+    @Override
+    public void write(ByteBuffer buffer) {
+        Encode.varString(COMMAND, buffer);
+        container.write(buffer);
+    }
+
+    @Override
+    public int getSerializedSize() {
+        return Encode.varStringSize(COMMAND) + container.getSerializedSize();
+    }
+
     public interface Reader<T> {
         T read(BitmessageAddress sender, InputStream in) throws IOException;
     }
@@ -91,6 +91,11 @@ public class ProofOfWorkRequest implements Streamable {
         Encode.varBytes(data, buffer);
     }
 
+    @Override
+    public int getSerializedSize() {
+        return initialHash.length + Encode.varStringSize(request.name()) + Encode.varBytesSize(data);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
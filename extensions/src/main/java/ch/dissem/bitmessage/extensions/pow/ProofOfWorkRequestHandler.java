@@ -0,0 +1,341 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.extensions.pow;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.CustomMessage;
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.exception.DecryptionFailedException;
+import ch.dissem.bitmessage.extensions.CryptoCustomMessage;
+import ch.dissem.bitmessage.ports.CustomCommandHandler;
+import ch.dissem.bitmessage.ports.MultiThreadedPOWEngine;
+import ch.dissem.bitmessage.ports.ProofOfWorkEngine;
+import ch.dissem.bitmessage.utils.POWKernel;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.extensions.pow.ProofOfWorkRequest.Request.CALCULATING;
+import static ch.dissem.bitmessage.extensions.pow.ProofOfWorkRequest.Request.COMPLETE;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
+import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
+
+/**
+ * Does the proof of work for clients using the {@link RemotePOWEngine}.
+ * <p>
+ * Every request for an initial hash and target that are already known is answered with the state of the existing
+ * job, so clients can simply repeat their request until the nonce is returned, and a job is calculated only once
+ * even if several clients ask for it. The work itself is done by the local POW engine, by default using all CPU cores.
+ * </p>
+ * <p>
+ * Requests must be encrypted for the server's address, but any client knowing it may use the server. So the number
+ * of jobs is limited, both in total and per client, targets that are too difficult are rejected, and jobs are
+ * cancelled if no client asked for them for a while.
+ * </p>
+ *
+ * @author Christian Basler
+ */
+public class ProofOfWorkRequestHandler implements CustomCommandHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(ProofOfWorkRequestHandler.class);
+
+    /**
+     * Number of calculated nonces kept for clients that didn't fetch them yet.
+     */
+    private static final int MAX_RESULTS = 1000;
+
+    /**
+     * Default for {@link #setMaxJobs(int)}.
+     */
+    public static final int DEFAULT_MAX_JOBS = 100;
+    /**
+     * Default for {@link #setMaxJobsPerClient(int)}.
+     */
+    public static final int DEFAULT_MAX_JOBS_PER_CLIENT = 10;
+    /**
+     * Default for {@link #setMaxExpectedTrials(long)}. That's several times the work needed for the largest
+     * object with the longest time to live at network difficulty.
+     */
+    public static final long DEFAULT_MAX_EXPECTED_TRIALS = 1L << 36;
+    /**
+     * Default for {@link #setJobTimeout(long)}.
+     */
+    public static final long DEFAULT_JOB_TIMEOUT = 5 * MINUTE;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        pool("POW-requests").daemon().build());
+    private final BitmessageAddress identity;
+    private final ProofOfWorkEngine engine;
+
+    private int maxJobs = DEFAULT_MAX_JOBS;
+    private int maxJobsPerClient = DEFAULT_MAX_JOBS_PER_CLIENT;
+    private long maxExpectedTrials = DEFAULT_MAX_EXPECTED_TRIALS;
+    private long jobTimeout = DEFAULT_JOB_TIMEOUT;
+
+    private final Map<Key, Job> calculating = new HashMap<>();
+    private final Map<Key, byte[]> results = new LinkedHashMap<Key, byte[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+            return size() > MAX_RESULTS;
+        }
+    };
+
+    /**
+     * @param identity the server's identity, must contain the private key
+     */
+    public ProofOfWorkRequestHandler(BitmessageAddress identity) {
+        this(identity, new MultiThreadedPOWEngine());
+    }
+
+    /**
+     * @param identity the server's identity, must contain the private key
+     * @param engine   the engine doing the actual work. Abandoned jobs can only be cancelled if it is a
+     *                 {@link ProofOfWorkEngine.WithProgress}, otherwise they're just forgotten.
+     */
+    public ProofOfWorkRequestHandler(BitmessageAddress identity, ProofOfWorkEngine engine) {
+        if (identity.getPrivateKey() == null) {
+            throw new IllegalArgumentException("Identity must contain the private key");
+        }
+        this.identity = identity;
+        this.engine = engine;
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                cancelAbandonedJobs();
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param maxJobs the number of jobs that may be in progress or waiting at once, {@link #DEFAULT_MAX_JOBS} by
+     *                default
+     */
+    public synchronized void setMaxJobs(int maxJobs) {
+        if (maxJobs < 1) {
+            throw new IllegalArgumentException("At least one job must be allowed");
+        }
+        this.maxJobs = maxJobs;
+    }
+
+    /**
+     * @param maxJobsPerClient the number of jobs a single client may have in progress or waiting at once,
+     *                         {@link #DEFAULT_MAX_JOBS_PER_CLIENT} by default
+     */
+    public synchronized void setMaxJobsPerClient(int maxJobsPerClient) {
+        if (maxJobsPerClient < 1) {
+            throw new IllegalArgumentException("At least one job must be allowed");
+        }
+        this.maxJobsPerClient = maxJobsPerClient;
+    }
+
+    /**
+     * @param maxExpectedTrials requests with targets that need more trials on average are rejected,
+     *                          {@link #DEFAULT_MAX_EXPECTED_TRIALS} by default
+     */
+    public synchronized void setMaxExpectedTrials(long maxExpectedTrials) {
+        this.maxExpectedTrials = maxExpectedTrials;
+    }
+
+    /**
+     * @param seconds a job is cancelled if no client asked for it in this time, {@link #DEFAULT_JOB_TIMEOUT} by
+     *                default. It must be longer than the poll interval of the clients.
+     */
+    public synchronized void setJobTimeout(long seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        this.jobTimeout = seconds;
+    }
+
+    @Override
+    public MessagePayload handle(CustomMessage message) {
+        if (!CryptoCustomMessage.COMMAND.equals(message.getCustomCommand())) {
+            return CustomMessage.error("Unknown command: " + message.getCustomCommand());
+        }
+        try {
+            CryptoCustomMessage<ProofOfWorkRequest> cryptoMessage = CryptoCustomMessage.read(message,
+                new ProofOfWorkRequest.Reader(identity));
+            ProofOfWorkRequest request = cryptoMessage.decrypt(identity.getPublicDecryptionKey());
+            BitmessageAddress client = cryptoMessage.getSender();
+
+            if (request.getRequest() != ProofOfWorkRequest.Request.CALCULATE) {
+                return CustomMessage.error("Unexpected request: " + request.getRequest());
+            }
+            if (request.getData().length != 8) {
+                return CustomMessage.error("Target must be 8 bytes");
+            }
+            if (POWKernel.expectedTrials(request.getData()) > getMaxExpectedTrials()) {
+                return CustomMessage.error("Target is too difficult");
+            }
+
+            cancelAbandonedJobs();
+            byte[] nonce = calculate(client, request.getInitialHash(), request.getData());
+            ProofOfWorkRequest response;
+            if (nonce == null) {
+                response = new ProofOfWorkRequest(identity, request.getInitialHash(), CALCULATING);
+            } else {
+                response = new ProofOfWorkRequest(identity, request.getInitialHash(), COMPLETE, nonce);
+            }
+            CryptoCustomMessage<ProofOfWorkRequest> result = new CryptoCustomMessage<>(response);
+            result.signAndEncrypt(identity, cryptography().createPublicKey(client.getPublicDecryptionKey()));
+            return result;
+        } catch (IOException | DecryptionFailedException | IllegalStateException e) {
+            LOG.debug(e.getMessage(), e);
+            return CustomMessage.error("Could not handle request: " + e.getMessage());
+        }
+    }
+
+    private synchronized long getMaxExpectedTrials() {
+        return maxExpectedTrials;
+    }
+
+    /**
+     * @return the nonce if it was already found, null otherwise
+     * @throws IllegalStateException if the job is new, but there are too many jobs already
+     */
+    private byte[] calculate(BitmessageAddress client, byte[] initialHash, byte[] target) {
+        final Key key = new Key(initialHash, target);
+        Job job;
+        synchronized (this) {
+            byte[] nonce = results.get(key);
+            if (nonce != null) {
+                return nonce;
+            }
+            job = calculating.get(key);
+            if (job != null) {
+                job.lastRequest = UnixTime.now();
+                return null;
+            }
+            if (calculating.size() >= maxJobs) {
+                throw new IllegalStateException("Too many jobs, try again later");
+            }
+            if (countJobs(client) >= maxJobsPerClient) {
+                throw new IllegalStateException("Too many jobs for client " + client);
+            }
+            job = new Job(client);
+            calculating.put(key, job);
+        }
+        ProofOfWorkEngine.Callback callback = new ProofOfWorkEngine.Callback() {
+            @Override
+            public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                synchronized (ProofOfWorkRequestHandler.this) {
+                    calculating.remove(key);
+                    results.put(key, nonce);
+                }
+            }
+        };
+        if (engine instanceof ProofOfWorkEngine.WithProgress) {
+            ProofOfWorkEngine.Job engineJob = ((ProofOfWorkEngine.WithProgress) engine)
+                .calculateNonce(initialHash, target, 0, callback);
+            synchronized (this) {
+                if (calculating.get(key) == job) {
+                    job.engineJob = engineJob;
+                    return null;
+                }
+            }
+            // the job was abandoned in the meantime
+            engineJob.cancel();
+        } else {
+            engine.calculateNonce(initialHash, target, callback);
+        }
+        return null;
+    }
+
+    private int countJobs(BitmessageAddress client) {
+        int count = 0;
+        for (Job job : calculating.values()) {
+            if (job.client.equals(client)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Cancels the jobs no client asked for within the job timeout.
+     */
+    private void cancelAbandonedJobs() {
+        List<ProofOfWorkEngine.Job> abandoned = new LinkedList<>();
+        synchronized (this) {
+            long limit = UnixTime.now(-jobTimeout);
+            Iterator<Job> iterator = calculating.values().iterator();
+            while (iterator.hasNext()) {
+                Job job = iterator.next();
+                if (job.lastRequest < limit) {
+                    iterator.remove();
+                    if (job.engineJob != null) {
+                        abandoned.add(job.engineJob);
+                    }
+                }
+            }
+        }
+        for (ProofOfWorkEngine.Job job : abandoned) {
+            if (job.cancel()) {
+                LOG.debug("Cancelled abandoned POW after " + job.getTrials() + " trials");
+            }
+        }
+    }
+
+    /**
+     * @return the number of jobs that are waiting or in progress.
+     */
+    public synchronized int getNumberOfJobs() {
+        return calculating.size();
+    }
+
+    private static class Key {
+        private final byte[] initialHash;
+        private final byte[] target;
+
+        private Key(byte[] initialHash, byte[] target) {
+            this.initialHash = initialHash;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return Arrays.equals(initialHash, other.initialHash) && Arrays.equals(target, other.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(initialHash) + Arrays.hashCode(target);
+        }
+    }
+
+    private static class Job {
+        private final BitmessageAddress client;
+        private long lastRequest = UnixTime.now();
+        /**
+         * Null until the engine started the job, and if the engine can't cancel it.
+         */
+        private ProofOfWorkEngine.Job engineJob;
+
+        private Job(BitmessageAddress client) {
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.extensions.pow;
+
+import ch.dissem.bitmessage.InternalContext;
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.CustomMessage;
+import ch.dissem.bitmessage.exception.DecryptionFailedException;
+import ch.dissem.bitmessage.extensions.CryptoCustomMessage;
+import ch.dissem.bitmessage.ports.ProofOfWorkEngine;
+import ch.dissem.bitmessage.utils.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.extensions.pow.ProofOfWorkRequest.Request.CALCULATE;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
+
+/**
+ * A POW engine that lets one or more servers running a {@link ProofOfWorkRequestHandler} do the work,
+ * i.e. for mobile or other low-power clients.
+ * <p>
+ * The request is sent to the first server, and then repeated until the server returns the nonce. If a server
+ * can't be reached or returns an error, the next one is asked.
+ * </p>
+ *
+ * @author Christian Basler
+ */
+public class RemotePOWEngine implements ProofOfWorkEngine, InternalContext.ContextHolder {
+    private static final Logger LOG = LoggerFactory.getLogger(RemotePOWEngine.class);
+    private static final long DEFAULT_POLL_INTERVAL = 10_000;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        pool("POW-remote").daemon().build());
+    private final BitmessageAddress identity;
+    private final Server[] servers;
+    private final long pollInterval;
+
+    private InternalContext ctx;
+
+    /**
+     * @param identity used to sign the requests, must contain the private key
+     * @param servers  the servers to ask, in this order
+     */
+    public RemotePOWEngine(BitmessageAddress identity, Server... servers) {
+        this(identity, DEFAULT_POLL_INTERVAL, servers);
+    }
+
+    /**
+     * @param identity     used to sign the requests, must contain the private key
+     * @param pollInterval milliseconds to wait before asking a server again whether the nonce was found
+     * @param servers      the servers to ask, in this order
+     */
+    public RemotePOWEngine(BitmessageAddress identity, long pollInterval, Server... servers) {
+        if (identity.getPrivateKey() == null) {
+            throw new IllegalArgumentException("Identity must contain the private key");
+        }
+        if (servers.length == 0) {
+            throw new IllegalArgumentException("At least one server is needed");
+        }
+        this.identity = identity;
+        this.servers = servers;
+        this.pollInterval = pollInterval;
+    }
+
+    @Override
+    public void calculateNonce(byte[] initialHash, byte[] target, Callback callback) {
+        scheduler.execute(new Poll(initialHash, target, callback));
+    }
+
+    @Override
+    public void setContext(InternalContext ctx) {
+        this.ctx = ctx;
+    }
+
+    private ProofOfWorkRequest send(Server server, byte[] initialHash, byte[] target)
+        throws IOException, DecryptionFailedException {
+        CryptoCustomMessage<ProofOfWorkRequest> request = new CryptoCustomMessage<>(
+            new ProofOfWorkRequest(identity, initialHash, CALCULATE, target));
+        request.signAndEncrypt(identity, cryptography().createPublicKey(server.identity.getPublicDecryptionKey()));
+
+        CustomMessage response = ctx.getNetworkHandler().send(server.host, server.port, request);
+        if (response.isError()) {
+            throw new IOException("Server " + server + " returned error: " + new String(response.getData(), "UTF-8"));
+        }
+        CryptoCustomMessage<ProofOfWorkRequest> message = CryptoCustomMessage.read(response,
+            new ProofOfWorkRequest.Reader(identity));
+        ProofOfWorkRequest result = message.decrypt(identity.getPublicDecryptionKey());
+        if (!server.identity.equals(message.getSender())) {
+            throw new IOException("Response from " + server + " wasn't signed by the server");
+        }
+        return result;
+    }
+
+    /**
+     * A node running a {@link ProofOfWorkRequestHandler}.
+     */
+    public static class Server {
+        private final InetAddress host;
+        private final int port;
+        private final BitmessageAddress identity;
+
+        /**
+         * @param host     the server's address
+         * @param port     the server's port
+         * @param identity the server's address, requests are encrypted for it and responses must be signed by it
+         */
+        public Server(InetAddress host, int port, BitmessageAddress identity) {
+            this.host = host;
+            this.port = port;
+            this.identity = identity;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private class Poll implements Runnable {
+        private final byte[] initialHash;
+        private final byte[] target;
+        private final Callback callback;
+        private int serverIndex;
+        private int failures;
+
+        private Poll(byte[] initialHash, byte[] target, Callback callback) {
+            this.initialHash = initialHash;
+            this.target = target;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            Server server = servers[serverIndex];
+            byte[] nonce = null;
+            try {
+                ProofOfWorkRequest response = send(server, initialHash, target);
+                switch (response.getRequest()) {
+                    case CALCULATING:
+                        failures = 0;
+                        scheduler.schedule(this, pollInterval, TimeUnit.MILLISECONDS);
+                        return;
+                    case COMPLETE:
+                        nonce = response.getData();
+                        if (nonce.length != 8 || Bytes.lt(target, cryptography().doubleSha512(nonce, initialHash), 8)) {
+                            LOG.warn("Server " + server + " returned an invalid nonce");
+                            nonce = null;
+                        }
+                        break;
+                    default:
+                        LOG.warn("Unexpected response from server " + server + ": " + response.getRequest());
+                }
+            } catch (IOException | DecryptionFailedException | RuntimeException e) {
+                LOG.warn("Requesting POW from server " + server + " failed: " + e.getMessage());
+                LOG.debug(e.getMessage(), e);
+            }
+            if (nonce != null) {
+                callback.onNonceCalculated(initialHash, nonce);
+                return;
+            }
+            serverIndex = (serverIndex + 1) % servers.length;
+            failures++;
+            // Only wait if every server was asked in vain
+            long delay = failures % servers.length == 0 ? pollInterval : 0;
+            scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
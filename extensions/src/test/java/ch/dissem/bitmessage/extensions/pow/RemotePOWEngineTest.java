@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.extensions.pow;
+
+import ch.dissem.bitmessage.BitmessageContext;
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.CustomMessage;
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.entity.valueobject.PrivateKey;
+import ch.dissem.bitmessage.extensions.CryptoCustomMessage;
+import ch.dissem.bitmessage.networking.nio.NioNetworkHandler;
+import ch.dissem.bitmessage.ports.*;
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.CallbackWaiter;
+import ch.dissem.bitmessage.utils.TestBase;
+import ch.dissem.bitmessage.utils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+
+import static ch.dissem.bitmessage.extensions.pow.ProofOfWorkRequest.Request.*;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class RemotePOWEngineTest extends TestBase {
+    private static final int SERVER_PORT = 6012;
+
+    private BitmessageAddress serverIdentity;
+    private BitmessageAddress clientIdentity;
+    private BitmessageContext server;
+    private BitmessageContext client;
+    private RemotePOWEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        serverIdentity = TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8");
+        clientIdentity = new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000));
+
+        server = context(SERVER_PORT, new NioNetworkHandler())
+            .customCommandHandler(new ProofOfWorkRequestHandler(serverIdentity))
+            .build();
+        server.startup();
+
+        // the first server isn't running, so the client needs to fall back to the second one
+        engine = new RemotePOWEngine(clientIdentity, 100,
+            new RemotePOWEngine.Server(InetAddress.getLocalHost(), SERVER_PORT - 1, serverIdentity),
+            new RemotePOWEngine.Server(InetAddress.getLocalHost(), SERVER_PORT,
+                new BitmessageAddress(serverIdentity.getAddress())));
+        client = context(SERVER_PORT + 1, new NioNetworkHandler())
+            .proofOfWorkEngine(engine)
+            .build();
+        client.startup();
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    private static BitmessageContext.Builder context(int port, NetworkHandler networkHandler) {
+        return new BitmessageContext.Builder()
+            .addressRepo(mock(AddressRepository.class))
+            .inventory(mock(Inventory.class))
+            .messageRepo(mock(MessageRepository.class))
+            .powRepo(mock(ProofOfWorkRepository.class))
+            .nodeRegistry(mock(NodeRegistry.class))
+            .port(port)
+            .networkHandler(networkHandler)
+            .cryptography(new BouncyCryptography())
+            .listener(mock(BitmessageContext.Listener.class));
+    }
+
+    @Test(timeout = 60_000)
+    public void ensureNonceIsCalculatedByServer() throws Exception {
+        byte[] initialHash = cryptography().sha512(new byte[]{1, 3, 6, 4});
+        byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+
+        final CallbackWaiter<byte[]> waiter = new CallbackWaiter<>();
+        engine.calculateNonce(initialHash, target, new ProofOfWorkEngine.Callback() {
+            @Override
+            public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                waiter.setValue(nonce);
+            }
+        });
+        byte[] nonce = waiter.waitForValue();
+        assertTrue(Bytes.lt(cryptography().doubleSha512(nonce, initialHash), target, 8));
+    }
+
+    @Test
+    public void ensureRequestsForSameInitialHashAreCalculatedOnce() throws Exception {
+        ProofOfWorkEngine localEngine = mock(ProofOfWorkEngine.class);
+        ProofOfWorkRequestHandler handler = new ProofOfWorkRequestHandler(serverIdentity, localEngine);
+        byte[] initialHash = cryptography().randomBytes(64);
+        byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+        BitmessageAddress otherClient = new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000));
+
+        assertEquals(CALCULATING, handle(handler, clientIdentity, initialHash, target).getRequest());
+        assertEquals(CALCULATING, handle(handler, otherClient, initialHash, target).getRequest());
+        assertEquals(1, handler.getNumberOfJobs());
+        verify(localEngine, times(1)).calculateNonce(eq(initialHash), eq(target),
+            any(ProofOfWorkEngine.Callback.class));
+    }
+
+    @Test
+    public void ensureRequestsWithDifferentTargetsAreCalculatedSeparately() throws Exception {
+        ProofOfWorkEngine localEngine = mock(ProofOfWorkEngine.class);
+        ProofOfWorkRequestHandler handler = new ProofOfWorkRequestHandler(serverIdentity, localEngine);
+        byte[] initialHash = cryptography().randomBytes(64);
+        byte[] easyTarget = {0, 0, -1, -1, -1, -1, -1, -1};
+        byte[] hardTarget = {0, 0, 0, -1, -1, -1, -1, -1};
+
+        assertEquals(CALCULATING, handle(handler, clientIdentity, initialHash, easyTarget).getRequest());
+        assertEquals(CALCULATING, handle(handler, clientIdentity, initialHash, hardTarget).getRequest());
+        assertEquals(2, handler.getNumberOfJobs());
+        verify(localEngine).calculateNonce(eq(initialHash), eq(easyTarget), any(ProofOfWorkEngine.Callback.class));
+        verify(localEngine).calculateNonce(eq(initialHash), eq(hardTarget), any(ProofOfWorkEngine.Callback.class));
+    }
+
+    @Test
+    public void ensureJobsAreLimitedInTotalAndPerClient() throws Exception {
+        ProofOfWorkRequestHandler handler = new ProofOfWorkRequestHandler(serverIdentity, mock(ProofOfWorkEngine.class));
+        handler.setMaxJobs(2);
+        handler.setMaxJobsPerClient(1);
+        byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+        BitmessageAddress otherClient = new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000));
+        BitmessageAddress thirdClient = new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000));
+
+        assertEquals(CALCULATING, handle(handler, clientIdentity, cryptography().randomBytes(64), target).getRequest());
+        assertTrue(respond(handler, clientIdentity, cryptography().randomBytes(64), target).isError());
+        assertEquals(CALCULATING, handle(handler, otherClient, cryptography().randomBytes(64), target).getRequest());
+        assertTrue(respond(handler, thirdClient, cryptography().randomBytes(64), target).isError());
+        assertEquals(2, handler.getNumberOfJobs());
+    }
+
+    @Test
+    public void ensureTooDifficultTargetIsRejected() throws Exception {
+        ProofOfWorkEngine localEngine = mock(ProofOfWorkEngine.class);
+        ProofOfWorkRequestHandler handler = new ProofOfWorkRequestHandler(serverIdentity, localEngine);
+        byte[] target = new byte[8];
+
+        assertTrue(respond(handler, clientIdentity, cryptography().randomBytes(64), target).isError());
+        assertEquals(0, handler.getNumberOfJobs());
+        verifyZeroInteractions(localEngine);
+    }
+
+    @Test
+    public void ensureAbandonedJobIsCancelled() throws Exception {
+        ProofOfWorkEngine.WithProgress localEngine = mock(ProofOfWorkEngine.WithProgress.class);
+        ProofOfWorkEngine.Job job = mock(ProofOfWorkEngine.Job.class);
+        when(localEngine.calculateNonce(any(byte[].class), any(byte[].class), anyLong(),
+            any(ProofOfWorkEngine.Callback.class))).thenReturn(job);
+        ProofOfWorkRequestHandler handler = new ProofOfWorkRequestHandler(serverIdentity, localEngine);
+        handler.setJobTimeout(0);
+        byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+
+        assertEquals(CALCULATING, handle(handler, clientIdentity, cryptography().randomBytes(64), target).getRequest());
+        Thread.sleep(1100);
+        assertEquals(CALCULATING, handle(handler, clientIdentity, cryptography().randomBytes(64), target).getRequest());
+        verify(job).cancel();
+        assertEquals(1, handler.getNumberOfJobs());
+    }
+
+    @Test
+    public void ensureInvalidRequestYieldsError() {
+        ProofOfWorkRequestHandler handler = new ProofOfWorkRequestHandler(serverIdentity, mock(ProofOfWorkEngine.class));
+        MessagePayload response = handler.handle(new CustomMessage("test", new byte[]{1, 2, 3}));
+        assertTrue(((CustomMessage) response).isError());
+    }
+
+    private ProofOfWorkRequest handle(ProofOfWorkRequestHandler handler, BitmessageAddress client,
+                                      byte[] initialHash, byte[] target) throws Exception {
+        CustomMessage response = respond(handler, client, initialHash, target);
+        return CryptoCustomMessage.read(response, new ProofOfWorkRequest.Reader(client))
+            .decrypt(client.getPublicDecryptionKey());
+    }
+
+    private CustomMessage respond(ProofOfWorkRequestHandler handler, BitmessageAddress client,
+                                  byte[] initialHash, byte[] target) throws Exception {
+        CryptoCustomMessage<ProofOfWorkRequest> request = new CryptoCustomMessage<>(
+            new ProofOfWorkRequest(client, initialHash, CALCULATE, target));
+        request.signAndEncrypt(client, cryptography().createPublicKey(serverIdentity.getPublicDecryptionKey()));
+        return transmit((CustomMessage) handler.handle(transmit(request)));
+    }
+
+    private static CustomMessage transmit(CustomMessage message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.write(out);
+        return CustomMessage.read(new ByteArrayInputStream(out.toByteArray()), out.size());
+    }
+}
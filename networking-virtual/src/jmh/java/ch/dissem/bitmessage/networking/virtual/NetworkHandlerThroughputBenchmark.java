@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.virtual;
+
+import ch.dissem.bitmessage.BitmessageContext;
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.GetData;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectFrame;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.VerAck;
+import ch.dissem.bitmessage.entity.Version;
+import ch.dissem.bitmessage.entity.payload.ObjectType;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
+import ch.dissem.bitmessage.networking.nio.NioNetworkHandler;
+import ch.dissem.bitmessage.ports.*;
+import ch.dissem.bitmessage.utils.Singleton;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+import static org.mockito.Mockito.mock;
+
+/**
+ * A node serves objects to many peers at once.
+ * <p>
+ * The peers are plain sockets on virtual threads. Each asks for the same {@value #OBJECTS} objects of
+ * {@value #OBJECT_SIZE} bytes and waits until it received all of them, so the node must write to all connections
+ * concurrently. The {@link Objects#objects} counter shows how many objects per second the network handler
+ * managed to send.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NetworkHandlerThroughputBenchmark {
+    private static final int OBJECTS = 100;
+    private static final int OBJECT_SIZE = 1024;
+
+    @Param({"virtual", "nio"})
+    public String handler;
+
+    @Param({"100", "1000"})
+    public int connections;
+
+    private BitmessageContext node;
+    private ExecutorService peers;
+    private List<Peer> connected;
+
+    @Setup
+    public void setUp() throws Exception {
+        Singleton.initialize(new BouncyCryptography());
+
+        Random random = new Random();
+        List<InventoryVector> inventory = new ArrayList<>(OBJECTS);
+        for (int i = 0; i < OBJECTS; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            inventory.add(new InventoryVector(hash));
+        }
+        byte[] object = new byte[OBJECT_SIZE];
+        random.nextBytes(object);
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        node = new BitmessageContext.Builder()
+            .addressRepo(mock(AddressRepository.class))
+            .inventory(new FixedInventory(inventory, new ObjectFrame(object)))
+            .messageRepo(mock(MessageRepository.class))
+            .powRepo(mock(ProofOfWorkRepository.class))
+            .port(port)
+            .connectionLimit(2 * connections)
+            .nodeRegistry(mock(NodeRegistry.class))
+            .networkHandler("nio".equals(handler) ? new NioNetworkHandler() : new VirtualThreadNetworkHandler())
+            .cryptography(new BouncyCryptography())
+            .listener(mock(BitmessageContext.Listener.class))
+            .build();
+        node.startup();
+
+        peers = Executors.newVirtualThreadPerTaskExecutor();
+        GetData getData = new GetData.Builder().inventory(inventory).build();
+        connected = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            connected.add(new Peer(port, getData));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Peer peer : connected) {
+            peer.socket.close();
+        }
+        peers.shutdownNow();
+        node.shutdown();
+    }
+
+    @Benchmark
+    public void serveObjects(Objects objects) throws Exception {
+        for (Future<Integer> received : peers.invokeAll(connected)) {
+            objects.objects += received.get();
+        }
+    }
+
+    private static class Peer implements Callable<Integer> {
+        private static final byte[] OBJECT_COMMAND = "object".getBytes(StandardCharsets.US_ASCII);
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final DataInputStream in;
+        private final GetData getData;
+        private final byte[] header = new byte[HEADER_SIZE];
+        private byte[] payload = new byte[OBJECT_SIZE];
+
+        Peer(int port, GetData getData) throws IOException {
+            this.socket = new Socket("127.0.0.1", port);
+            this.out = socket.getOutputStream();
+            this.in = new DataInputStream(socket.getInputStream());
+            this.getData = getData;
+            NetworkAddress self = new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(socket.getLocalPort()).build();
+            NetworkAddress node = new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(port).build();
+            new NetworkMessage(new Version.Builder().defaults(new Random().nextLong())
+                .addrFrom(self).addrRecv(node).build()).write(out);
+            new NetworkMessage(new VerAck()).write(out);
+        }
+
+        /**
+         * Asks for all objects and skips all other messages, i.e. the handshake and the node's inventory.
+         *
+         * @return the number of objects received
+         */
+        @Override
+        public Integer call() throws IOException {
+            new NetworkMessage(getData).write(out);
+            int received = 0;
+            while (received < OBJECTS) {
+                in.readFully(header);
+                int length = (header[16] & 0xff) << 24 | (header[17] & 0xff) << 16
+                    | (header[18] & 0xff) << 8 | (header[19] & 0xff);
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+                if (isObject()) {
+                    received++;
+                }
+            }
+            return received;
+        }
+
+        private boolean isObject() {
+            for (int i = 0; i < 12; i++) {
+                byte expected = i < OBJECT_COMMAND.length ? OBJECT_COMMAND[i] : 0;
+                if (header[4 + i] != expected) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class FixedInventory implements Inventory {
+        private final List<InventoryVector> inventory;
+        private final ObjectFrame frame;
+
+        FixedInventory(List<InventoryVector> inventory, ObjectFrame frame) {
+            this.inventory = inventory;
+            this.frame = frame;
+        }
+
+        @Override
+        public List<InventoryVector> getInventory(long... streams) {
+            return inventory;
+        }
+
+        @Override
+        public List<InventoryVector> getMissing(List<InventoryVector> offer, long... streams) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public ObjectMessage getObject(InventoryVector vector) {
+            return null;
+        }
+
+        @Override
+        public ObjectFrame getObjectFrame(InventoryVector vector) {
+            return frame;
+        }
+
+        @Override
+        public List<ObjectMessage> getObjects(long stream, long version, ObjectType... types) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void storeObject(ObjectMessage object) {
+        }
+
+        @Override
+        public boolean contains(ObjectMessage object) {
+            return true;
+        }
+
+        @Override
+        public void cleanup() {
+        }
+    }
+
+    /**
+     * Counts the objects all peers received, which JMH reports per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Objects {
+        public long objects;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            objects = 0;
+        }
+    }
+}
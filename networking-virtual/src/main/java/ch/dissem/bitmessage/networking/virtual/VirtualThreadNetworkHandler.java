@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.virtual;
+
+import ch.dissem.bitmessage.networking.DefaultNetworkHandler;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the blocking connections of the {@link DefaultNetworkHandler} on virtual threads.
+ * <p>
+ * Each connection still needs a thread for reading and one for writing, but as virtual threads only occupy a
+ * platform thread while they aren't blocked, thousands of connections can be handled by a few platform threads.
+ * </p>
+ */
+@SuppressWarnings("deprecation")
+public class VirtualThreadNetworkHandler extends DefaultNetworkHandler {
+    public VirtualThreadNetworkHandler() {
+        super(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("network-", 0).factory()));
+    }
+}
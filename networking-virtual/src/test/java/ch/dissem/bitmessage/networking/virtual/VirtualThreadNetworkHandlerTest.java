@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.virtual;
+
+import ch.dissem.bitmessage.networking.NetworkHandlerTest;
+import ch.dissem.bitmessage.networking.nio.NioNetworkHandler;
+import ch.dissem.bitmessage.ports.NetworkHandler;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the network handler tests with the virtual thread implementation on either or both sides.
+ */
+public class VirtualThreadNetworkHandlerTest extends NetworkHandlerTest {
+    public VirtualThreadNetworkHandlerTest(NetworkHandler peer, NetworkHandler node) {
+        super(peer, node);
+    }
+
+    @Parameterized.Parameters
+    public static List<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{
+            {new VirtualThreadNetworkHandler(), new VirtualThreadNetworkHandler()},
+            {new VirtualThreadNetworkHandler(), new NioNetworkHandler()},
+            {new NioNetworkHandler(), new VirtualThreadNetworkHandler()}
+        });
+    }
+}
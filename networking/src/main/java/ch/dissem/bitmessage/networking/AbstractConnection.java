@@ -32,6 +32,8 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
 import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
@@ -47,14 +49,29 @@ import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
  */
 public abstract class AbstractConnection {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractConnection.class);
+    public static final int DEFAULT_INVENTORY_FILTER_SIZE = 256 * 1024;
     protected final InternalContext ctx;
     protected final Mode mode;
     protected final NetworkAddress host;
     protected final NetworkAddress node;
     protected final NetworkHandler.MessageListener listener;
-    protected final Map<InventoryVector, Long> ivCache;
+    /**
+     * Objects the node announced or was offered, so they aren't offered to the node (again).
+     */
+    private final InventoryFilter ivCache;
+    /**
+     * Missing objects the node announced, so they can be requested from it if another node doesn't deliver them.
+     * Unlike {@link #ivCache} this is exact, as it's used to decide which node an object is requested from.
+     */
+    private final ExpiringMap<InventoryVector> announcedObjects = new ExpiringMap<>(MINUTE);
     protected final Deque<MessagePayload> sendingQueue;
-    protected final Map<InventoryVector, Long> commonRequestedObjects;
+    /**
+     * Objects the node asked for. They are only loaded right before they are sent, so large requests don't need
+     * much memory. No more than {@link GetData#MAX_INVENTORY_SIZE} are queued at once, each of them only once.
+     */
+    protected final Queue<InventoryVector> objectRequests;
+    private final Set<InventoryVector> queuedObjectRequests;
+    protected final ConcurrentMap<InventoryVector, Long> commonRequestedObjects;
     protected final Set<InventoryVector> requestedObjects;
 
     protected volatile State state;
@@ -71,19 +88,31 @@ public abstract class AbstractConnection {
 
     public AbstractConnection(InternalContext context, Mode mode,
                               NetworkAddress node,
-                              Map<InventoryVector, Long> commonRequestedObjects,
+                              ConcurrentMap<InventoryVector, Long> commonRequestedObjects,
                               long syncTimeout) {
+        this(context, mode, node, commonRequestedObjects, syncTimeout, DEFAULT_INVENTORY_FILTER_SIZE);
+    }
+
+    /**
+     * @param inventoryFilterSize how much memory is used to remember which objects the node knows of, in bytes
+     */
+    public AbstractConnection(InternalContext context, Mode mode,
+                              NetworkAddress node,
+                              ConcurrentMap<InventoryVector, Long> commonRequestedObjects,
+                              long syncTimeout, int inventoryFilterSize) {
         this.ctx = context;
         this.mode = mode;
         this.host = new NetworkAddress.Builder().ipv6(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0).port(0).build();
         this.node = node;
         this.listener = context.getNetworkListener();
         this.syncTimeout = (syncTimeout > 0 ? UnixTime.now(+syncTimeout) : 0);
-        this.requestedObjects = Collections.newSetFromMap(new ConcurrentHashMap<InventoryVector, Boolean>(10_000));
-        this.ivCache = new ConcurrentHashMap<>();
+        this.requestedObjects = Collections.newSetFromMap(new ConcurrentHashMap<InventoryVector, Boolean>());
         this.sendingQueue = new ConcurrentLinkedDeque<>();
+        this.objectRequests = new ConcurrentLinkedQueue<>();
+        this.queuedObjectRequests = Collections.newSetFromMap(new ConcurrentHashMap<InventoryVector, Boolean>());
         this.state = CONNECTING;
         this.commonRequestedObjects = commonRequestedObjects;
+        this.ivCache = new InventoryFilter(inventoryFilterSize, 5 * MINUTE);
     }
 
     public Mode getMode() {
@@ -143,21 +172,66 @@ public abstract class AbstractConnection {
         int originalSize = inv.getInventory().size();
         updateIvCache(inv.getInventory());
         List<InventoryVector> missing = ctx.getInventory().getMissing(inv.getInventory(), streams);
-        missing.removeAll(commonRequestedObjects.keySet());
         LOG.trace("Received inventory with " + originalSize + " elements, of which are "
             + missing.size() + " missing.");
-        send(new GetData.Builder().inventory(missing).build());
+        requestMissing(missing);
+    }
+
+    /**
+     * Requests the objects announced by this node that are missing from the inventory. Implementations may
+     * override this to distribute the requests among all nodes.
+     */
+    protected void requestMissing(List<InventoryVector> missing) {
+        long time = UnixTime.now();
+        announcedObjects.putAll(missing, time);
+        announcedObjects.expire(time - 5 * MINUTE);
+        // Other connections might receive the same inventory at the same time, so each object
+        // must be claimed atomically to make sure it's only requested from one of them.
+        Long now = UnixTime.now();
+        List<InventoryVector> claimed = new ArrayList<>(missing.size());
+        for (InventoryVector iv : missing) {
+            if (commonRequestedObjects.putIfAbsent(iv, now) == null) {
+                claimed.add(iv);
+            }
+        }
+        send(new GetData.Builder().inventory(claimed).build());
     }
 
     private void receiveMessage(GetData getData) {
+        int room = GetData.MAX_INVENTORY_SIZE - queuedObjectRequests.size();
         for (InventoryVector iv : getData.getInventory()) {
-            ObjectMessage om = ctx.getInventory().getObject(iv);
-            if (om != null) sendingQueue.offer(om);
+            if (room <= 0) {
+                LOG.debug("Node " + node + " requested too many objects, ignoring the rest of its request.");
+                break;
+            }
+            if (queuedObjectRequests.add(iv)) {
+                objectRequests.offer(iv);
+                room--;
+            }
+        }
+        objectsRequested();
+    }
+
+    /**
+     * Loads the next object the node asked for.
+     *
+     * @return the object ready to be sent, or null if there are no more requested objects
+     */
+    protected ObjectFrame nextRequestedObject() {
+        InventoryVector iv;
+        while ((iv = objectRequests.poll()) != null) {
+            queuedObjectRequests.remove(iv);
+            ObjectFrame frame = ctx.getInventory().getObjectFrame(iv);
+            if (frame != null) {
+                return frame;
+            }
         }
+        return null;
     }
 
-    private void receiveMessage(ObjectMessage objectMessage) {
+    protected void receiveMessage(ObjectMessage objectMessage) {
         requestedObjects.remove(objectMessage.getInventoryVector());
+        announcedObjects.remove(objectMessage.getInventoryVector());
         if (ctx.getInventory().contains(objectMessage)) {
             LOG.trace("Received object " + objectMessage.getInventoryVector() + " - already in inventory");
             return;
@@ -187,35 +261,44 @@ public abstract class AbstractConnection {
     }
 
     private void updateIvCache(List<InventoryVector> inventory) {
-        cleanupIvCache();
-        Long now = UnixTime.now();
-        for (InventoryVector iv : inventory) {
-            ivCache.put(iv, now);
-        }
+        ivCache.addAll(inventory, UnixTime.now());
     }
 
     public void offer(InventoryVector iv) {
-        sendingQueue.offer(new Inv.Builder()
+        updateIvCache(Collections.singletonList(iv));
+        announce(iv);
+    }
+
+    /**
+     * Sends an 'inv' message for the given object. Implementations may override this to announce several objects
+     * at once.
+     */
+    protected void announce(InventoryVector iv) {
+        enqueue(new Inv.Builder()
             .addInventoryVector(iv)
             .build());
-        updateIvCache(Collections.singletonList(iv));
     }
 
+    /**
+     * @return true if the node announced the object, or it was offered to the node, within the last five minutes.
+     * As this is only remembered approximately, it might also return true in rare cases if the node doesn't know of
+     * the object. It's therefore only good enough to decide whether an object needs to be offered to the node, use
+     * {@link #hasAnnounced(InventoryVector)} to decide which node to request an object from.
+     */
     public boolean knowsOf(InventoryVector iv) {
-        return ivCache.containsKey(iv);
+        return ivCache.contains(iv);
     }
 
-    public boolean requested(InventoryVector iv) {
-        return requestedObjects.contains(iv);
+    /**
+     * @return true if the node announced the object within the last five minutes while it was missing from the
+     * inventory, and didn't send it to us yet
+     */
+    public boolean hasAnnounced(InventoryVector iv) {
+        return announcedObjects.containsKey(iv);
     }
 
-    private void cleanupIvCache() {
-        Long fiveMinutesAgo = UnixTime.now(-5 * MINUTE);
-        for (Map.Entry<InventoryVector, Long> entry : ivCache.entrySet()) {
-            if (entry.getValue() < fiveMinutesAgo) {
-                ivCache.remove(entry.getKey());
-            }
-        }
+    public boolean requested(InventoryVector iv) {
+        return requestedObjects.contains(iv);
     }
 
     private void handleCommand(MessagePayload payload) {
@@ -256,13 +339,13 @@ public abstract class AbstractConnection {
 
     private void sendAddresses() {
         List<NetworkAddress> addresses = ctx.getNodeRegistry().getKnownAddresses(1000, streams);
-        sendingQueue.offer(new Addr.Builder().addresses(addresses).build());
+        enqueue(new Addr.Builder().addresses(addresses).build());
     }
 
     private void sendInventory() {
         List<InventoryVector> inventory = ctx.getInventory().getInventory(streams);
         for (int i = 0; i < inventory.size(); i += 50000) {
-            sendingQueue.offer(new Inv.Builder()
+            enqueue(new Inv.Builder()
                 .inventory(inventory.subList(i, Math.min(inventory.size(), i + 50000)))
                 .build());
         }
@@ -307,7 +390,7 @@ public abstract class AbstractConnection {
             LOG.info("Synchronization timed out");
             return true;
         }
-        if (!sendingQueue.isEmpty()) {
+        if (!sendingQueue.isEmpty() || !objectRequests.isEmpty()) {
             syncReadTimeout = System.currentTimeMillis() + 1000;
             return false;
         }
@@ -321,6 +404,8 @@ public abstract class AbstractConnection {
 
     public void disconnect() {
         state = DISCONNECTED;
+        objectRequests.clear();
+        queuedObjectRequests.clear();
 
         // Make sure objects that are still missing are requested from other nodes
         ctx.getNetworkHandler().request(requestedObjects);
@@ -328,6 +413,19 @@ public abstract class AbstractConnection {
 
     protected abstract void send(MessagePayload payload);
 
+    /**
+     * Adds a message to the sending queue. Implementations may override this to be notified of messages to send.
+     */
+    protected void enqueue(MessagePayload payload) {
+        sendingQueue.offer(payload);
+    }
+
+    /**
+     * Called after the node asked for objects. Implementations may override this to be notified of objects to send.
+     */
+    protected void objectsRequested() {
+    }
+
     public enum Mode {SERVER, CLIENT, SYNC}
 
     public enum State {CONNECTING, ACTIVE, DISCONNECTED}
@@ -36,15 +36,19 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.CLIENT;
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SYNC;
 import static ch.dissem.bitmessage.networking.AbstractConnection.State.ACTIVE;
 import static ch.dissem.bitmessage.networking.AbstractConnection.State.DISCONNECTED;
 import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * A connection to a specific node
@@ -58,26 +62,36 @@ class Connection extends AbstractConnection {
     private final Socket socket;
     private final ReaderRunnable reader = new ReaderRunnable();
     private final WriterRunnable writer = new WriterRunnable();
+    /**
+     * Guards the socket while connecting and writing. It's not a monitor, as a virtual thread blocking on I/O
+     * while holding a monitor would also block the platform thread it runs on.
+     */
+    private final Lock lock = new ReentrantLock();
+    /**
+     * Wakes the writer up when there is something to send.
+     */
+    private final Semaphore pending = new Semaphore(0);
 
     private InputStream in;
     private OutputStream out;
     private boolean socketInitialized;
 
     public Connection(InternalContext context, Mode mode, Socket socket,
-                      Map<InventoryVector, Long> requestedObjectsMap) throws IOException {
+                      ConcurrentMap<InventoryVector, Long> requestedObjectsMap) throws IOException {
         this(context, mode, socket, requestedObjectsMap,
             new NetworkAddress.Builder().ip(socket.getInetAddress()).port(socket.getPort()).stream(1).build(),
             0);
     }
 
     public Connection(InternalContext context, Mode mode, NetworkAddress node,
-                      Map<InventoryVector, Long> requestedObjectsMap) {
+                      ConcurrentMap<InventoryVector, Long> requestedObjectsMap) {
         this(context, mode, new Socket(), requestedObjectsMap,
             node, 0);
     }
 
     private Connection(InternalContext context, Mode mode, Socket socket,
-                       Map<InventoryVector, Long> commonRequestedObjects, NetworkAddress node, long syncTimeout) {
+                       ConcurrentMap<InventoryVector, Long> commonRequestedObjects, NetworkAddress node,
+                       long syncTimeout) {
         super(context, mode, node, commonRequestedObjects, syncTimeout);
         this.startTime = UnixTime.now();
         this.socket = socket;
@@ -86,7 +100,7 @@ class Connection extends AbstractConnection {
     public static Connection sync(InternalContext ctx, InetAddress address, int port, MessageListener listener,
                                   long timeoutInSeconds) throws IOException {
         return new Connection(ctx, SYNC, new Socket(address, port),
-            new HashMap<InventoryVector, Long>(),
+            new ConcurrentHashMap<InventoryVector, Long>(),
             new NetworkAddress.Builder().ip(address).port(port).stream(1).build(),
             timeoutInSeconds);
     }
@@ -107,14 +121,28 @@ class Connection extends AbstractConnection {
         return node;
     }
 
+    @Override
+    protected void enqueue(MessagePayload payload) {
+        super.enqueue(payload);
+        pending.release();
+    }
+
+    @Override
+    protected void objectsRequested() {
+        pending.release();
+    }
+
     @Override
     protected void send(MessagePayload payload) {
         try {
             if (payload instanceof GetData) {
                 requestedObjects.addAll(((GetData) payload).getInventory());
             }
-            synchronized (this) {
+            lock.lock();
+            try {
                 new NetworkMessage(payload).write(out);
+            } finally {
+                lock.unlock();
             }
         } catch (IOException e) {
             LOG.error(e.getMessage(), e);
@@ -135,16 +163,21 @@ class Connection extends AbstractConnection {
         return Objects.hash(node);
     }
 
-    private synchronized void initSocket(Socket socket) throws IOException {
-        if (!socketInitialized) {
-            if (!socket.isConnected()) {
-                LOG.trace("Trying to connect to node " + node);
-                socket.connect(new InetSocketAddress(node.toInetAddress(), node.getPort()), CONNECT_TIMEOUT);
+    private void initSocket(Socket socket) throws IOException {
+        lock.lock();
+        try {
+            if (!socketInitialized) {
+                if (!socket.isConnected()) {
+                    LOG.trace("Trying to connect to node " + node);
+                    socket.connect(new InetSocketAddress(node.toInetAddress(), node.getPort()), CONNECT_TIMEOUT);
+                }
+                socket.setSoTimeout(READ_TIMEOUT);
+                in = socket.getInputStream();
+                out = socket.getOutputStream();
+                socketInitialized = true;
             }
-            socket.setSoTimeout(READ_TIMEOUT);
-            in = socket.getInputStream();
-            out = socket.getOutputStream();
-            socketInitialized = true;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -164,14 +197,8 @@ class Connection extends AbstractConnection {
                 if (mode == CLIENT || mode == SYNC) {
                     send(new Version.Builder().defaults(ctx.getClientNonce()).addrFrom(host).addrRecv(node).build());
                 }
+                // reading blocks until the next message arrives or the read times out
                 while (state != DISCONNECTED) {
-                    if (mode != SYNC) {
-                        if (state == ACTIVE && requestedObjects.isEmpty() && sendingQueue.isEmpty()) {
-                            Thread.sleep(1000);
-                        } else {
-                            Thread.sleep(100);
-                        }
-                    }
                     receive();
                 }
             } catch (Exception e) {
@@ -210,10 +237,17 @@ class Connection extends AbstractConnection {
             try (Socket socket = Connection.this.socket) {
                 initSocket(socket);
                 while (state != DISCONNECTED) {
-                    if (sendingQueue.isEmpty()) {
-                        Thread.sleep(1000);
+                    MessagePayload payload = sendingQueue.poll();
+                    if (payload == null) {
+                        payload = nextRequestedObject();
+                    }
+                    if (payload == null) {
+                        if (pending.tryAcquire(1, SECONDS)) {
+                            // everything enqueued so far will be found on the next pass
+                            pending.drainPermits();
+                        }
                     } else {
-                        send(sendingQueue.poll());
+                        send(payload);
                     }
                 }
             } catch (IOException | InterruptedException e) {
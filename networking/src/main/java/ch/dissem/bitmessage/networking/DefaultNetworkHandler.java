@@ -42,23 +42,39 @@ import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
 
 /**
  * Handles all the networky stuff.
+ * <p>
+ * Every connection needs two threads, one reading from and one writing to the socket.
+ * </p>
  *
- * @deprecated use {@link ch.dissem.bitmessage.networking.nio.NioNetworkHandler NioNetworkHandler} instead.
+ * @deprecated use {@link ch.dissem.bitmessage.networking.nio.NioNetworkHandler NioNetworkHandler} instead, or
+ * the VirtualThreadNetworkHandler from the 'networking-virtual' module on JDK 21 and newer.
  */
 @Deprecated
 public class DefaultNetworkHandler implements NetworkHandler, ContextHolder {
 
     final Collection<Connection> connections = new ConcurrentLinkedQueue<>();
-    private final ExecutorService pool = Executors.newCachedThreadPool(
-        pool("network")
-            .lowPrio()
-            .daemon()
-            .build());
+    private final ExecutorService pool;
     private InternalContext ctx;
     private ServerRunnable server;
     private volatile boolean running;
 
-    final Map<InventoryVector, Long> requestedObjects = new ConcurrentHashMap<>(50_000);
+    final ConcurrentMap<InventoryVector, Long> requestedObjects = new ConcurrentHashMap<>(50_000);
+
+    public DefaultNetworkHandler() {
+        this(Executors.newCachedThreadPool(
+            pool("network")
+                .lowPrio()
+                .daemon()
+                .build()));
+    }
+
+    /**
+     * @param pool runs the server, the connection manager, and the reader and writer of each connection. It must
+     *             not limit the number of threads, as they all block for a long time.
+     */
+    protected DefaultNetworkHandler(ExecutorService pool) {
+        this.pool = pool;
+    }
 
     @Override
     public void setContext(InternalContext context) {
@@ -198,45 +214,47 @@ public class DefaultNetworkHandler implements NetworkHandler, ContextHolder {
         );
     }
 
+    /**
+     * Requests each object from a node that announced it, spreading the objects among those nodes. Objects no
+     * connected node announced are left in the collection.
+     */
     @Override
     public void request(Collection<InventoryVector> inventoryVectors) {
         if (!running || inventoryVectors.isEmpty()) return;
 
-        Map<Connection, List<InventoryVector>> distribution = new HashMap<>();
+        List<Connection> active = new ArrayList<>();
         for (Connection connection : connections) {
             if (connection.getState() == ACTIVE) {
-                distribution.put(connection, new LinkedList<InventoryVector>());
+                active.add(connection);
             }
         }
-        Iterator<InventoryVector> iterator = inventoryVectors.iterator();
-        if (!iterator.hasNext()) {
+        if (active.isEmpty()) {
             return;
         }
-        InventoryVector next = iterator.next();
-        Connection previous = null;
-        do {
-            for (Connection connection : distribution.keySet()) {
-                if (connection == previous) {
-                    next = iterator.next();
-                }
-                if (connection.knowsOf(next)) {
+        Map<Connection, List<InventoryVector>> distribution = new HashMap<>();
+        int first = 0;
+        Iterator<InventoryVector> iterator = inventoryVectors.iterator();
+        while (iterator.hasNext()) {
+            InventoryVector next = iterator.next();
+            for (int i = 0; i < active.size(); i++) {
+                Connection connection = active.get((first + i) % active.size());
+                if (connection.hasAnnounced(next)) {
                     List<InventoryVector> ivs = distribution.get(connection);
-                    if (ivs.size() == GetData.MAX_INVENTORY_SIZE) {
+                    if (ivs == null) {
+                        ivs = new LinkedList<>();
+                        distribution.put(connection, ivs);
+                    } else if (ivs.size() == GetData.MAX_INVENTORY_SIZE) {
                         connection.send(new GetData.Builder().inventory(ivs).build());
                         ivs.clear();
                     }
                     ivs.add(next);
                     iterator.remove();
-
-                    if (iterator.hasNext()) {
-                        next = iterator.next();
-                        previous = connection;
-                    } else {
-                        break;
-                    }
+                    // try the next object with the next node first
+                    first = (first + i + 1) % active.size();
+                    break;
                 }
             }
-        } while (iterator.hasNext());
+        }
 
         for (Connection connection : distribution.keySet()) {
             List<InventoryVector> ivs = distribution.get(connection);
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map from keys to the time they were added, which can remove the entries that are older than a
+ * given time without looking at all the others.
+ * <p>
+ * Keys are sorted into buckets covering {@code resolution} time units each, according to the time they're put
+ * with. {@link #expire(long)} only looks at the buckets that are entirely older than the given time, so the
+ * entries in the newest of the expired buckets might be removed one call late. Keys that are removed or put
+ * again with a newer time aren't taken out of their old bucket, but skipped when it expires. Removing
+ * expired entries therefore costs about as much as it cost to put them.
+ * </p>
+ *
+ * @param <K> the type of keys
+ */
+public class ExpiringMap<K> extends AbstractMap<K, Long> implements ConcurrentMap<K, Long> {
+    private final ConcurrentMap<K, Long> map;
+    private final long resolution;
+    private final TreeMap<Long, List<K>> buckets = new TreeMap<>();
+
+    /**
+     * @param resolution time span covered by each bucket, in the same unit as the times put into the map
+     */
+    public ExpiringMap(long resolution) {
+        this(resolution, 16);
+    }
+
+    public ExpiringMap(long resolution, int initialCapacity) {
+        if (resolution < 1) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+        this.map = new ConcurrentHashMap<>(initialCapacity);
+        this.resolution = resolution;
+    }
+
+    @Override
+    public Long get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public Long put(K key, Long time) {
+        Long previous = map.put(key, time);
+        track(key, time);
+        return previous;
+    }
+
+    /**
+     * Puts all keys with the same time, which is cheaper than putting them one by one.
+     */
+    public void putAll(Collection<? extends K> keys, long time) {
+        for (K key : keys) {
+            map.put(key, time);
+        }
+        synchronized (buckets) {
+            bucket(time).addAll(keys);
+        }
+    }
+
+    @Override
+    public Long putIfAbsent(K key, Long time) {
+        Long previous = map.putIfAbsent(key, time);
+        if (previous == null) {
+            track(key, time);
+        }
+        return previous;
+    }
+
+    @Override
+    public Long replace(K key, Long time) {
+        Long previous = map.replace(key, time);
+        if (previous != null) {
+            track(key, time);
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean replace(K key, Long oldTime, Long newTime) {
+        if (map.replace(key, oldTime, newTime)) {
+            track(key, newTime);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Long remove(Object key) {
+        return map.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object time) {
+        return map.remove(key, time);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (buckets) {
+            map.clear();
+            buckets.clear();
+        }
+    }
+
+    @Override
+    public Set<Entry<K, Long>> entrySet() {
+        return Collections.unmodifiableMap(map).entrySet();
+    }
+
+    /**
+     * Removes entries that were put before the given time. Entries in the same bucket as {@code time} are kept
+     * until the next call.
+     *
+     * @return the keys that were removed
+     */
+    public List<K> expire(long time) {
+        List<K> expired = new ArrayList<>();
+        long limit = bucketIndex(time);
+        while (true) {
+            List<K> keys;
+            synchronized (buckets) {
+                Entry<Long, List<K>> oldest = buckets.firstEntry();
+                if (oldest == null || oldest.getKey() >= limit) {
+                    return expired;
+                }
+                keys = buckets.pollFirstEntry().getValue();
+            }
+            for (K key : keys) {
+                Long current = map.get(key);
+                // keys that were put again are in a newer bucket as well
+                if (current != null && current < time && map.remove(key, current)) {
+                    expired.add(key);
+                }
+            }
+        }
+    }
+
+    private void track(K key, long time) {
+        synchronized (buckets) {
+            bucket(time).add(key);
+        }
+    }
+
+    private List<K> bucket(long time) {
+        long index = bucketIndex(time);
+        List<K> bucket = buckets.get(index);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets.put(index, bucket);
+        }
+        return bucket;
+    }
+
+    private long bucketIndex(long time) {
+        long index = time / resolution;
+        // round down for negative times, too
+        return time < 0 && index * resolution != time ? index - 1 : index;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Remembers which objects a node knows of, using a fixed amount of memory.
+ * <p>
+ * Two Bloom filters take turns: inventory vectors are added to the current one, and looked up in both. Once the
+ * current filter is full or older than {@code maxAge}, the previous one is cleared and becomes the current one.
+ * So inventory vectors are remembered for at least {@code maxAge}, unless more are added than a filter can hold.
+ * </p><p>
+ * {@link #contains(InventoryVector)} claims an inventory vector was added although it wasn't in up to about 2% of
+ * the cases, so the filter may only be used where that doesn't matter, e.g. to decide which nodes to offer an
+ * object to.
+ * </p>
+ */
+class InventoryFilter {
+    static final int MAX_SIZE = 256 * 1024 * 1024;
+    private static final int HASH_FUNCTIONS = 7;
+    private static final int BITS_PER_ENTRY = 10;
+    private static final Random RANDOM = new Random();
+
+    private final long maxAge;
+    private final int bits;
+    private final int capacity;
+    /**
+     * Inventory vectors are hashed with a random seed, so nobody can announce inventory vectors that are known to
+     * collide with the ones of other nodes.
+     */
+    private final long seed = RANDOM.nextLong();
+
+    private long[] current;
+    private long[] previous;
+    private int count;
+    private long currentSince = -1;
+
+    /**
+     * @param bytes  memory used by both filters together
+     * @param maxAge in seconds
+     */
+    InventoryFilter(int bytes, long maxAge) {
+        if (bytes < 16 || bytes > MAX_SIZE) {
+            throw new IllegalArgumentException("The filter needs between 16 and " + MAX_SIZE + " bytes");
+        }
+        int words = bytes / 16;
+        this.current = new long[words];
+        this.previous = new long[words];
+        this.bits = words * 64;
+        this.capacity = Math.max(1, bits / BITS_PER_ENTRY);
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param time the current time in seconds
+     */
+    synchronized void addAll(Collection<InventoryVector> inventory, long time) {
+        if (currentSince < 0) {
+            currentSince = time;
+        } else if (time - currentSince >= 2 * maxAge) {
+            rotate(time);
+            rotate(time);
+        } else if (time - currentSince >= maxAge) {
+            rotate(time);
+        }
+        for (InventoryVector iv : inventory) {
+            if (count >= capacity) {
+                rotate(time);
+            }
+            long h1 = hash(iv.getHash(), seed);
+            long h2 = hash(iv.getHash(), ~seed) | 1;
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = index(h1 + i * h2);
+                current[bit >>> 6] |= 1L << bit;
+            }
+            count++;
+        }
+    }
+
+    synchronized boolean contains(InventoryVector iv) {
+        long h1 = hash(iv.getHash(), seed);
+        long h2 = hash(iv.getHash(), ~seed) | 1;
+        return contains(current, h1, h2) || contains(previous, h1, h2);
+    }
+
+    private boolean contains(long[] filter, long h1, long h2) {
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = index(h1 + i * h2);
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rotate(long time) {
+        long[] cleared = previous;
+        Arrays.fill(cleared, 0);
+        previous = current;
+        current = cleared;
+        count = 0;
+        currentSince = time;
+    }
+
+    private int index(long hash) {
+        return (int) ((hash >>> 1) % bits);
+    }
+
+    private static long hash(byte[] bytes, long seed) {
+        long h = seed;
+        long word = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            word = word << 8 | (bytes[i] & 0xff);
+            if ((i & 7) == 7 || i == bytes.length - 1) {
+                h = mix(h + 0x9e3779b97f4a7c15L ^ word);
+                word = 0;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Finalizer of SplitMix64, so every bit of the input affects every bit of the result.
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -25,6 +25,8 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SERVER;
 
@@ -38,6 +40,7 @@ public class ServerRunnable implements Runnable, Closeable {
     private final ServerSocket serverSocket;
     private final DefaultNetworkHandler networkHandler;
     private final NetworkHandler.MessageListener listener;
+    private final CountDownLatch stopped = new CountDownLatch(1);
 
     public ServerRunnable(InternalContext ctx, DefaultNetworkHandler networkHandler) throws IOException {
         this.ctx = ctx;
@@ -48,23 +51,35 @@ public class ServerRunnable implements Runnable, Closeable {
 
     @Override
     public void run() {
-        while (!serverSocket.isClosed()) {
-            try {
-                Socket socket = serverSocket.accept();
-                socket.setSoTimeout(Connection.READ_TIMEOUT);
-                networkHandler.startConnection(new Connection(ctx, SERVER, socket, networkHandler.requestedObjects));
-            } catch (IOException e) {
-                LOG.debug(e.getMessage(), e);
+        try {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setSoTimeout(Connection.READ_TIMEOUT);
+                    networkHandler.startConnection(
+                        new Connection(ctx, SERVER, socket, networkHandler.requestedObjects));
+                } catch (IOException e) {
+                    LOG.debug(e.getMessage(), e);
+                }
             }
+        } finally {
+            stopped.countDown();
         }
     }
 
+    /**
+     * Closes the server socket and waits for the server to stop accepting connections. The port might not be
+     * released before, e.g. when accepting on a virtual thread.
+     */
     @Override
     public void close() {
         try {
             serverSocket.close();
+            stopped.await(1, TimeUnit.SECONDS);
         } catch (IOException e) {
             LOG.debug(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
@@ -18,8 +18,11 @@ package ch.dissem.bitmessage.networking.nio;
 
 import ch.dissem.bitmessage.InternalContext;
 import ch.dissem.bitmessage.entity.GetData;
+import ch.dissem.bitmessage.entity.Inv;
 import ch.dissem.bitmessage.entity.MessagePayload;
 import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectFrame;
+import ch.dissem.bitmessage.entity.ObjectMessage;
 import ch.dissem.bitmessage.entity.Version;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
@@ -30,7 +33,12 @@ import ch.dissem.bitmessage.utils.UnixTime;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static ch.dissem.bitmessage.factory.BufferPool.bufferPool;
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.CLIENT;
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SYNC;
 
@@ -38,16 +46,74 @@ import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SYNC;
  * Represents the current state of a connection.
  */
 public class ConnectionInfo extends AbstractConnection {
-    private final ByteBuffer headerOut = ByteBuffer.allocate(24);
-    private ByteBuffer payloadOut;
+    /**
+     * Default for {@link #setWriteBudget(int)}.
+     */
+    public static final int DEFAULT_WRITE_BUDGET = 64 * 1024;
+
+    /**
+     * Headers and payloads of the messages that are being written, in order.
+     */
+    private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+    private int writeBudget = DEFAULT_WRITE_BUDGET;
+
+    /**
+     * Objects to be announced with the next 'inv' message.
+     */
+    private final List<InventoryVector> announcements = new ArrayList<>();
+    private long announcementDeadline;
+    private long announcementWindow;
+    private int announcementThreshold = 1;
+    private InvBatchStatistics announcementStatistics;
+    private volatile Runnable announcementListener;
     private V3MessageReader reader = new V3MessageReader();
     private boolean syncFinished;
     private long lastUpdate = System.currentTimeMillis();
 
+    private final ObjectPipeline pipeline;
+    private RequestScheduler requestScheduler;
+    /**
+     * Objects received from this node that are still in the pipeline.
+     */
+    final AtomicInteger pendingObjects = new AtomicInteger();
+    /**
+     * Objects that were received while the pipeline was full. Reading is paused until they could be submitted.
+     */
+    private final Queue<ObjectMessage> unsubmittedObjects = new ArrayDeque<>();
+
+    /**
+     * Set while the connection waits for its selector loop to notice there's something to write.
+     */
+    final AtomicBoolean writeScheduled = new AtomicBoolean();
+    /**
+     * Set once the connection stopped counting towards the load of its selector loop.
+     */
+    final AtomicBoolean released = new AtomicBoolean();
+    private volatile Runnable writeListener;
+
+    public ConnectionInfo(InternalContext context, Mode mode, NetworkAddress node,
+                          ConcurrentMap<InventoryVector, Long> commonRequestedObjects, long syncTimeout) {
+        this(context, mode, node, commonRequestedObjects, syncTimeout, null);
+    }
+
+    /**
+     * @param pipeline processes received objects, or null if they should be processed right away
+     */
+    public ConnectionInfo(InternalContext context, Mode mode, NetworkAddress node,
+                          ConcurrentMap<InventoryVector, Long> commonRequestedObjects, long syncTimeout,
+                          ObjectPipeline pipeline) {
+        this(context, mode, node, commonRequestedObjects, syncTimeout, pipeline, DEFAULT_INVENTORY_FILTER_SIZE);
+    }
+
+    /**
+     * @param pipeline            processes received objects, or null if they should be processed right away
+     * @param inventoryFilterSize how much memory is used to remember which objects the node knows of, in bytes
+     */
     public ConnectionInfo(InternalContext context, Mode mode, NetworkAddress node,
-                          Map<InventoryVector, Long> commonRequestedObjects, long syncTimeout) {
-        super(context, mode, node, commonRequestedObjects, syncTimeout);
-        headerOut.flip();
+                          ConcurrentMap<InventoryVector, Long> commonRequestedObjects, long syncTimeout,
+                          ObjectPipeline pipeline, int inventoryFilterSize) {
+        super(context, mode, node, commonRequestedObjects, syncTimeout, inventoryFilterSize);
+        this.pipeline = pipeline;
         if (mode == CLIENT || mode == SYNC) {
             send(new Version.Builder().defaults(ctx.getClientNonce()).addrFrom(host).addrRecv(node).build());
         }
@@ -57,14 +123,110 @@ public class ConnectionInfo extends AbstractConnection {
         return state;
     }
 
-    public boolean knowsOf(InventoryVector iv) {
-        return ivCache.containsKey(iv);
-    }
-
     public Queue<MessagePayload> getSendingQueue() {
         return sendingQueue;
     }
 
+    /**
+     * @param writeListener is called whenever a message is added to the sending queue, from whatever thread
+     *                      added it, unless a notification is still pending
+     */
+    void setWriteListener(Runnable writeListener) {
+        this.writeListener = writeListener;
+        if (isWritePending()) {
+            notifyWriteListener();
+        }
+    }
+
+    @Override
+    protected void enqueue(MessagePayload payload) {
+        super.enqueue(payload);
+        notifyWriteListener();
+    }
+
+    @Override
+    protected void objectsRequested() {
+        notifyWriteListener();
+    }
+
+    /**
+     * Collects objects to announce, so they can be sent in a single 'inv' message.
+     *
+     * @param window     how long an object may wait to be announced, in milliseconds. If 0, every object is
+     *                   announced right away.
+     * @param threshold  number of objects that are announced right away, without waiting for the window to pass
+     * @param statistics records the size of each 'inv' message sent
+     * @param listener   is called when the first object is added to an empty batch, and must make sure
+     *                   {@link #flushAnnouncements(long)} is called when the window passed
+     */
+    void setAnnouncementBatching(long window, int threshold, InvBatchStatistics statistics, Runnable listener) {
+        synchronized (announcements) {
+            this.announcementWindow = window;
+            this.announcementThreshold = Math.max(1, Math.min(threshold, GetData.MAX_INVENTORY_SIZE));
+            this.announcementStatistics = statistics;
+            this.announcementListener = listener;
+        }
+    }
+
+    @Override
+    protected void announce(InventoryVector iv) {
+        Inv inv = null;
+        boolean first;
+        synchronized (announcements) {
+            announcements.add(iv);
+            first = announcements.size() == 1;
+            if (announcementWindow == 0 || announcements.size() >= announcementThreshold) {
+                inv = takeAnnouncements();
+            } else if (first) {
+                announcementDeadline = System.currentTimeMillis() + announcementWindow;
+            }
+        }
+        if (inv != null) {
+            enqueue(inv);
+        } else if (first) {
+            Runnable listener = announcementListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Sends the collected announcements if the window passed.
+     *
+     * @return the milliseconds until the window passes, or 0 if there is nothing left to announce
+     */
+    long flushAnnouncements(long now) {
+        Inv inv;
+        synchronized (announcements) {
+            if (announcements.isEmpty()) {
+                return 0;
+            }
+            if (now < announcementDeadline) {
+                return announcementDeadline - now;
+            }
+            inv = takeAnnouncements();
+        }
+        enqueue(inv);
+        return 0;
+    }
+
+    private Inv takeAnnouncements() {
+        Inv inv = new Inv.Builder().inventory(new ArrayList<>(announcements)).build();
+        if (announcementStatistics != null) {
+            announcementStatistics.record(announcements.size());
+        }
+        announcements.clear();
+        return inv;
+    }
+
+    private void notifyWriteListener() {
+        Runnable listener = writeListener;
+        if (listener != null && writeScheduled.compareAndSet(false, true)) {
+            listener.run();
+        }
+    }
+
     public ByteBuffer getInBuffer() {
         if (reader == null) {
             throw new NodeException("Node is disconnected");
@@ -72,23 +234,77 @@ public class ConnectionInfo extends AbstractConnection {
         return reader.getActiveBuffer();
     }
 
+    /**
+     * @param writeBudget messages are taken from the sending queue until this many bytes are ready to be written,
+     *                    so they can be written at once. At least one message is always taken. This also limits
+     *                    how many of the objects the node asked for are held in memory.
+     */
+    void setWriteBudget(int writeBudget) {
+        if (writeBudget < 1) {
+            throw new IllegalArgumentException("Write budget must be positive");
+        }
+        this.writeBudget = writeBudget;
+    }
+
+    /**
+     * @param requestScheduler decides which node missing objects are requested from. If not set, objects are
+     *                         requested from the first node that announces them.
+     */
+    void setRequestScheduler(RequestScheduler requestScheduler) {
+        this.requestScheduler = requestScheduler;
+    }
+
     public void updateWriter() {
-        if (!headerOut.hasRemaining() && !sendingQueue.isEmpty()) {
-            headerOut.clear();
+        long bytes = 0;
+        for (ByteBuffer buffer : out) {
+            bytes += buffer.remaining();
+        }
+        while (bytes < writeBudget) {
             MessagePayload payload = sendingQueue.poll();
-            payloadOut = new NetworkMessage(payload).writeHeaderAndGetPayloadBuffer(headerOut);
-            headerOut.flip();
+            if (payload == null) {
+                // requested objects are only loaded if there is room for them
+                payload = nextRequestedObject();
+            }
+            if (payload == null) {
+                break;
+            }
+            ByteBuffer buffer;
+            if (payload instanceof ObjectFrame) {
+                buffer = ((ObjectFrame) payload).getBuffer();
+            } else {
+                // serialized in place, header included, so the channel can write it without another copy
+                NetworkMessage message = new NetworkMessage(payload);
+                buffer = bufferPool.allocate(message.getSerializedSize());
+                message.write(buffer);
+                buffer.flip();
+            }
+            out.add(buffer);
+            bytes += buffer.remaining();
             lastUpdate = System.currentTimeMillis();
         }
     }
 
+    /**
+     * @return the buffers to be written with a single gathering write
+     */
     public ByteBuffer[] getOutBuffers() {
-        return new ByteBuffer[]{headerOut, payloadOut};
+        return out.toArray(new ByteBuffer[out.size()]);
     }
 
+    /**
+     * Removes the buffers that were written completely.
+     */
     public void cleanupBuffers() {
-        if (payloadOut != null && !payloadOut.hasRemaining()) {
-            payloadOut = null;
+        ByteBuffer buffer;
+        while ((buffer = out.peek()) != null && !buffer.hasRemaining()) {
+            release(out.poll());
+        }
+    }
+
+    private static void release(ByteBuffer buffer) {
+        // object frames are sent from their heap array, only the direct buffers come from the pool
+        if (buffer.isDirect()) {
+            bufferPool.deallocate(buffer);
         }
     }
 
@@ -107,6 +323,50 @@ public class ConnectionInfo extends AbstractConnection {
         lastUpdate = System.currentTimeMillis();
     }
 
+    @Override
+    protected void requestMissing(List<InventoryVector> missing) {
+        if (requestScheduler == null) {
+            super.requestMissing(missing);
+        } else {
+            requestScheduler.announced(this, missing);
+        }
+    }
+
+    @Override
+    protected void receiveMessage(ObjectMessage objectMessage) {
+        if (requestScheduler != null) {
+            requestScheduler.received(objectMessage.getInventoryVector());
+        }
+        if (pipeline == null) {
+            super.receiveMessage(objectMessage);
+        } else {
+            requestedObjects.remove(objectMessage.getInventoryVector());
+            // objects must be submitted in order, and the selector thread must never wait for the pipeline
+            if (!unsubmittedObjects.isEmpty() || !pipeline.submit(this, objectMessage)) {
+                unsubmittedObjects.offer(objectMessage);
+            }
+        }
+    }
+
+    /**
+     * Submits the objects that didn't fit into the pipeline before, if there's room now.
+     *
+     * @return false if reading from this connection should be paused until the object pipeline caught up
+     */
+    public boolean isReadable() {
+        if (pipeline == null) {
+            return true;
+        }
+        ObjectMessage object;
+        while ((object = unsubmittedObjects.peek()) != null) {
+            if (!pipeline.submit(this, object)) {
+                return false;
+            }
+            unsubmittedObjects.poll();
+        }
+        return !pipeline.isBusy(this);
+    }
+
     public void updateSyncStatus() {
         if (!syncFinished) {
             syncFinished = (reader == null || reader.getMessages().isEmpty()) && syncFinished(null);
@@ -130,12 +390,22 @@ public class ConnectionInfo extends AbstractConnection {
 
     @Override
     public void disconnect() {
+        if (requestScheduler != null) {
+            // the objects still missing are already requested from other nodes
+            state = State.DISCONNECTED;
+            requestScheduler.disconnected(this);
+            requestedObjects.clear();
+        }
         super.disconnect();
+        unsubmittedObjects.clear();
         if (reader != null) {
             reader.cleanup();
             reader = null;
         }
-        payloadOut = null;
+        ByteBuffer buffer;
+        while ((buffer = out.poll()) != null) {
+            release(buffer);
+        }
     }
 
     public boolean isSyncFinished() {
@@ -144,7 +414,7 @@ public class ConnectionInfo extends AbstractConnection {
 
     @Override
     protected void send(MessagePayload payload) {
-        sendingQueue.add(payload);
+        enqueue(payload);
         if (payload instanceof GetData) {
             Long now = UnixTime.now();
             List<InventoryVector> inventory = ((GetData) payload).getInventory();
@@ -156,8 +426,6 @@ public class ConnectionInfo extends AbstractConnection {
     }
 
     public boolean isWritePending() {
-        return !sendingQueue.isEmpty()
-            || headerOut != null && headerOut.hasRemaining()
-            || payloadOut != null && payloadOut.hasRemaining();
+        return !sendingQueue.isEmpty() || !objectRequests.isEmpty() || !out.isEmpty();
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.utils.Property;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the 'inv' messages sent to announce objects, and how many objects they contained.
+ */
+class InvBatchStatistics {
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong inventoryVectors = new AtomicLong();
+    private final AtomicInteger largest = new AtomicInteger();
+
+    void record(int size) {
+        batches.incrementAndGet();
+        inventoryVectors.addAndGet(size);
+        int current;
+        while (size > (current = largest.get()) && !largest.compareAndSet(current, size)) {
+            // try again
+        }
+    }
+
+    long getBatches() {
+        return batches.get();
+    }
+
+    long getInventoryVectors() {
+        return inventoryVectors.get();
+    }
+
+    Property getStatus() {
+        long batches = this.batches.get();
+        long inventoryVectors = this.inventoryVectors.get();
+        return new Property("announcements", null,
+            new Property("batches", batches),
+            new Property("inventoryVectors", inventoryVectors),
+            new Property("averageBatchSize", batches == 0 ? 0 : (double) inventoryVectors / batches),
+            new Property("largestBatch", largest.get())
+        );
+    }
+}
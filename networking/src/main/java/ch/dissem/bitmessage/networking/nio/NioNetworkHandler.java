@@ -25,8 +25,11 @@ import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
 import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.exception.NodeException;
 import ch.dissem.bitmessage.factory.V3MessageReader;
+import ch.dissem.bitmessage.networking.AbstractConnection;
+import ch.dissem.bitmessage.networking.ExpiringMap;
 import ch.dissem.bitmessage.ports.NetworkHandler;
 import ch.dissem.bitmessage.utils.Property;
+import ch.dissem.bitmessage.utils.UnixTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,22 +41,32 @@ import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static ch.dissem.bitmessage.factory.BufferPool.bufferPool;
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.*;
 import static ch.dissem.bitmessage.networking.AbstractConnection.State.ACTIVE;
 import static ch.dissem.bitmessage.networking.AbstractConnection.State.DISCONNECTED;
 import static ch.dissem.bitmessage.utils.Collections.selectRandom;
 import static ch.dissem.bitmessage.utils.DebugUtils.inc;
 import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
+import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
 import static java.nio.channels.SelectionKey.*;
 
 /**
  * Network handler using java.nio, resulting in less threads.
+ * <p>
+ * Connections are spread over several selector loops, by default one per CPU core, each new connection going to
+ * the loop with the fewest connections. Incoming connections are accepted by a separate thread.
+ * </p>
  */
 public class NioNetworkHandler implements NetworkHandler, InternalContext.ContextHolder {
     private static final Logger LOG = LoggerFactory.getLogger(NioNetworkHandler.class);
-    private static final long REQUESTED_OBJECTS_MAX_TIME = 2 * 60_000; // 2 minutes
-    private static final Long DELAYED = Long.MIN_VALUE;
+    private static final long REQUESTED_OBJECTS_MAX_TIME = 2 * MINUTE;
+    public static final long DEFAULT_ANNOUNCEMENT_WINDOW = 200;
+    public static final int DEFAULT_ANNOUNCEMENT_THRESHOLD = 1000;
+    public static final int DEFAULT_MAX_OBJECTS_IN_FLIGHT = 1000;
 
     private final ExecutorService threadPool = Executors.newCachedThreadPool(
         pool("network")
@@ -61,14 +74,116 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
             .daemon()
             .build());
 
+    private final ObjectPipeline.Builder pipelineBuilder;
+
     private InternalContext ctx;
-    private Selector selector;
+    private ObjectPipeline pipeline;
+    private final int numberOfSelectors;
+    private List<SelectorLoop> loops = Collections.emptyList();
     private ServerSocketChannel serverChannel;
-    private Queue<NetworkAddress> connectionQueue = new ConcurrentLinkedQueue<>();
     private Map<ConnectionInfo, SelectionKey> connections = new ConcurrentHashMap<>();
-    private final Map<InventoryVector, Long> requestedObjects = new ConcurrentHashMap<>(10_000);
+    private final ExpiringMap<InventoryVector> requestedObjects = new ExpiringMap<>(10, 10_000);
+    private RequestScheduler requestScheduler;
 
     private Thread starter;
+    private volatile int writeBudget = ConnectionInfo.DEFAULT_WRITE_BUDGET;
+    private volatile long announcementWindow = DEFAULT_ANNOUNCEMENT_WINDOW;
+    private volatile int announcementThreshold = DEFAULT_ANNOUNCEMENT_THRESHOLD;
+    private final InvBatchStatistics announcementStatistics = new InvBatchStatistics();
+    private volatile int maxObjectsInFlight = DEFAULT_MAX_OBJECTS_IN_FLIGHT;
+    private volatile int inventoryFilterSize = AbstractConnection.DEFAULT_INVENTORY_FILTER_SIZE;
+
+    public NioNetworkHandler() {
+        this(new ObjectPipeline.Builder());
+    }
+
+    /**
+     * @param numberOfSelectors number of threads driving the connections, each with its own selector
+     */
+    public NioNetworkHandler(int numberOfSelectors) {
+        this(numberOfSelectors, new ObjectPipeline.Builder());
+    }
+
+    /**
+     * @param pipeline configures the stages processing received objects
+     */
+    public NioNetworkHandler(ObjectPipeline.Builder pipeline) {
+        this(Runtime.getRuntime().availableProcessors(), pipeline);
+    }
+
+    /**
+     * @param numberOfSelectors number of threads driving the connections, each with its own selector
+     * @param pipeline          configures the stages processing received objects
+     */
+    public NioNetworkHandler(int numberOfSelectors, ObjectPipeline.Builder pipeline) {
+        if (numberOfSelectors < 1) {
+            throw new IllegalArgumentException("At least one selector is needed");
+        }
+        this.numberOfSelectors = numberOfSelectors;
+        this.pipelineBuilder = pipeline;
+    }
+
+    /**
+     * Sets how many bytes of queued messages are collected for a single write to a connection. Only affects
+     * connections established afterwards.
+     *
+     * @param bytes the write budget, {@link ConnectionInfo#DEFAULT_WRITE_BUDGET} by default
+     */
+    public void setWriteBudget(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Write budget must be positive");
+        }
+        this.writeBudget = bytes;
+    }
+
+    /**
+     * Objects offered to other nodes are collected for each connection and announced with a single 'inv' message
+     * when either the window passed or enough objects were collected. Only affects connections established
+     * afterwards.
+     *
+     * @param window    in milliseconds, {@link #DEFAULT_ANNOUNCEMENT_WINDOW} by default. If 0, every object is
+     *                  announced right away.
+     * @param threshold number of objects announced without waiting for the window to pass,
+     *                  {@link #DEFAULT_ANNOUNCEMENT_THRESHOLD} by default
+     */
+    public void setAnnouncementBatching(long window, int threshold) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Window must not be negative");
+        }
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+        this.announcementWindow = window;
+        this.announcementThreshold = threshold;
+    }
+
+    /**
+     * Limits how many objects are requested from a single node at a time. Objects announced by a busy node are
+     * requested from another node that announced them, or once the node delivered some of the objects it owes.
+     * Takes effect when the network handler is started.
+     *
+     * @param maxObjectsInFlight {@link #DEFAULT_MAX_OBJECTS_IN_FLIGHT} by default
+     */
+    public void setMaxObjectsInFlight(int maxObjectsInFlight) {
+        if (maxObjectsInFlight < 1 || maxObjectsInFlight > GetData.MAX_INVENTORY_SIZE) {
+            throw new IllegalArgumentException("Objects in flight must be between 1 and " + GetData.MAX_INVENTORY_SIZE);
+        }
+        this.maxObjectsInFlight = maxObjectsInFlight;
+    }
+
+    /**
+     * Sets how much memory each connection uses to remember which objects the node knows of, so they aren't
+     * offered to it. If a node announces more objects in five minutes than fit, the oldest are forgotten early.
+     * Only affects connections established afterwards.
+     *
+     * @param bytes {@link AbstractConnection#DEFAULT_INVENTORY_FILTER_SIZE} by default
+     */
+    public void setInventoryFilterSize(int bytes) {
+        if (bytes < 16) {
+            throw new IllegalArgumentException("The inventory filter needs at least 16 bytes");
+        }
+        this.inventoryFilterSize = bytes;
+    }
 
     @Override
     public Future<Void> synchronize(final InetAddress server, final int port, final long timeoutInSeconds) {
@@ -79,7 +194,8 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
                     channel.configureBlocking(false);
                     ConnectionInfo connection = new ConnectionInfo(ctx, SYNC,
                         new NetworkAddress.Builder().ip(server).port(port).stream(1).build(),
-                        new HashMap<InventoryVector, Long>(), timeoutInSeconds);
+                        new ConcurrentHashMap<InventoryVector, Long>(), timeoutInSeconds, null, inventoryFilterSize);
+                    connection.setWriteBudget(writeBudget);
                     while (channel.isConnected() && !connection.isSyncFinished()) {
                         write(channel, connection);
                         read(channel, connection);
@@ -96,23 +212,25 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
     public CustomMessage send(InetAddress server, int port, CustomMessage request) {
         try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(server, port))) {
             channel.configureBlocking(true);
-            ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
-            ByteBuffer payloadBuffer = new NetworkMessage(request).writeHeaderAndGetPayloadBuffer(headerBuffer);
-            headerBuffer.flip();
-            while (headerBuffer.hasRemaining()) {
-                channel.write(headerBuffer);
-            }
-            while (payloadBuffer.hasRemaining()) {
-                channel.write(payloadBuffer);
+            NetworkMessage message = new NetworkMessage(request);
+            ByteBuffer buffer = ByteBuffer.allocate(message.getSerializedSize());
+            message.write(buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
             }
 
             V3MessageReader reader = new V3MessageReader();
-            while (channel.isConnected() && reader.getMessages().isEmpty()) {
-                if (channel.read(reader.getActiveBuffer()) > 0) {
-                    reader.update();
-                } else {
-                    throw new NodeException("No response from node " + server);
+            try {
+                while (channel.isConnected() && reader.getMessages().isEmpty()) {
+                    if (channel.read(reader.getActiveBuffer()) > 0) {
+                        reader.update();
+                    } else {
+                        throw new NodeException("No response from node " + server);
+                    }
                 }
+            } finally {
+                reader.cleanup();
             }
             NetworkMessage networkMessage;
             if (reader.getMessages().isEmpty()) {
@@ -138,20 +256,35 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
 
     @Override
     public void start() {
-        if (selector != null && selector.isOpen()) {
+        if (isRunning()) {
             throw new IllegalStateException("Network already running - you need to stop first.");
         }
+        requestedObjects.clear();
+        requestScheduler = new RequestScheduler(requestedObjects, maxObjectsInFlight);
         try {
-            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().bind(new InetSocketAddress(ctx.getPort()));
+            List<SelectorLoop> loops = new ArrayList<>(numberOfSelectors);
+            for (int i = 0; i < numberOfSelectors; i++) {
+                loops.add(new SelectorLoop(i));
+            }
+            this.loops = loops;
         } catch (IOException e) {
             throw new ApplicationException(e);
         }
-        requestedObjects.clear();
+        pipeline = pipelineBuilder.build(ctx, requestedObjects, new Runnable() {
+            @Override
+            public void run() {
+                for (SelectorLoop loop : loops) {
+                    loop.resumeReading();
+                }
+            }
+        });
 
         starter = thread("connection manager", new Runnable() {
             @Override
             public void run() {
-                while (selector.isOpen()) {
+                while (isRunning()) {
                     int missing = NETWORK_MAGIC_NUMBER;
                     for (ConnectionInfo connectionInfo : connections.keySet()) {
                         if (connectionInfo.getState() == ACTIVE) {
@@ -164,7 +297,7 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
                         addresses = selectRandom(missing, addresses);
                         for (NetworkAddress address : addresses) {
                             if (!isConnectedTo(address)) {
-                                connectionQueue.offer(address);
+                                connect(address);
                             }
                         }
                     }
@@ -181,6 +314,7 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
                             e.getValue().attach(null);
                             e.getKey().disconnect();
                             it.remove();
+                            release(e.getValue(), e.getKey());
                         }
                     }
 
@@ -189,20 +323,8 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
                     // never downloaded. To prevent a large list of failed objects and give
                     // them a chance to get downloaded again, we will attempt to download an
                     // object from another node after some time out.
-                    long timedOut = System.currentTimeMillis() - REQUESTED_OBJECTS_MAX_TIME;
-                    List<InventoryVector> delayed = new LinkedList<>();
-                    Iterator<Map.Entry<InventoryVector, Long>> iterator = requestedObjects.entrySet().iterator();
-                    while (iterator.hasNext()) {
-                        Map.Entry<InventoryVector, Long> e = iterator.next();
-                        //noinspection NumberEquality
-                        if (e.getValue() == DELAYED) {
-                            iterator.remove();
-                        } else if (e.getValue() < timedOut) {
-                            delayed.add(e.getKey());
-                            e.setValue(DELAYED);
-                        }
-                    }
-                    request(delayed);
+                    request(requestedObjects.expire(UnixTime.now(-REQUESTED_OBJECTS_MAX_TIME)));
+                    requestScheduler.expire(UnixTime.now(-REQUESTED_OBJECTS_MAX_TIME));
 
                     try {
                         Thread.sleep(30_000);
@@ -212,145 +334,331 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
                 }
             }
         });
+        // the starter must be assigned before it runs, as isRunning() depends on it
+        starter.start();
 
-        thread("selector worker", new Runnable() {
+        thread("acceptor", new Runnable() {
             @Override
             public void run() {
-                try {
-                    serverChannel = ServerSocketChannel.open();
-                    serverChannel.configureBlocking(false);
-                    serverChannel.socket().bind(new InetSocketAddress(ctx.getPort()));
-                    serverChannel.register(selector, OP_ACCEPT, null);
-
-                    while (selector.isOpen()) {
-                        selector.select(1000);
-                        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
-                        while (keyIterator.hasNext()) {
-                            SelectionKey key = keyIterator.next();
-                            keyIterator.remove();
-                            if (key.attachment() == null) {
-                                try {
-                                    if (key.isAcceptable()) {
-                                        // handle accept
-                                        try {
-                                            SocketChannel accepted = ((ServerSocketChannel) key.channel()).accept();
-                                            accepted.configureBlocking(false);
-                                            ConnectionInfo connection = new ConnectionInfo(ctx, SERVER,
-                                                new NetworkAddress.Builder()
-                                                    .ip(accepted.socket().getInetAddress())
-                                                    .port(accepted.socket().getPort())
-                                                    .stream(1)
-                                                    .build(),
-                                                requestedObjects, 0
-                                            );
-                                            connections.put(
-                                                connection,
-                                                accepted.register(selector, OP_READ | OP_WRITE, connection)
-                                            );
-                                        } catch (AsynchronousCloseException e) {
-                                            LOG.trace(e.getMessage());
-                                        } catch (IOException e) {
-                                            LOG.error(e.getMessage(), e);
-                                        }
-                                    }
-                                } catch (CancelledKeyException e) {
-                                    LOG.error(e.getMessage(), e);
-                                }
-                            } else {
-                                // handle read/write
-                                SocketChannel channel = (SocketChannel) key.channel();
-                                ConnectionInfo connection = (ConnectionInfo) key.attachment();
-                                try {
-                                    if (key.isConnectable()) {
-                                        if (!channel.finishConnect()) {
-                                            continue;
-                                        }
-                                    }
-                                    if (key.isWritable()) {
-                                        write(channel, connection);
-                                    }
-                                    if (key.isReadable()) {
-                                        read(channel, connection);
-                                    }
-                                    if (connection.getState() == DISCONNECTED) {
-                                        key.interestOps(0);
-                                        channel.close();
-                                    } else if (connection.isWritePending()) {
-                                        key.interestOps(OP_READ | OP_WRITE);
-                                    } else {
-                                        key.interestOps(OP_READ);
-                                    }
-                                } catch (CancelledKeyException | NodeException | IOException e) {
-                                    connection.disconnect();
-                                }
+                while (serverChannel.isOpen()) {
+                    SocketChannel accepted = null;
+                    try {
+                        accepted = serverChannel.accept();
+                        accepted.configureBlocking(false);
+                        ConnectionInfo connection = new ConnectionInfo(ctx, SERVER,
+                            new NetworkAddress.Builder()
+                                .ip(accepted.socket().getInetAddress())
+                                .port(accepted.socket().getPort())
+                                .stream(1)
+                                .build(),
+                            requestedObjects, 0, pipeline, inventoryFilterSize
+                        );
+                        connection.setWriteBudget(writeBudget);
+                        connection.setRequestScheduler(requestScheduler);
+                        leastBusyLoop().register(accepted, OP_READ | OP_WRITE, connection);
+                    } catch (AsynchronousCloseException e) {
+                        LOG.trace(e.getMessage());
+                        return;
+                    } catch (IOException e) {
+                        // e.g. if we ran out of file descriptors - this must not stop us from accepting connections
+                        LOG.error(e.getMessage(), e);
+                        if (accepted != null) {
+                            try {
+                                accepted.close();
+                            } catch (IOException ignore) {
                             }
                         }
-                        // set interest ops
-                        for (Map.Entry<ConnectionInfo, SelectionKey> e : connections.entrySet()) {
-                            if (e.getValue().isValid()
-                                && (e.getValue().interestOps() & OP_WRITE) == 0
-                                && (e.getValue().interestOps() & OP_CONNECT) == 0
-                                && !e.getKey().getSendingQueue().isEmpty()) {
-                                e.getValue().interestOps(OP_READ | OP_WRITE);
-                            }
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException ignore) {
+                            return;
                         }
-                        // start new connections
-                        if (!connectionQueue.isEmpty()) {
-                            NetworkAddress address = connectionQueue.poll();
+                    }
+                }
+            }
+        }).start();
+
+        for (SelectorLoop loop : loops) {
+            thread("selector worker " + loop.number, loop).start();
+        }
+    }
+
+    private void connect(NetworkAddress address) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(address.toInetAddress(), address.getPort()));
+            ConnectionInfo connection = new ConnectionInfo(ctx, CLIENT,
+                address,
+                requestedObjects, 0, pipeline, inventoryFilterSize
+            );
+            connection.setWriteBudget(writeBudget);
+            connection.setRequestScheduler(requestScheduler);
+            leastBusyLoop().register(channel, OP_CONNECT, connection);
+        } catch (NoRouteToHostException ignore) {
+            // We'll try to connect to many offline nodes, so
+            // this is expected to happen quite a lot.
+        } catch (AsynchronousCloseException e) {
+            // The exception is expected if the network is being
+            // shut down, as we actually do asynchronously close
+            // the connections.
+            if (isRunning()) {
+                LOG.error(e.getMessage(), e);
+            }
+        } catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+
+    private SelectorLoop leastBusyLoop() {
+        SelectorLoop result = null;
+        for (SelectorLoop loop : loops) {
+            if (result == null || loop.connections.get() < result.connections.get()) {
+                result = loop;
+            }
+        }
+        return result;
+    }
+
+    private void release(SelectionKey key, ConnectionInfo connection) {
+        for (SelectorLoop loop : loops) {
+            if (loop.selector == key.selector()) {
+                loop.release(connection);
+            }
+        }
+    }
+
+    /**
+     * Drives the connections assigned to it. New connections are registered by the loop's own thread, as
+     * registering from another thread would block until the selector wakes up.
+     * <p>
+     * The loop only wakes up for network events, or if another thread needs it to write to or resume reading
+     * from a connection.
+     * </p>
+     */
+    private class SelectorLoop implements Runnable {
+        private final int number;
+        private final Selector selector;
+        private final Queue<Registration> registrations = new ConcurrentLinkedQueue<>();
+        /**
+         * Connections that got new messages to send. Only these need their interest ops updated, instead of
+         * checking every connection after each select.
+         */
+        private final Queue<ConnectionInfo> writeReady = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean resumeReading = new AtomicBoolean();
+        /**
+         * Connections that started collecting objects to announce.
+         */
+        private final Queue<ConnectionInfo> announcing = new ConcurrentLinkedQueue<>();
+        /**
+         * Connections with objects to announce, only used by the loop's thread.
+         */
+        private final Set<ConnectionInfo> pendingAnnouncements = new HashSet<>();
+        /**
+         * Number of connections assigned to this loop, including the ones not yet registered.
+         */
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private SelectorLoop(int number) throws IOException {
+            this.number = number;
+            this.selector = Selector.open();
+        }
+
+        private Runnable writeListener(final ConnectionInfo connection) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    writeReady.offer(connection);
+                    selector.wakeup();
+                }
+            };
+        }
+
+        private Runnable announcementListener(final ConnectionInfo connection) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    announcing.offer(connection);
+                    selector.wakeup();
+                }
+            };
+        }
+
+        /**
+         * Sends the 'inv' messages whose window passed.
+         *
+         * @return milliseconds until the next window passes, or 0 if no objects are waiting to be announced
+         */
+        private long flushAnnouncements() {
+            ConnectionInfo connection;
+            while ((connection = announcing.poll()) != null) {
+                pendingAnnouncements.add(connection);
+            }
+            long now = System.currentTimeMillis();
+            long timeout = 0;
+            Iterator<ConnectionInfo> iterator = pendingAnnouncements.iterator();
+            while (iterator.hasNext()) {
+                long remaining = iterator.next().flushAnnouncements(now);
+                if (remaining == 0) {
+                    iterator.remove();
+                } else if (timeout == 0 || remaining < timeout) {
+                    timeout = remaining;
+                }
+            }
+            return timeout;
+        }
+
+        private void resumeReading() {
+            resumeReading.set(true);
+            selector.wakeup();
+        }
+
+        private void updateInterestOps(SelectionKey key) {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            ConnectionInfo connection = (ConnectionInfo) key.attachment();
+            if (connection != null
+                && (key.interestOps() & OP_CONNECT) == 0
+                && connection.getState() != DISCONNECTED) {
+                key.interestOps(interestOps(connection));
+            }
+        }
+
+        private void register(SocketChannel channel, int ops, ConnectionInfo connection) {
+            connections.incrementAndGet();
+            registrations.offer(new Registration(channel, ops, connection));
+            selector.wakeup();
+        }
+
+        /**
+         * Stops counting the connection towards this loop's load. Both the loop and the connection manager release
+         * connections, whichever notices first, so only the first call has an effect.
+         */
+        private void release(ConnectionInfo connection) {
+            if (connection.released.compareAndSet(false, true)) {
+                connections.decrementAndGet();
+            }
+        }
+
+        /**
+         * Closes the channel right away, so the connection doesn't count towards this loop's load until the
+         * connection manager removes it.
+         */
+        private void close(SocketChannel channel, ConnectionInfo connection) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+            release(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    // a timeout of 0 waits until the selector is woken up
+                    selector.select(flushAnnouncements());
+                    Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                    while (keyIterator.hasNext()) {
+                        SelectionKey key = keyIterator.next();
+                        keyIterator.remove();
+                        if (key.attachment() != null) {
+                            // handle read/write
+                            SocketChannel channel = (SocketChannel) key.channel();
+                            ConnectionInfo connection = (ConnectionInfo) key.attachment();
                             try {
-                                SocketChannel channel = SocketChannel.open();
-                                channel.configureBlocking(false);
-                                channel.connect(new InetSocketAddress(address.toInetAddress(), address.getPort()));
-                                ConnectionInfo connection = new ConnectionInfo(ctx, CLIENT,
-                                    address,
-                                    requestedObjects, 0
-                                );
-                                connections.put(
-                                    connection,
-                                    channel.register(selector, OP_CONNECT, connection)
-                                );
-                            } catch (NoRouteToHostException ignore) {
-                                // We'll try to connect to many offline nodes, so
-                                // this is expected to happen quite a lot.
-                            } catch (AsynchronousCloseException e) {
-                                // The exception is expected if the network is being
-                                // shut down, as we actually do asynchronously close
-                                // the connections.
-                                if (isRunning()) {
-                                    LOG.error(e.getMessage(), e);
+                                if (key.isConnectable()) {
+                                    if (!channel.finishConnect()) {
+                                        continue;
+                                    }
+                                }
+                                if (key.isWritable()) {
+                                    write(channel, connection);
+                                }
+                                if (key.isReadable()) {
+                                    read(channel, connection);
+                                }
+                                if (connection.getState() != DISCONNECTED) {
+                                    key.interestOps(interestOps(connection));
                                 }
-                            } catch (IOException e) {
-                                LOG.error(e.getMessage(), e);
+                            } catch (CancelledKeyException | NodeException | IOException e) {
+                                connection.disconnect();
+                            } catch (RuntimeException e) {
+                                // a bug must only cost us this connection, not all the connections of this loop
+                                LOG.error("Unexpected error on connection to " + connection.getNode(), e);
+                                connection.disconnect();
+                            }
+                            if (connection.getState() == DISCONNECTED) {
+                                close(channel, connection);
                             }
                         }
                     }
-                    selector.close();
-                } catch (ClosedSelectorException ignore) {
-                } catch (IOException e) {
-                    throw new ApplicationException(e);
+                    // start writing to connections that got new messages to send
+                    ConnectionInfo ready;
+                    while ((ready = writeReady.poll()) != null) {
+                        ready.writeScheduled.set(false);
+                        updateInterestOps(NioNetworkHandler.this.connections.get(ready));
+                    }
+                    // resume reading from connections that were paused while the object pipeline was full
+                    if (resumeReading.getAndSet(false)) {
+                        for (SelectionKey key : selector.keys()) {
+                            updateInterestOps(key);
+                        }
+                    }
+                    // register new connections
+                    Registration registration;
+                    while ((registration = registrations.poll()) != null) {
+                        try {
+                            NioNetworkHandler.this.connections.put(
+                                registration.connection,
+                                registration.channel.register(selector, registration.ops, registration.connection)
+                            );
+                            registration.connection.setWriteListener(writeListener(registration.connection));
+                            registration.connection.setAnnouncementBatching(announcementWindow,
+                                announcementThreshold, announcementStatistics,
+                                announcementListener(registration.connection));
+                        } catch (ClosedChannelException e) {
+                            release(registration.connection);
+                            registration.connection.disconnect();
+                        }
+                    }
                 }
+            } catch (ClosedSelectorException ignore) {
+            } catch (IOException e) {
+                throw new ApplicationException(e);
             }
-        });
+        }
     }
 
-    private static void write(SocketChannel channel, ConnectionInfo connection)
-        throws IOException {
-        writeBuffer(connection.getOutBuffers(), channel);
+    private static class Registration {
+        private final SocketChannel channel;
+        private final int ops;
+        private final ConnectionInfo connection;
 
-        connection.updateWriter();
+        private Registration(SocketChannel channel, int ops, ConnectionInfo connection) {
+            this.channel = channel;
+            this.ops = ops;
+            this.connection = connection;
+        }
+    }
 
-        writeBuffer(connection.getOutBuffers(), channel);
-        connection.cleanupBuffers();
+    private static int interestOps(ConnectionInfo connection) {
+        int ops = connection.isReadable() ? OP_READ : 0;
+        if (connection.isWritePending()) {
+            ops |= OP_WRITE;
+        }
+        return ops;
     }
 
-    private static void writeBuffer(ByteBuffer[] buffers, SocketChannel channel) throws IOException {
-        if (buffers[1] == null) {
-            if (buffers[0].hasRemaining()) {
-                channel.write(buffers[0]);
-            }
-        } else if (buffers[1].hasRemaining() || buffers[0].hasRemaining()) {
+    private static void write(SocketChannel channel, ConnectionInfo connection)
+        throws IOException {
+        connection.updateWriter();
+        ByteBuffer[] buffers = connection.getOutBuffers();
+        if (buffers.length > 0) {
             channel.write(buffers);
         }
+        connection.cleanupBuffers();
     }
 
     private static void read(SocketChannel channel, ConnectionInfo connection) throws IOException {
@@ -364,18 +672,21 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
         Thread thread = new Thread(runnable, threadName);
         thread.setDaemon(true);
         thread.setPriority(Thread.MIN_PRIORITY);
-        thread.start();
         return thread;
     }
 
     @Override
     public void stop() {
         try {
-            serverChannel.socket().close();
-            selector.close();
+            serverChannel.close();
+            for (SelectorLoop loop : loops) {
+                loop.selector.close();
+            }
             for (SelectionKey selectionKey : connections.values()) {
                 selectionKey.channel().close();
             }
+            connections.clear();
+            pipeline.shutdown();
         } catch (IOException e) {
             throw new ApplicationException(e);
         }
@@ -401,62 +712,7 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
             requestedObjects.clear();
             return;
         }
-        Iterator<InventoryVector> iterator = inventoryVectors.iterator();
-        if (!iterator.hasNext()) {
-            return;
-        }
-
-        Map<ConnectionInfo, List<InventoryVector>> distribution = new HashMap<>();
-        for (ConnectionInfo connection : connections.keySet()) {
-            if (connection.getState() == ACTIVE) {
-                distribution.put(connection, new LinkedList<InventoryVector>());
-            }
-        }
-        if (distribution.isEmpty()) {
-            return;
-        }
-        InventoryVector next = iterator.next();
-        ConnectionInfo previous = null;
-        do {
-            for (ConnectionInfo connection : distribution.keySet()) {
-                if (connection == previous || previous == null) {
-                    if (iterator.hasNext()) {
-                        previous = connection;
-                        next = iterator.next();
-                    } else {
-                        break;
-                    }
-                }
-                if (connection.knowsOf(next) && !connection.requested(next)) {
-                    List<InventoryVector> ivs = distribution.get(connection);
-                    if (ivs.size() == GetData.MAX_INVENTORY_SIZE) {
-                        connection.send(new GetData.Builder().inventory(ivs).build());
-                        ivs.clear();
-                    }
-                    ivs.add(next);
-                    iterator.remove();
-
-                    if (iterator.hasNext()) {
-                        next = iterator.next();
-                        previous = connection;
-                    } else {
-                        break;
-                    }
-                }
-            }
-        } while (iterator.hasNext());
-
-        // remove objects nobody knows of
-        for (InventoryVector iv : inventoryVectors) {
-            requestedObjects.remove(iv);
-        }
-
-        for (ConnectionInfo connection : distribution.keySet()) {
-            List<InventoryVector> ivs = distribution.get(connection);
-            if (!ivs.isEmpty()) {
-                connection.send(new GetData.Builder().inventory(ivs).build());
-            }
-        }
+        requestScheduler.retry(inventoryVectors);
     }
 
     @Override
@@ -489,10 +745,20 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
             );
             i++;
         }
+        List<SelectorLoop> loops = this.loops;
+        Property[] loopProperties = new Property[loops.size()];
+        for (SelectorLoop loop : loops) {
+            loopProperties[loop.number] = new Property("selector " + loop.number, loop.connections.get());
+        }
         return new Property("network", null,
             new Property("connectionManager", isRunning() ? "running" : "stopped"),
+            new Property("selectors", null, loopProperties),
             new Property("connections", null, streamProperties),
-            new Property("requestedObjects", requestedObjects.size())
+            new Property("requestedObjects", requestedObjects.size()),
+            requestScheduler == null ? new Property("requests", "stopped") : requestScheduler.getStatus(),
+            announcementStatistics.getStatus(),
+            pipeline == null ? new Property("objectPipeline", "stopped") : pipeline.getStatus(),
+            bufferPool.getStatus()
         );
     }
 
@@ -507,7 +773,7 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
 
     @Override
     public boolean isRunning() {
-        return selector != null && selector.isOpen() && starter.isAlive();
+        return !loops.isEmpty() && loops.get(0).selector.isOpen() && starter != null && starter.isAlive();
     }
 
     @Override
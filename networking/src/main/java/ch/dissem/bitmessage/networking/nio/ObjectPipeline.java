@@ -0,0 +1,317 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.InternalContext;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.exception.InsufficientProofOfWorkException;
+import ch.dissem.bitmessage.utils.Property;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
+import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
+
+/**
+ * Processes received objects away from the selector thread, so a slow step like a database write doesn't stall
+ * every connection.
+ * <p>
+ * Each {@link Stage} has its own bounded queue and workers. If too many objects are in the pipeline, the selector
+ * stops reading from the connections that sent the most of them until it has drained to half the limit.
+ * </p>
+ */
+public class ObjectPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectPipeline.class);
+
+    public enum Stage {
+        /**
+         * Drops objects that are already in the inventory.
+         */
+        DEDUPE,
+        /**
+         * Checks the proof of work.
+         */
+        VERIFY,
+        /**
+         * Stores the object in the inventory.
+         */
+        STORE,
+        /**
+         * Offers the object to other nodes.
+         */
+        RELAY,
+        /**
+         * Hands the object to the listener, which tries to decrypt it.
+         */
+        DELIVER
+    }
+
+    private final InternalContext ctx;
+    private final Map<InventoryVector, Long> commonRequestedObjects;
+    private final Runnable onRelief;
+    private final int capacity;
+
+    private final Map<Stage, Step> steps = new EnumMap<>(Stage.class);
+    private final List<ExecutorService> workers = new LinkedList<>();
+    private final Set<InventoryVector> inFlight = Collections.newSetFromMap(
+        new ConcurrentHashMap<InventoryVector, Boolean>());
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger sources = new AtomicInteger();
+    private volatile boolean congested;
+
+    private ObjectPipeline(Builder builder, InternalContext context,
+                           Map<InventoryVector, Long> commonRequestedObjects, Runnable onRelief) {
+        this.ctx = context;
+        this.commonRequestedObjects = commonRequestedObjects;
+        this.onRelief = onRelief;
+        this.capacity = builder.capacity;
+
+        steps.put(Stage.DEDUPE, new Step() {
+            @Override
+            boolean process(ObjectMessage object) {
+                if (ctx.getInventory().contains(object)) {
+                    LOG.trace("Received object " + object.getInventoryVector() + " - already in inventory");
+                    return false;
+                }
+                return true;
+            }
+        });
+        steps.put(Stage.VERIFY, new Step() {
+            @Override
+            boolean process(ObjectMessage object) throws Exception {
+                cryptography().checkProofOfWork(object, NETWORK_NONCE_TRIALS_PER_BYTE, NETWORK_EXTRA_BYTES);
+                return true;
+            }
+        });
+        steps.put(Stage.STORE, new Step() {
+            @Override
+            boolean process(ObjectMessage object) {
+                ctx.getInventory().storeObject(object);
+                return true;
+            }
+        });
+        steps.put(Stage.RELAY, new Step() {
+            @Override
+            boolean process(ObjectMessage object) {
+                // offer object to some random nodes so it gets distributed throughout the network:
+                ctx.getNetworkHandler().offer(object.getInventoryVector());
+                return true;
+            }
+        });
+        steps.put(Stage.DELIVER, new Step() {
+            @Override
+            boolean process(ObjectMessage object) throws Exception {
+                ctx.getNetworkListener().receive(object);
+                return true;
+            }
+        });
+
+        Step next = null;
+        for (Stage stage : reverse(Stage.values())) {
+            Step step = steps.get(stage);
+            step.init(stage, next);
+            int numberOfWorkers = builder.workers.get(stage);
+            ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers,
+                pool("object-" + stage.name().toLowerCase()).daemon().build());
+            for (int i = 0; i < numberOfWorkers; i++) {
+                executor.execute(step);
+            }
+            workers.add(executor);
+            next = step;
+        }
+    }
+
+    /**
+     * Adds a received object to the pipeline, unless its first stage is full. This never blocks, as it's called by
+     * the selector thread. Reading is paused long before the first stage is full, so this should rarely fail.
+     *
+     * @return false if there was no room for the object, so it must be submitted again later
+     */
+    boolean submit(ConnectionInfo source, ObjectMessage object) {
+        if (!inFlight.add(object.getInventoryVector())) {
+            LOG.trace("Received object " + object.getInventoryVector() + " - already being processed");
+            return true;
+        }
+        if (source.pendingObjects.getAndIncrement() == 0) {
+            sources.incrementAndGet();
+        }
+        if (pending.incrementAndGet() >= capacity) {
+            congested = true;
+        }
+        if (!steps.get(Stage.DEDUPE).queue.offer(new Entry(source, object))) {
+            // the pipeline is congested, so onRelief will be called once it drained
+            inFlight.remove(object.getInventoryVector());
+            if (source.pendingObjects.decrementAndGet() == 0) {
+                sources.decrementAndGet();
+            }
+            pending.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the selector shouldn't read from this connection, as it sent more than its share of the
+     * objects that are still being processed.
+     */
+    boolean isBusy(ConnectionInfo connection) {
+        if (!congested) {
+            return false;
+        }
+        int n = connection.pendingObjects.get();
+        return n > 0 && (long) n * sources.get() >= pending.get();
+    }
+
+    private void finish(ConnectionInfo source, ObjectMessage object) {
+        InventoryVector iv = object.getInventoryVector();
+        if (commonRequestedObjects.remove(iv) == null) {
+            LOG.debug("Received object that wasn't requested.");
+        }
+        inFlight.remove(iv);
+        if (source.pendingObjects.decrementAndGet() == 0) {
+            sources.decrementAndGet();
+        }
+        if (pending.decrementAndGet() <= capacity / 2 && congested) {
+            congested = false;
+            onRelief.run();
+        }
+    }
+
+    public void shutdown() {
+        for (ExecutorService executor : workers) {
+            executor.shutdownNow();
+        }
+    }
+
+    public Property getStatus() {
+        Property[] stages = new Property[steps.size()];
+        int i = 0;
+        for (Map.Entry<Stage, Step> e : steps.entrySet()) {
+            stages[i++] = new Property(e.getKey().name().toLowerCase(), e.getValue().queue.size());
+        }
+        return new Property("objectPipeline", null,
+            new Property("pending", pending.get()),
+            new Property("congested", congested),
+            new Property("queues", null, stages)
+        );
+    }
+
+    private static <T> List<T> reverse(T[] array) {
+        List<T> result = new ArrayList<>(Arrays.asList(array));
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static class Entry {
+        private final ConnectionInfo source;
+        private final ObjectMessage object;
+
+        private Entry(ConnectionInfo source, ObjectMessage object) {
+            this.source = source;
+            this.object = object;
+        }
+    }
+
+    private abstract class Step implements Runnable {
+        private BlockingQueue<Entry> queue;
+        private Stage stage;
+        private Step next;
+
+        private void init(Stage stage, Step next) {
+            this.stage = stage;
+            this.next = next;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * @return false if the object should not be processed any further
+         */
+        abstract boolean process(ObjectMessage object) throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    Entry entry = queue.take();
+                    boolean proceed = false;
+                    try {
+                        proceed = process(entry.object);
+                    } catch (InsufficientProofOfWorkException e) {
+                        LOG.warn(e.getMessage());
+                    } catch (Exception e) {
+                        LOG.error("Stage " + stage + ", stream " + entry.object.getStream()
+                            + ", object type " + entry.object.getType() + ": " + e.getMessage(), e);
+                    }
+                    if (proceed && next != null) {
+                        next.queue.put(entry);
+                    } else {
+                        finish(entry.source, entry.object);
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOG.trace("Worker for stage " + stage + " stopped");
+            }
+        }
+    }
+
+    /**
+     * Configures the number of workers per stage and the capacity of each stage's queue.
+     */
+    public static final class Builder {
+        private final Map<Stage, Integer> workers = new EnumMap<>(Stage.class);
+        private int capacity = 100;
+
+        public Builder() {
+            for (Stage stage : Stage.values()) {
+                workers.put(stage, 1);
+            }
+            workers.put(Stage.VERIFY, Runtime.getRuntime().availableProcessors());
+        }
+
+        public Builder workers(Stage stage, int numberOfWorkers) {
+            if (numberOfWorkers < 1) {
+                throw new IllegalArgumentException("At least one worker is needed");
+            }
+            workers.put(stage, numberOfWorkers);
+            return this;
+        }
+
+        /**
+         * @param capacity the size of each stage's queue. Reading is paused when this many objects are in the
+         *                 pipeline.
+         */
+        public Builder capacity(int capacity) {
+            if (capacity < 2) {
+                throw new IllegalArgumentException("Capacity must be at least 2");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        ObjectPipeline build(InternalContext context, Map<InventoryVector, Long> commonRequestedObjects,
+                             Runnable onRelief) {
+            return new ObjectPipeline(this, context, commonRequestedObjects, onRelief);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.GetData;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.utils.Property;
+import ch.dissem.bitmessage.utils.UnixTime;
+
+import java.util.*;
+
+import static ch.dissem.bitmessage.networking.AbstractConnection.State.DISCONNECTED;
+
+/**
+ * Decides which node each missing object is requested from.
+ * <p>
+ * For every missing object the scheduler remembers which nodes announced it, so it never has to ask every
+ * connection whether it knows of an object. An object is requested from the announcing node with the fewest
+ * objects in flight, but no node gets more than {@code maxInFlight} requests at a time. Objects that can't be
+ * requested right away wait until one of the nodes that announced them delivered enough of the objects it owes
+ * us. If a node disconnects, whatever it still owes us is requested from the other nodes that announced it
+ * right away. Objects that are still waiting long after they were last announced are dropped by
+ * {@link #expire(long)}.
+ * </p>
+ */
+class RequestScheduler {
+    private final Map<InventoryVector, Long> commonRequestedObjects;
+    private final int maxInFlight;
+
+    private final Map<InventoryVector, Request> requests = new HashMap<>();
+    private final Map<ConnectionInfo, Node> nodes = new HashMap<>();
+    /**
+     * Nodes with objects waiting for them that have room for a reasonably large request, so receiving an object
+     * doesn't need to check every connected node.
+     */
+    private final Set<Node> idle = new LinkedHashSet<>();
+
+    /**
+     * @param commonRequestedObjects objects requested from any node, which is kept up to date by the connections
+     * @param maxInFlight            maximum number of objects requested from a node that weren't received yet
+     */
+    RequestScheduler(Map<InventoryVector, Long> commonRequestedObjects, int maxInFlight) {
+        if (maxInFlight < 1 || maxInFlight > GetData.MAX_INVENTORY_SIZE) {
+            throw new IllegalArgumentException("Objects in flight must be between 1 and " + GetData.MAX_INVENTORY_SIZE);
+        }
+        this.commonRequestedObjects = commonRequestedObjects;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param connection the node that announced the objects
+     * @param missing    announced objects that aren't in the inventory
+     */
+    void announced(ConnectionInfo connection, Collection<InventoryVector> missing) {
+        Map<Node, List<InventoryVector>> assignments = new HashMap<>();
+        synchronized (this) {
+            if (connection.getState() == DISCONNECTED) {
+                return;
+            }
+            long now = UnixTime.now();
+            Node node = nodes.get(connection);
+            if (node == null) {
+                node = new Node(connection);
+                nodes.put(connection, node);
+            }
+            for (InventoryVector iv : missing) {
+                Request request = requests.get(iv);
+                if (request == null) {
+                    if (commonRequestedObjects.containsKey(iv)) {
+                        // the object was received, but isn't stored yet
+                        continue;
+                    }
+                    request = new Request();
+                    requests.put(iv, request);
+                }
+                request.announced = now;
+                request.announcers.add(node);
+                if (request.assignee == null) {
+                    // a set, so announcing an object again doesn't add it again
+                    node.candidates.add(iv);
+                }
+            }
+            // every other node that announced a waiting object is busy, or it would already be requested
+            fill(node, assignments);
+        }
+        send(assignments);
+    }
+
+    /**
+     * Must be called whenever an object is received, from whichever node.
+     */
+    void received(InventoryVector iv) {
+        Map<Node, List<InventoryVector>> assignments = new HashMap<>();
+        synchronized (this) {
+            Request request = requests.remove(iv);
+            if (request == null || request.assignee == null) {
+                return;
+            }
+            request.assignee.assigned.remove(iv);
+            updateIdle(request.assignee);
+            fillIdleNodes(assignments);
+        }
+        send(assignments);
+    }
+
+    /**
+     * Drops the objects that weren't requested from any node yet and weren't announced since the given time.
+     * Objects that were requested expire with the common requested objects and are {@link #retry(Collection)
+     * retried}.
+     *
+     * @param time in seconds since 1970
+     */
+    void expire(long time) {
+        synchronized (this) {
+            Iterator<Map.Entry<InventoryVector, Request>> iterator = requests.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<InventoryVector, Request> e = iterator.next();
+                Request request = e.getValue();
+                if (request.assignee == null && request.announced < time) {
+                    for (Node node : request.announcers) {
+                        node.candidates.remove(e.getKey());
+                        updateIdle(node);
+                    }
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests the objects again, from another node if possible. Objects no connected node announced are dropped,
+     * so they can be requested again as soon as some node announces them.
+     */
+    void retry(Collection<InventoryVector> inventoryVectors) {
+        Map<Node, List<InventoryVector>> assignments = new HashMap<>();
+        synchronized (this) {
+            for (InventoryVector iv : inventoryVectors) {
+                Request request = requests.get(iv);
+                if (request == null) {
+                    commonRequestedObjects.remove(iv);
+                    continue;
+                }
+                if (request.assignee != null) {
+                    // apparently the node doesn't deliver this object
+                    request.assignee.assigned.remove(iv);
+                    request.announcers.remove(request.assignee);
+                    updateIdle(request.assignee);
+                    request.assignee = null;
+                }
+                reassign(iv, request, assignments);
+            }
+            // nodes that didn't deliver might now have room for other objects
+            fillIdleNodes(assignments);
+        }
+        send(assignments);
+    }
+
+    /**
+     * Requests the objects the node still owes us from other nodes that announced them.
+     */
+    void disconnected(ConnectionInfo connection) {
+        Map<Node, List<InventoryVector>> assignments = new HashMap<>();
+        synchronized (this) {
+            Node node = nodes.remove(connection);
+            if (node == null) {
+                return;
+            }
+            node.active = false;
+            idle.remove(node);
+            for (InventoryVector iv : node.candidates) {
+                Request request = requests.get(iv);
+                if (request != null && request.assignee == null) {
+                    request.announcers.remove(node);
+                    if (request.announcers.isEmpty()) {
+                        requests.remove(iv);
+                    }
+                }
+            }
+            for (InventoryVector iv : node.assigned) {
+                Request request = requests.get(iv);
+                request.announcers.remove(node);
+                request.assignee = null;
+                reassign(iv, request, assignments);
+            }
+            node.candidates.clear();
+            node.assigned.clear();
+        }
+        send(assignments);
+    }
+
+    synchronized Property getStatus() {
+        int inFlight = 0;
+        for (Node node : nodes.values()) {
+            inFlight += node.assigned.size();
+        }
+        return new Property("requests", null,
+            new Property("missing", requests.size()),
+            new Property("inFlight", inFlight),
+            new Property("waiting", requests.size() - inFlight)
+        );
+    }
+
+    synchronized int getInFlight(ConnectionInfo connection) {
+        Node node = nodes.get(connection);
+        return node == null ? 0 : node.assigned.size();
+    }
+
+    synchronized int getWaiting(ConnectionInfo connection) {
+        Node node = nodes.get(connection);
+        return node == null ? 0 : node.candidates.size();
+    }
+
+    /**
+     * Gives work to all nodes with objects waiting for them that have room for a reasonably large request,
+     * instead of requesting one object at a time.
+     */
+    private void fillIdleNodes(Map<Node, List<InventoryVector>> assignments) {
+        // filling a node removes it from the idle nodes
+        for (Node node : new ArrayList<>(idle)) {
+            fill(node, assignments);
+        }
+    }
+
+    private void updateIdle(Node node) {
+        if (node.active && !node.candidates.isEmpty() && node.assigned.size() <= maxInFlight / 2) {
+            idle.add(node);
+        } else {
+            idle.remove(node);
+        }
+    }
+
+    private void fill(Node node, Map<Node, List<InventoryVector>> assignments) {
+        Iterator<InventoryVector> candidates = node.candidates.iterator();
+        while (node.assigned.size() < maxInFlight && candidates.hasNext()) {
+            InventoryVector iv = candidates.next();
+            candidates.remove();
+            Request request = requests.get(iv);
+            // candidates aren't removed when the object is received or requested from another node
+            if (request != null && request.assignee == null) {
+                assign(iv, request, node, assignments);
+            }
+        }
+        updateIdle(node);
+    }
+
+    private void reassign(InventoryVector iv, Request request, Map<Node, List<InventoryVector>> assignments) {
+        Node best = null;
+        Iterator<Node> announcers = request.announcers.iterator();
+        while (announcers.hasNext()) {
+            Node node = announcers.next();
+            if (!node.active) {
+                announcers.remove();
+            } else if (node.assigned.size() < maxInFlight
+                && (best == null || node.assigned.size() < best.assigned.size())) {
+                best = node;
+            }
+        }
+        if (best != null) {
+            assign(iv, request, best, assignments);
+        } else if (request.announcers.isEmpty()) {
+            requests.remove(iv);
+            commonRequestedObjects.remove(iv);
+        } else {
+            for (Node node : request.announcers) {
+                node.candidates.add(iv);
+                updateIdle(node);
+            }
+        }
+    }
+
+    private void assign(InventoryVector iv, Request request, Node node,
+                        Map<Node, List<InventoryVector>> assignments) {
+        request.assignee = node;
+        node.assigned.add(iv);
+        updateIdle(node);
+        List<InventoryVector> ivs = assignments.get(node);
+        if (ivs == null) {
+            ivs = new ArrayList<>();
+            assignments.put(node, ivs);
+        }
+        ivs.add(iv);
+    }
+
+    /**
+     * Sends the 'getdata' messages. This must happen outside the lock, as sending notifies the selector loops.
+     */
+    private static void send(Map<Node, List<InventoryVector>> assignments) {
+        for (Map.Entry<Node, List<InventoryVector>> e : assignments.entrySet()) {
+            e.getKey().connection.send(new GetData.Builder().inventory(e.getValue()).build());
+        }
+    }
+
+    private static class Request {
+        private final Set<Node> announcers = new LinkedHashSet<>(4);
+        private Node assignee;
+        /**
+         * When the object was last announced by any node, in seconds since 1970.
+         */
+        private long announced;
+    }
+
+    private static class Node {
+        private final ConnectionInfo connection;
+        /**
+         * Objects this node announced, which might be requested from it once there's room.
+         */
+        private final Set<InventoryVector> candidates = new LinkedHashSet<>();
+        private final Set<InventoryVector> assigned = new LinkedHashSet<>();
+        private boolean active = true;
+
+        private Node(ConnectionInfo connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.*;
+
+public class ExpiringMapTest {
+    private ExpiringMap<String> map = new ExpiringMap<>(10);
+
+    @Test
+    public void ensureOldEntriesAreExpired() {
+        map.put("a", 100L);
+        map.putAll(Arrays.asList("b", "c"), 105L);
+        map.put("d", 120L);
+
+        assertThat(map.expire(115), containsInAnyOrder("a", "b", "c"));
+        assertEquals(Collections.singleton("d"), map.keySet());
+    }
+
+    @Test
+    public void ensureEntriesInTheCurrentBucketAreExpiredLater() {
+        map.put("a", 100L);
+        map.put("b", 112L);
+
+        assertThat(map.expire(115), containsInAnyOrder("a"));
+        assertTrue(map.containsKey("b"));
+        assertThat(map.expire(125), containsInAnyOrder("b"));
+    }
+
+    @Test
+    public void ensureEntriesPutAgainAreKept() {
+        map.put("a", 100L);
+        map.put("a", 130L);
+
+        assertThat(map.expire(125), empty());
+        assertEquals(130L, (long) map.get("a"));
+        assertThat(map.expire(145), containsInAnyOrder("a"));
+    }
+
+    @Test
+    public void ensureRemovedEntriesAreNotExpired() {
+        map.put("a", 100L);
+        map.put("b", 100L);
+        map.remove("a");
+
+        assertThat(map.expire(115), containsInAnyOrder("b"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void ensureAbsentEntryIsOnlyPutOnce() {
+        assertNull(map.putIfAbsent("a", 100L));
+        assertEquals(100L, (long) map.putIfAbsent("a", 130L));
+
+        assertThat(map.expire(115), containsInAnyOrder("a"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class InventoryFilterTest {
+    private static final int SIZE = 16 * 1024;
+    private static final int CAPACITY = SIZE / 2 * 8 / 10;
+    private static final Random RANDOM = new Random();
+
+    private InventoryFilter filter = new InventoryFilter(SIZE, 300);
+
+    @Test
+    public void ensureAddedInventoryVectorsAreKnown() {
+        List<InventoryVector> inventory = ivs(CAPACITY);
+        filter.addAll(inventory, 0);
+
+        for (InventoryVector iv : inventory) {
+            assertTrue(filter.contains(iv));
+        }
+    }
+
+    @Test
+    public void ensureFalsePositivesAreRare() {
+        filter.addAll(ivs(CAPACITY), 0);
+        filter.addAll(ivs(CAPACITY - 1), 0);
+
+        int falsePositives = 0;
+        for (InventoryVector iv : ivs(10_000)) {
+            if (filter.contains(iv)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives + " false positives", falsePositives < 250);
+    }
+
+    @Test
+    public void ensureOldInventoryVectorsAreForgottenWhenFilterIsFull() {
+        List<InventoryVector> old = ivs(100);
+        filter.addAll(old, 0);
+        filter.addAll(ivs(CAPACITY - old.size()), 0);
+        filter.addAll(ivs(CAPACITY), 0);
+        for (InventoryVector iv : old) {
+            assertTrue(filter.contains(iv));
+        }
+
+        filter.addAll(ivs(1), 0);
+        // the previous filter is full, so a few might still be false positives
+        int remembered = 0;
+        for (InventoryVector iv : old) {
+            if (filter.contains(iv)) {
+                remembered++;
+            }
+        }
+        assertTrue(remembered + " still remembered", remembered < 10);
+    }
+
+    @Test
+    public void ensureOldInventoryVectorsAreForgottenAfterMaxAge() {
+        InventoryVector iv = ivs(1).get(0);
+        filter.addAll(Collections.singletonList(iv), 0);
+
+        filter.addAll(ivs(1), 299);
+        assertTrue(filter.contains(iv));
+        filter.addAll(ivs(1), 300);
+        assertTrue(filter.contains(iv));
+        filter.addAll(ivs(1), 600);
+        assertFalse(filter.contains(iv));
+    }
+
+    @Test
+    public void ensureEverythingIsForgottenAfterLongBreak() {
+        InventoryVector iv = ivs(1).get(0);
+        filter.addAll(Collections.singletonList(iv), 0);
+
+        filter.addAll(ivs(1), 3600);
+        assertFalse(filter.contains(iv));
+    }
+
+    private static List<InventoryVector> ivs(int count) {
+        List<InventoryVector> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            RANDOM.nextBytes(hash);
+            result.add(new InventoryVector(hash));
+        }
+        return result;
+    }
+}
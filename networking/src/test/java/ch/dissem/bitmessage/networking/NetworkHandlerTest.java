@@ -82,7 +82,8 @@ public class NetworkHandlerTest {
             {new DefaultNetworkHandler(), new DefaultNetworkHandler()},
             {new DefaultNetworkHandler(), new NioNetworkHandler()},
             {new NioNetworkHandler(), new DefaultNetworkHandler()},
-            {new NioNetworkHandler(), new NioNetworkHandler()}
+            {new NioNetworkHandler(), new NioNetworkHandler()},
+            {new NioNetworkHandler(4), new NioNetworkHandler(4)}
         });
     }
 
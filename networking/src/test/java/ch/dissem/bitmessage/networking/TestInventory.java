@@ -16,10 +16,12 @@
 
 package ch.dissem.bitmessage.networking;
 
+import ch.dissem.bitmessage.entity.ObjectFrame;
 import ch.dissem.bitmessage.entity.ObjectMessage;
 import ch.dissem.bitmessage.entity.payload.ObjectType;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.ports.Inventory;
+import ch.dissem.bitmessage.utils.Encode;
 import ch.dissem.bitmessage.utils.TestUtils;
 
 import java.io.IOException;
@@ -50,6 +52,12 @@ public class TestInventory implements Inventory {
         return inventory.get(vector);
     }
 
+    @Override
+    public ObjectFrame getObjectFrame(InventoryVector vector) {
+        ObjectMessage object = inventory.get(vector);
+        return object == null ? null : new ObjectFrame(Encode.bytes(object));
+    }
+
     @Override
     public List<ObjectMessage> getObjects(long stream, long version, ObjectType... types) {
         return new ArrayList<>(inventory.values());
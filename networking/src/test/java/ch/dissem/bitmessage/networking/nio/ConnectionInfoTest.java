@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.InternalContext;
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.*;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
+import ch.dissem.bitmessage.factory.V3MessageReader;
+import ch.dissem.bitmessage.ports.Inventory;
+import ch.dissem.bitmessage.ports.NetworkHandler;
+import ch.dissem.bitmessage.ports.NodeRegistry;
+import ch.dissem.bitmessage.utils.Singleton;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SERVER;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ConnectionInfoTest {
+    private static final int MESSAGE_SIZE = 24 + 33;
+
+    private Inventory inventory;
+    private ConnectionInfo connection;
+
+    @Before
+    public void setUp() {
+        Singleton.initialize(new BouncyCryptography());
+        InternalContext ctx = mock(InternalContext.class);
+        inventory = mock(Inventory.class);
+        when(ctx.getInventory()).thenReturn(inventory);
+        when(ctx.getNodeRegistry()).thenReturn(mock(NodeRegistry.class));
+        when(ctx.getNetworkHandler()).thenReturn(mock(NetworkHandler.class));
+        connection = new ConnectionInfo(ctx, SERVER,
+            new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(8444).build(),
+            new ConcurrentHashMap<InventoryVector, Long>(), 0);
+    }
+
+    @Test
+    public void ensureQueuedMessagesAreWrittenTogetherWithinBudget() {
+        connection.setWriteBudget(10 * MESSAGE_SIZE);
+        for (int i = 0; i < 25; i++) {
+            connection.offer(iv(i));
+        }
+
+        connection.updateWriter();
+
+        ByteBuffer[] buffers = connection.getOutBuffers();
+        // one buffer per message, header included
+        assertEquals(10, buffers.length);
+        assertEquals(10 * MESSAGE_SIZE, remaining(buffers));
+    }
+
+    @Test
+    public void ensureLargeMessageIsWrittenDespiteBudget() {
+        connection.setWriteBudget(1);
+        connection.offer(iv(0));
+        connection.offer(iv(1));
+
+        connection.updateWriter();
+
+        assertEquals(MESSAGE_SIZE, remaining(connection.getOutBuffers()));
+    }
+
+    @Test
+    public void ensureLargestInvIsWritten() {
+        List<InventoryVector> inventory = new ArrayList<>(GetData.MAX_INVENTORY_SIZE);
+        for (int i = 0; i < GetData.MAX_INVENTORY_SIZE; i++) {
+            inventory.add(iv(i));
+        }
+        connection.send(new Inv.Builder().inventory(inventory).build());
+
+        connection.updateWriter();
+
+        assertEquals(NetworkHandler.MAX_MESSAGE_SIZE, remaining(connection.getOutBuffers()));
+        for (ByteBuffer buffer : connection.getOutBuffers()) {
+            buffer.position(buffer.limit());
+        }
+        connection.cleanupBuffers();
+    }
+
+    @Test
+    public void ensurePartialWritesKeepMessagesIntact() {
+        connection.setWriteBudget(5 * MESSAGE_SIZE);
+        for (int i = 0; i < 25; i++) {
+            connection.offer(iv(i));
+        }
+
+        V3MessageReader reader = new V3MessageReader();
+        while (connection.isWritePending()) {
+            connection.updateWriter();
+            // the channel accepts only part of the data on each write
+            int written = 0;
+            for (ByteBuffer buffer : connection.getOutBuffers()) {
+                while (buffer.hasRemaining() && written < 100) {
+                    reader.getActiveBuffer().put(buffer.get());
+                    written++;
+                }
+            }
+            connection.cleanupBuffers();
+            reader.update();
+        }
+
+        List<InventoryVector> received = new ArrayList<>();
+        for (NetworkMessage message : reader.getMessages()) {
+            received.addAll(((Inv) message.getPayload()).getInventory());
+        }
+        reader.cleanup();
+        assertEquals(25, received.size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals(iv(i), received.get(i));
+        }
+    }
+
+    @Test
+    public void ensureRequestedObjectsAreOnlyLoadedWhenThereIsRoom() throws Exception {
+        final int budget = 64 * 1024;
+        final ObjectFrame frame = new ObjectFrame(new byte[10_000]);
+        when(inventory.getObjectFrame(any(InventoryVector.class))).thenReturn(frame);
+        connection.setWriteBudget(budget);
+        receive(new Version.Builder()
+            .defaults(1)
+            .addrFrom(new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(8444).build())
+            .addrRecv(new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(8444).build())
+            .build());
+        receive(new VerAck());
+        List<InventoryVector> requested = new ArrayList<>();
+        for (int i = 0; i < GetData.MAX_INVENTORY_SIZE; i++) {
+            requested.add(iv(i));
+        }
+        receive(new GetData.Builder().inventory(requested).build());
+        verify(inventory, never()).getObjectFrame(any(InventoryVector.class));
+
+        int objects = 0;
+        long maxOutstanding = 0;
+        while (connection.isWritePending()) {
+            connection.updateWriter();
+            ByteBuffer[] buffers = connection.getOutBuffers();
+            maxOutstanding = Math.max(maxOutstanding, remaining(buffers));
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.remaining() == frame.getSize()) {
+                    objects++;
+                }
+                buffer.position(buffer.limit());
+            }
+            connection.cleanupBuffers();
+        }
+
+        assertEquals(GetData.MAX_INVENTORY_SIZE, objects);
+        assertTrue(maxOutstanding < budget + frame.getSize());
+    }
+
+    @Test
+    public void ensureQueuedObjectRequestsAreCapped() throws Exception {
+        when(inventory.getObjectFrame(any(InventoryVector.class))).thenReturn(new ObjectFrame(new byte[100]));
+        receive(new Version.Builder()
+            .defaults(1)
+            .addrFrom(new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(8444).build())
+            .addrRecv(new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(8444).build())
+            .build());
+        receive(new VerAck());
+        List<InventoryVector> first = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            first.add(iv(i));
+        }
+        receive(new GetData.Builder().inventory(first).build());
+        receive(new GetData.Builder().inventory(first).build());
+        List<InventoryVector> second = new ArrayList<>();
+        for (int i = 10; i < 10 + GetData.MAX_INVENTORY_SIZE; i++) {
+            second.add(iv(i));
+        }
+        receive(new GetData.Builder().inventory(second).build());
+
+        while (connection.isWritePending()) {
+            connection.updateWriter();
+            for (ByteBuffer buffer : connection.getOutBuffers()) {
+                buffer.position(buffer.limit());
+            }
+            connection.cleanupBuffers();
+        }
+
+        // duplicates and everything beyond the limit are dropped
+        verify(inventory, times(GetData.MAX_INVENTORY_SIZE)).getObjectFrame(any(InventoryVector.class));
+        verify(inventory, never()).getObjectFrame(iv(GetData.MAX_INVENTORY_SIZE));
+    }
+
+    private void receive(MessagePayload payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NetworkMessage(payload).write(out);
+        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = connection.getInBuffer();
+            ByteBuffer chunk = data.duplicate();
+            chunk.limit(chunk.position() + Math.min(buffer.remaining(), data.remaining()));
+            buffer.put(chunk);
+            data.position(chunk.position());
+            connection.updateReader();
+        }
+    }
+
+    private static InventoryVector iv(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        hash[1] = (byte) (i >> 8);
+        hash[2] = (byte) (i >> 16);
+        return new InventoryVector(hash);
+    }
+
+    private static long remaining(ByteBuffer[] buffers) {
+        long result = 0;
+        for (ByteBuffer buffer : buffers) {
+            result += buffer.remaining();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.BitmessageContext;
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.Addr;
+import ch.dissem.bitmessage.entity.Inv;
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.VerAck;
+import ch.dissem.bitmessage.entity.Version;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
+import ch.dissem.bitmessage.factory.Factory;
+import ch.dissem.bitmessage.ports.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class NioNetworkHandlerTest {
+    private static final int PORT = 6003;
+    private static final int SAMPLES = 21;
+    private static final Random RANDOM = new Random();
+
+    @Rule
+    public final TestRule timeout = new DisableOnDebug(Timeout.seconds(60));
+
+    private NioNetworkHandler networkHandler;
+    private BitmessageContext node;
+    private Socket socket;
+
+    @Before
+    public void setUp() throws Exception {
+        networkHandler = new NioNetworkHandler(1);
+        node = new BitmessageContext.Builder()
+            .addressRepo(mock(AddressRepository.class))
+            .inventory(mock(Inventory.class))
+            .messageRepo(mock(MessageRepository.class))
+            .powRepo(mock(ProofOfWorkRepository.class))
+            .port(PORT)
+            .nodeRegistry(mock(NodeRegistry.class))
+            .networkHandler(networkHandler)
+            .cryptography(new BouncyCryptography())
+            .listener(mock(BitmessageContext.Listener.class))
+            .build();
+        node.startup();
+        Thread.sleep(100);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (socket != null) {
+            socket.close();
+        }
+        node.shutdown();
+    }
+
+    /**
+     * Messages to send must be written right away, not only when the selector wakes up for some other reason.
+     */
+    @Test
+    public void ensureOfferedObjectsAreSentWithoutDelay() throws Exception {
+        networkHandler.setAnnouncementBatching(0, 1);
+        InputStream in = connect();
+
+        long[] latencies = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            byte[] hash = new byte[32];
+            RANDOM.nextBytes(hash);
+            InventoryVector iv = new InventoryVector(hash);
+
+            long start = System.nanoTime();
+            networkHandler.offer(iv);
+            while (!containsInventoryVector(readPayload(in), iv)) {
+                // ignore anything else
+            }
+            latencies[i] = System.nanoTime() - start;
+            Thread.sleep(RANDOM.nextInt(20));
+        }
+
+        Arrays.sort(latencies);
+        long median = latencies[SAMPLES / 2] / 1_000_000;
+        assertTrue("Median latency was " + median + "ms", median < 100);
+    }
+
+    @Test
+    public void ensureOfferedObjectsAreAnnouncedTogether() throws Exception {
+        networkHandler.setAnnouncementBatching(500, 1000);
+        InputStream in = connect();
+
+        Set<InventoryVector> offered = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] hash = new byte[32];
+            RANDOM.nextBytes(hash);
+            InventoryVector iv = new InventoryVector(hash);
+            offered.add(iv);
+            networkHandler.offer(iv);
+        }
+        int messages = 0;
+        while (!offered.isEmpty()) {
+            Object payload = readPayload(in);
+            if (payload instanceof Inv) {
+                offered.removeAll(((Inv) payload).getInventory());
+                messages++;
+            }
+        }
+
+        assertTrue("Objects were announced in " + messages + " messages", messages <= 2);
+        assertThat(networkHandler.getNetworkStatus().getProperty("announcements", "inventoryVectors").getValue(),
+            is((Object) 50L));
+    }
+
+    /**
+     * Connects to the node and waits for the handshake to complete.
+     */
+    private InputStream connect() throws IOException {
+        socket = new Socket("127.0.0.1", PORT);
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        NetworkAddress nodeAddress = new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(PORT).build();
+        NetworkAddress peerAddress = new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(socket.getLocalPort()).build();
+
+        write(out, new Version.Builder()
+            .defaults(RANDOM.nextLong())
+            .addrFrom(peerAddress)
+            .addrRecv(nodeAddress)
+            .build());
+        write(out, new VerAck());
+        // the node sends its known addresses once the handshake is complete
+        while (!(readPayload(in) instanceof Addr)) {
+            // skip version and verack
+        }
+        return in;
+    }
+
+    private static void write(OutputStream out, MessagePayload payload) throws IOException {
+        new NetworkMessage(payload).write(out);
+        out.flush();
+    }
+
+    private static Object readPayload(InputStream in) throws IOException {
+        NetworkMessage message = Factory.getNetworkMessage(3, in);
+        return message == null ? null : message.getPayload();
+    }
+
+    private static boolean containsInventoryVector(Object payload, InventoryVector iv) {
+        return payload instanceof Inv && ((Inv) payload).getInventory().contains(iv);
+    }
+}
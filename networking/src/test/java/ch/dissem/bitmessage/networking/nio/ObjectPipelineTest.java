@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.InternalContext;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.GenericPayload;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
+import ch.dissem.bitmessage.exception.InsufficientProofOfWorkException;
+import ch.dissem.bitmessage.ports.Cryptography;
+import ch.dissem.bitmessage.ports.Inventory;
+import ch.dissem.bitmessage.ports.NetworkHandler;
+import ch.dissem.bitmessage.utils.Singleton;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SERVER;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ObjectPipelineTest {
+    private static final Random RANDOM = new Random();
+
+    private Cryptography cryptography;
+    private InternalContext ctx;
+    private Inventory inventory;
+    private NetworkHandler networkHandler;
+    private NetworkHandler.MessageListener listener;
+    private ConcurrentMap<InventoryVector, Long> requestedObjects;
+    private CountDownLatch relieved;
+    private ObjectPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        cryptography = mock(Cryptography.class);
+        Singleton.initialize(cryptography);
+        ctx = mock(InternalContext.class);
+        inventory = mock(Inventory.class);
+        networkHandler = mock(NetworkHandler.class);
+        listener = mock(NetworkHandler.MessageListener.class);
+        when(ctx.getInventory()).thenReturn(inventory);
+        when(ctx.getNetworkHandler()).thenReturn(networkHandler);
+        when(ctx.getNetworkListener()).thenReturn(listener);
+        requestedObjects = new ConcurrentHashMap<>();
+        relieved = new CountDownLatch(1);
+        pipeline = new ObjectPipeline.Builder().capacity(4).build(ctx, requestedObjects, new Runnable() {
+            @Override
+            public void run() {
+                relieved.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void ensureObjectPassesAllStages() throws Exception {
+        ObjectMessage object = object();
+        requestedObjects.put(object.getInventoryVector(), 0L);
+
+        pipeline.submit(connection(), object);
+
+        verify(cryptography, timeout(1000)).checkProofOfWork(eq(object), anyLong(), anyLong());
+        verify(inventory, timeout(1000)).storeObject(object);
+        verify(networkHandler, timeout(1000)).offer(object.getInventoryVector());
+        verify(listener, timeout(1000)).receive(object);
+        assertTrue(requestedObjects.isEmpty());
+    }
+
+    @Test
+    public void ensureKnownObjectIsDropped() throws Exception {
+        ObjectMessage object = object();
+        when(inventory.contains(object)).thenReturn(true);
+
+        pipeline.submit(connection(), object);
+
+        verify(inventory, timeout(1000)).contains(object);
+        Thread.sleep(100);
+        verify(inventory, never()).storeObject(any(ObjectMessage.class));
+        verify(listener, never()).receive(any(ObjectMessage.class));
+    }
+
+    @Test
+    public void ensureObjectWithInsufficientProofOfWorkIsNotStored() throws Exception {
+        ObjectMessage object = object();
+        doThrow(new InsufficientProofOfWorkException(new byte[8], new byte[8]))
+            .when(cryptography).checkProofOfWork(eq(object), anyLong(), anyLong());
+
+        pipeline.submit(connection(), object);
+
+        verify(cryptography, timeout(1000)).checkProofOfWork(eq(object), anyLong(), anyLong());
+        Thread.sleep(100);
+        verify(inventory, never()).storeObject(any(ObjectMessage.class));
+        verify(listener, never()).receive(any(ObjectMessage.class));
+    }
+
+    @Test
+    public void ensureBusiestConnectionIsPausedUntilPipelineDrains() throws Exception {
+        final CountDownLatch storage = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                storage.await();
+                return null;
+            }
+        }).when(inventory).storeObject(any(ObjectMessage.class));
+
+        ConnectionInfo busy = connection();
+        ConnectionInfo quiet = connection();
+        for (int i = 0; i < 4; i++) {
+            pipeline.submit(busy, object());
+        }
+        pipeline.submit(quiet, object());
+
+        assertFalse(busy.isReadable());
+        assertTrue(quiet.isReadable());
+
+        storage.countDown();
+        assertTrue(relieved.await(1, TimeUnit.SECONDS));
+        assertTrue(busy.isReadable());
+    }
+
+    @Test
+    public void ensureObjectsAreKeptInsteadOfBlockingWhenPipelineIsFull() throws Exception {
+        final CountDownLatch dedupe = new CountDownLatch(1);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                dedupe.await();
+                return false;
+            }
+        }).when(inventory).contains(any(ObjectMessage.class));
+
+        ConnectionInfo connection = connection();
+        ObjectMessage first = object();
+        connection.receiveMessage(first);
+        verify(inventory, timeout(1000)).contains(first);
+        // the first stage's queue is full after this
+        for (int i = 0; i < 4; i++) {
+            connection.receiveMessage(object());
+        }
+        connection.receiveMessage(object());
+
+        assertFalse(connection.isReadable());
+
+        dedupe.countDown();
+        assertTrue(relieved.await(1, TimeUnit.SECONDS));
+        assertTrue(connection.isReadable());
+        verify(listener, timeout(1000).times(6)).receive(any(ObjectMessage.class));
+    }
+
+    private ConnectionInfo connection() {
+        return new ConnectionInfo(ctx, SERVER,
+            new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(8444).build(),
+            requestedObjects, 0, pipeline);
+    }
+
+    private static ObjectMessage object() {
+        byte[] hash = new byte[32];
+        RANDOM.nextBytes(hash);
+        return new ObjectMessage.Builder()
+            .nonce(new byte[8])
+            .objectType(42)
+            .stream(1)
+            .payload(new GenericPayload(1, 1, new byte[0]))
+            .inventoryVector(new InventoryVector(hash))
+            .build();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.GetData;
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.utils.UnixTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ch.dissem.bitmessage.networking.AbstractConnection.State.ACTIVE;
+import static ch.dissem.bitmessage.networking.AbstractConnection.State.DISCONNECTED;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class RequestSchedulerTest {
+    private static final int MAX_IN_FLIGHT = 10;
+
+    private Map<InventoryVector, Long> requestedObjects;
+    private RequestScheduler scheduler;
+    private ConnectionInfo a;
+    private ConnectionInfo b;
+
+    @Before
+    public void setUp() {
+        requestedObjects = new ConcurrentHashMap<>();
+        scheduler = new RequestScheduler(requestedObjects, MAX_IN_FLIGHT);
+        a = connection();
+        b = connection();
+    }
+
+    @Test
+    public void ensureNodesGetNoMoreThanMaxInFlightRequests() {
+        scheduler.announced(a, ivs(0, 25));
+
+        assertEquals(ivs(0, 10), requested(a));
+        assertEquals(MAX_IN_FLIGHT, scheduler.getInFlight(a));
+        assertEquals(15, scheduler.getStatus().getProperty("waiting").getValue());
+    }
+
+    @Test
+    public void ensureWaitingObjectsAreRequestedFromOtherAnnouncers() {
+        scheduler.announced(a, ivs(0, 25));
+        scheduler.announced(b, ivs(0, 25));
+
+        assertEquals(ivs(0, 10), requested(a));
+        assertEquals(ivs(10, 20), requested(b));
+    }
+
+    @Test
+    public void ensureObjectsAreOnlyRequestedOnce() {
+        scheduler.announced(a, ivs(0, 5));
+        scheduler.announced(b, ivs(0, 5));
+
+        assertEquals(ivs(0, 5), requested(a));
+        verify(b, never()).send(any(MessagePayload.class));
+    }
+
+    @Test
+    public void ensureMoreObjectsAreRequestedOnceEnoughWereReceived() {
+        scheduler.announced(a, ivs(0, 25));
+        for (InventoryVector iv : ivs(0, 4)) {
+            scheduler.received(iv);
+        }
+        verify(a, times(1)).send(any(MessagePayload.class));
+
+        scheduler.received(iv(4));
+
+        assertEquals(ivs(10, 15), requested(a).subList(10, 15));
+        assertEquals(MAX_IN_FLIGHT, scheduler.getInFlight(a));
+    }
+
+    @Test
+    public void ensureOnlyNodesWithRoomAreRefilled() {
+        scheduler.announced(a, ivs(0, 25));
+        scheduler.announced(b, ivs(25, 50));
+        for (InventoryVector iv : ivs(0, 5)) {
+            scheduler.received(iv);
+        }
+
+        assertEquals(ivs(0, 15), requested(a));
+        assertEquals(ivs(25, 35), requested(b));
+        assertEquals(15, scheduler.getWaiting(b));
+    }
+
+    @Test
+    public void ensureObjectsAreRequestedFromOtherNodesOnDisconnect() {
+        scheduler.announced(a, ivs(0, 5));
+        scheduler.announced(b, ivs(0, 5));
+        when(a.getState()).thenReturn(DISCONNECTED);
+
+        scheduler.disconnected(a);
+
+        assertEquals(ivs(0, 5), requested(b));
+        assertEquals(0, scheduler.getInFlight(a));
+    }
+
+    @Test
+    public void ensureObjectsNobodyElseAnnouncedAreDroppedOnDisconnect() {
+        scheduler.announced(a, ivs(0, 25));
+        for (InventoryVector iv : ivs(0, 10)) {
+            requestedObjects.put(iv, 0L);
+        }
+
+        scheduler.disconnected(a);
+
+        assertTrue(requestedObjects.isEmpty());
+        assertEquals(0, scheduler.getStatus().getProperty("missing").getValue());
+    }
+
+    @Test
+    public void ensureRetriedObjectsAreRequestedFromAnotherNode() {
+        scheduler.announced(a, ivs(0, 5));
+        scheduler.announced(b, ivs(0, 5));
+
+        scheduler.retry(ivs(0, 5));
+
+        assertEquals(ivs(0, 5), requested(b));
+        assertEquals(0, scheduler.getInFlight(a));
+    }
+
+    @Test
+    public void ensureReannouncedObjectsWaitOnlyOnce() {
+        scheduler.announced(a, ivs(0, 25));
+        scheduler.announced(a, ivs(10, 25));
+        scheduler.announced(a, ivs(10, 25));
+
+        assertEquals(15, scheduler.getWaiting(a));
+        assertEquals(15, scheduler.getStatus().getProperty("waiting").getValue());
+    }
+
+    @Test
+    public void ensureIdleNodesAreRefilledAfterRetry() {
+        scheduler.announced(a, ivs(0, 10));
+        scheduler.announced(a, ivs(10, 15));
+        scheduler.announced(b, ivs(15, 25));
+        scheduler.announced(b, ivs(25, 30));
+
+        // nobody else announced these objects, so they're dropped and both nodes have room again
+        scheduler.retry(ivs(0, 10));
+
+        assertEquals(ivs(0, 15), requested(a));
+        assertEquals(5, scheduler.getInFlight(a));
+        assertEquals(ivs(15, 25), requested(b));
+    }
+
+    @Test
+    public void ensureWaitingObjectsExpire() {
+        scheduler.announced(a, ivs(0, 25));
+
+        scheduler.expire(UnixTime.now(+1));
+
+        assertEquals(0, scheduler.getWaiting(a));
+        assertEquals(MAX_IN_FLIGHT, scheduler.getStatus().getProperty("missing").getValue());
+        scheduler.announced(a, ivs(10, 25));
+        assertEquals(15, scheduler.getWaiting(a));
+    }
+
+    private static ConnectionInfo connection() {
+        ConnectionInfo connection = mock(ConnectionInfo.class);
+        when(connection.getState()).thenReturn(ACTIVE);
+        return connection;
+    }
+
+    private static List<InventoryVector> requested(ConnectionInfo connection) {
+        ArgumentCaptor<MessagePayload> captor = ArgumentCaptor.forClass(MessagePayload.class);
+        verify(connection, atLeastOnce()).send(captor.capture());
+        List<InventoryVector> result = new ArrayList<>();
+        for (MessagePayload payload : captor.getAllValues()) {
+            result.addAll(((GetData) payload).getInventory());
+        }
+        return result;
+    }
+
+    private static List<InventoryVector> ivs(int from, int to) {
+        List<InventoryVector> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(iv(i));
+        }
+        return result;
+    }
+
+    private static InventoryVector iv(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        hash[1] = (byte) (i >> 8);
+        return new InventoryVector(hash);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.pow.vector;
+
+import ch.dissem.bitmessage.ports.MultiThreadedPOWEngine;
+import ch.dissem.bitmessage.ports.ProofOfWorkEngine;
+import ch.dissem.bitmessage.utils.POWKernel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares the {@link VectorPOWEngine} with the {@link MultiThreadedPOWEngine} on the same hardware, as well as
+ * the kernels they use on a single thread. Every operation is one trial, so the throughput can be read as
+ * hashes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VectorPOWEngineBenchmark {
+    static final int TRIALS = 1 << 16;
+    private static final byte[] TARGET = {0, 0, -1, -1, -1, -1, -1, -1};
+    private static final byte[] IMPOSSIBLE_TARGET = {0, 0, 0, 0, 0, 0, 0, 0};
+
+    @State(Scope.Thread)
+    public static class Jobs {
+        private final Random random = new Random();
+        private final byte[] initialHash = new byte[64];
+
+        byte[] next() {
+            random.nextBytes(initialHash);
+            return initialHash;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Engines {
+        @Param({"1", "4"})
+        int threads;
+
+        MultiThreadedPOWEngine scalar;
+        VectorPOWEngine vector;
+
+        @Setup
+        public void setUp() {
+            scalar = new MultiThreadedPOWEngine(threads);
+            vector = new VectorPOWEngine(threads);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Kernels {
+        final AtomicBoolean stop = new AtomicBoolean();
+        POWKernel scalar;
+        POWKernel vector;
+
+        @Setup
+        public void setUp(Jobs jobs) {
+            byte[] initialHash = jobs.next();
+            scalar = new POWKernel(initialHash, IMPOSSIBLE_TARGET);
+            vector = new VectorPOWKernel(initialHash, IMPOSSIBLE_TARGET);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRIALS)
+    public void multiThreadedEngine(Engines engines, Jobs jobs) throws InterruptedException {
+        calculateNonce(engines.scalar, jobs.next());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRIALS)
+    public void vectorEngine(Engines engines, Jobs jobs) throws InterruptedException {
+        calculateNonce(engines.vector, jobs.next());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRIALS)
+    public long scalarKernel(Kernels kernels) {
+        return kernels.scalar.search(0, TRIALS, kernels.stop);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRIALS)
+    public long vectorKernel(Kernels kernels) {
+        return kernels.vector.search(0, TRIALS, kernels.stop);
+    }
+
+    private static void calculateNonce(ProofOfWorkEngine engine, byte[] initialHash) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        engine.calculateNonce(initialHash, TARGET, new ProofOfWorkEngine.Callback() {
+            @Override
+            public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.pow.vector;
+
+import ch.dissem.bitmessage.ports.MultiThreadedPOWEngine;
+import ch.dissem.bitmessage.utils.POWKernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MultiThreadedPOWEngine} whose workers try several nonces at once using the Java Vector API.
+ * <p>
+ * The Vector API is still incubating, so the JVM must be started with {@code --add-modules jdk.incubator.vector}.
+ * Otherwise, or if the CPU has no suitable vector registers, the engine falls back to the scalar kernel.
+ * </p>
+ */
+public class VectorPOWEngine extends MultiThreadedPOWEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(VectorPOWEngine.class);
+    private static final int LANES = lanes();
+
+    public VectorPOWEngine() {
+        super();
+    }
+
+    public VectorPOWEngine(int numberOfWorkers) {
+        super(numberOfWorkers);
+    }
+
+    /**
+     * @return true if the Vector API is used, false if the engine falls back to the scalar kernel
+     */
+    public static boolean isVectorized() {
+        return LANES > 1;
+    }
+
+    @Override
+    protected POWKernel createKernel(byte[] initialHash, byte[] target) {
+        if (isVectorized()) {
+            return new VectorPOWKernel(initialHash, target);
+        } else {
+            return super.createKernel(initialHash, target);
+        }
+    }
+
+    private static int lanes() {
+        try {
+            int lanes = VectorPOWKernel.SPECIES.length();
+            LOG.info("Doing POW using " + lanes + " vector lanes");
+            return lanes;
+        } catch (LinkageError e) {
+            LOG.warn("Vector API not available, falling back to scalar POW. "
+                + "Start the JVM with --add-modules jdk.incubator.vector to enable it.");
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.pow.vector;
+
+import ch.dissem.bitmessage.utils.POWKernel;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static jdk.incubator.vector.VectorOperators.*;
+
+/**
+ * A {@link POWKernel} calculating the trial values of several consecutive nonces at once, one per vector lane.
+ * <p>
+ * Apart from the nonce, the message blocks are the same for all lanes, so only the message schedule and the working
+ * variables need to be vectors. The number of lanes depends on the CPU, e.g. 4 for AVX2 and 8 for AVX-512.
+ * </p>
+ */
+class VectorPOWKernel extends POWKernel {
+    static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private final int lanes = SPECIES.length();
+    private final LongVector laneOffsets = LongVector.zero(SPECIES).addIndex(1);
+    private final LongVector target;
+
+    /**
+     * Message schedules of both blocks and the working variables, lane by lane. Vectors passed between methods that
+     * aren't inlined would be boxed, and SHA-512 is too large to be inlined as a whole. So every step works on
+     * primitive arrays, where the words that are the same for every trial only need to be set once.
+     */
+    private final long[] w1;
+    private final long[] w2;
+    private final long[] v;
+    private final long[] t1;
+
+    VectorPOWKernel(byte[] initialHash, byte[] target) {
+        super(initialHash, target);
+        w1 = new long[80 * lanes];
+        w2 = new long[80 * lanes];
+        v = new long[8 * lanes];
+        t1 = new long[lanes];
+        for (int i = 0; i < 8; i++) {
+            broadcast(w1, i + 1, getLong(initialHash, i * 8));
+        }
+        broadcast(w1, 9, PADDING);
+        broadcast(w1, 15, FIRST_BLOCK_BITS);
+        broadcast(w2, 8, PADDING);
+        broadcast(w2, 15, SECOND_BLOCK_BITS);
+        // Flipping the sign bit allows comparing unsigned values with signed comparison
+        this.target = LongVector.broadcast(SPECIES, getLong(target, 0) ^ Long.MIN_VALUE);
+    }
+
+    private void broadcast(long[] w, int word, long value) {
+        for (int lane = 0; lane < lanes; lane++) {
+            w[word * lanes + lane] = value;
+        }
+    }
+
+    @Override
+    public long search(long start, long end, AtomicBoolean stop) {
+        long n = start;
+        while (n + lanes <= end && !stop.get()) {
+            VectorMask<Long> valid = trialValues(n).lanewise(XOR, Long.MIN_VALUE).compare(LE, target);
+            if (valid.anyTrue()) {
+                return n + valid.firstTrue();
+            }
+            n += lanes;
+        }
+        if (n < end && !stop.get()) {
+            return super.search(n, end, stop);
+        }
+        return n;
+    }
+
+    /**
+     * @return the trial values for the nonces first to first + lanes - 1
+     */
+    LongVector trialValues(long first) {
+        laneOffsets.add(first).intoArray(w1, 0);
+        compress(w1);
+        for (int i = 0; i < 8; i++) {
+            LongVector.fromArray(SPECIES, v, i * lanes).add(IV[i]).intoArray(w2, i * lanes);
+        }
+        compress(w2);
+        return LongVector.fromArray(SPECIES, v, 0).add(IV[0]);
+    }
+
+    /**
+     * Runs the SHA-512 compression function on the block in the first 16 words of w, leaving the working variables
+     * in v. As 80 rounds are a multiple of 8, they end up where they started.
+     */
+    private void compress(long[] w) {
+        for (int t = 16; t < 80; t++) {
+            schedule(w, t);
+        }
+        for (int i = 0; i < 8; i++) {
+            broadcast(v, i, IV[i]);
+        }
+        for (int t = 0; t < 80; t++) {
+            round(w, t);
+        }
+    }
+
+    private void schedule(long[] w, int t) {
+        LongVector w2 = LongVector.fromArray(SPECIES, w, (t - 2) * lanes);
+        LongVector w15 = LongVector.fromArray(SPECIES, w, (t - 15) * lanes);
+        LongVector s1 = ror(w2, 19).lanewise(XOR, ror(w2, 61)).lanewise(XOR, w2.lanewise(LSHR, 6));
+        LongVector s0 = ror(w15, 1).lanewise(XOR, ror(w15, 8)).lanewise(XOR, w15.lanewise(LSHR, 7));
+        s1.add(LongVector.fromArray(SPECIES, w, (t - 7) * lanes))
+            .add(s0)
+            .add(LongVector.fromArray(SPECIES, w, (t - 16) * lanes))
+            .intoArray(w, t * lanes);
+    }
+
+    /**
+     * Instead of shifting the working variables after each round, their positions in v rotate: variable i is at
+     * position (i - t) mod 8 in round t. So only the new values of a and e need to be written.
+     * <p>
+     * A round is split in two, as the JIT compiler would otherwise stop inlining the Vector API's methods before
+     * reaching the intrinsics, and fall back to much slower code allocating every vector.
+     * </p>
+     */
+    private void round(long[] w, int t) {
+        int ph = position(7, t);
+        LongVector e = LongVector.fromArray(SPECIES, v, position(4, t));
+        LongVector f = LongVector.fromArray(SPECIES, v, position(5, t));
+        LongVector g = LongVector.fromArray(SPECIES, v, position(6, t));
+        LongVector.fromArray(SPECIES, v, ph)
+            .add(S1(e))
+            .add(Ch(e, f, g))
+            .add(LongVector.fromArray(SPECIES, w, t * lanes))
+            .add(K[t])
+            .intoArray(t1, 0);
+        finishRound(t);
+    }
+
+    private void finishRound(int t) {
+        int pd = position(3, t);
+        LongVector a = LongVector.fromArray(SPECIES, v, position(0, t));
+        LongVector b = LongVector.fromArray(SPECIES, v, position(1, t));
+        LongVector c = LongVector.fromArray(SPECIES, v, position(2, t));
+        LongVector t1 = LongVector.fromArray(SPECIES, this.t1, 0);
+        LongVector.fromArray(SPECIES, v, pd).add(t1).intoArray(v, pd);
+        t1.add(S0(a)).add(Maj(a, b, c)).intoArray(v, position(7, t));
+    }
+
+    private int position(int i, int t) {
+        return ((i - t) & 7) * lanes;
+    }
+
+    private static LongVector ror(LongVector x, int n) {
+        return x.lanewise(LSHR, n).or(x.lanewise(LSHL, 64 - n));
+    }
+
+    /**
+     * Same as (x & y) ^ (~x & z), but without the negation
+     */
+    private static LongVector Ch(LongVector x, LongVector y, LongVector z) {
+        return z.lanewise(XOR, x.and(y.lanewise(XOR, z)));
+    }
+
+    /**
+     * Same as (x & y) ^ (x & z) ^ (y & z), but with fewer operations
+     */
+    private static LongVector Maj(LongVector x, LongVector y, LongVector z) {
+        return x.and(y).or(z.and(x.or(y)));
+    }
+
+    private static LongVector S0(LongVector x) {
+        return ror(x, 28).lanewise(XOR, ror(x, 34)).lanewise(XOR, ror(x, 39));
+    }
+
+    private static LongVector S1(LongVector x) {
+        return ror(x, 14).lanewise(XOR, ror(x, 18)).lanewise(XOR, ror(x, 41));
+    }
+}
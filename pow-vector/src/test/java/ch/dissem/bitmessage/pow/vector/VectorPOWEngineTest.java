@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.pow.vector;
+
+import ch.dissem.bitmessage.ports.ProofOfWorkEngine;
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.CallbackWaiter;
+import ch.dissem.bitmessage.utils.POWKernel;
+import ch.dissem.bitmessage.utils.TestBase;
+import jdk.incubator.vector.LongVector;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VectorPOWEngineTest extends TestBase {
+    private static final Random RANDOM = new Random();
+
+    @Test
+    public void ensureVectorAPIIsUsed() {
+        assertTrue(VectorPOWEngine.isVectorized());
+    }
+
+    @Test
+    public void ensureEveryLaneMatchesScalarKernel() {
+        for (int i = 0; i < 100; i++) {
+            byte[] initialHash = new byte[64];
+            RANDOM.nextBytes(initialHash);
+            long first = RANDOM.nextLong();
+
+            POWKernel scalar = new POWKernel(initialHash, new byte[8]);
+            LongVector values = new VectorPOWKernel(initialHash, new byte[8]).trialValues(first);
+            for (int lane = 0; lane < values.length(); lane++) {
+                assertEquals(scalar.trialValue(first + lane), values.lane(lane));
+            }
+        }
+    }
+
+    @Test
+    public void ensureSearchFindsSameNonceAsScalarKernel() {
+        byte[] initialHash = new byte[64];
+        RANDOM.nextBytes(initialHash);
+        byte[] target = {0, 0, -1, -1, -1, -1, -1, -1};
+        AtomicBoolean stop = new AtomicBoolean();
+        // the odd start and end make sure the remainder is searched as well
+        long start = 3;
+        long end = 1_000_003;
+
+        long expected = new POWKernel(initialHash, target).search(start, end, stop);
+        assertEquals(expected, new VectorPOWKernel(initialHash, target).search(start, end, stop));
+        assertEquals(expected, new VectorPOWKernel(initialHash, target).search(expected, expected + 1, stop));
+    }
+
+    @Test(timeout = 90_000)
+    public void ensureNonceIsFound() throws InterruptedException {
+        byte[] initialHash = cryptography().sha512(new byte[]{1, 3, 6, 4});
+        byte[] target = {0, 0, 0, -1, -1, -1, -1, -1};
+
+        final CallbackWaiter<byte[]> waiter = new CallbackWaiter<>();
+        new VectorPOWEngine().calculateNonce(initialHash, target, new ProofOfWorkEngine.Callback() {
+            @Override
+            public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                waiter.setValue(nonce);
+            }
+        });
+        byte[] nonce = waiter.waitForValue();
+        assertTrue(Bytes.lt(cryptography().doubleSha512(nonce, initialHash), target, 8));
+    }
+}
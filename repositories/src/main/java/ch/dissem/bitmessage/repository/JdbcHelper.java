@@ -19,10 +19,10 @@ package ch.dissem.bitmessage.repository;
 import ch.dissem.bitmessage.entity.Streamable;
 import ch.dissem.bitmessage.entity.payload.ObjectType;
 import ch.dissem.bitmessage.exception.ApplicationException;
+import ch.dissem.bitmessage.utils.Encode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -46,9 +46,7 @@ public abstract class JdbcHelper {
         if (data == null) {
             ps.setBytes(parameterIndex, null);
         } else {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            data.write(os);
-            ps.setBytes(parameterIndex, os.toByteArray());
+            ps.setBytes(parameterIndex, Encode.bytes(data));
         }
     }
 }
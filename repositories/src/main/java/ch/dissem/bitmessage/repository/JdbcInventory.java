@@ -16,6 +16,7 @@
 
 package ch.dissem.bitmessage.repository;
 
+import ch.dissem.bitmessage.entity.ObjectFrame;
 import ch.dissem.bitmessage.entity.ObjectMessage;
 import ch.dissem.bitmessage.entity.payload.ObjectType;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
@@ -26,9 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static ch.dissem.bitmessage.utils.SqlStrings.join;
@@ -38,7 +37,17 @@ import static ch.dissem.bitmessage.utils.UnixTime.now;
 public class JdbcInventory extends JdbcHelper implements Inventory {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcInventory.class);
 
+    /**
+     * Maximum number of bytes kept in the frame cache.
+     */
+    private static final int FRAME_CACHE_SIZE = 32 * 1024 * 1024;
+
     private final Map<Long, Map<InventoryVector, Long>> cache = new ConcurrentHashMap<>();
+    /**
+     * Recently requested objects, ready to be sent. Access order, so the least recently requested come first.
+     */
+    private final LinkedHashMap<InventoryVector, ObjectFrame> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private long framesSize;
 
     public JdbcInventory(JdbcConfig config) {
         super(config);
@@ -108,6 +117,43 @@ public class JdbcInventory extends JdbcHelper implements Inventory {
         }
     }
 
+    @Override
+    public ObjectFrame getObjectFrame(InventoryVector vector) {
+        synchronized (frames) {
+            ObjectFrame frame = frames.get(vector);
+            if (frame != null) {
+                return frame;
+            }
+        }
+        ObjectFrame frame;
+        try (
+                Connection connection = config.getConnection();
+                Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT data FROM Inventory WHERE hash = X'" + vector + "'")
+        ) {
+            if (rs.next()) {
+                frame = new ObjectFrame(rs.getBytes("data"));
+            } else {
+                LOG.info("Object requested that we don't have. IV: " + vector);
+                return null;
+            }
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+            throw new ApplicationException(e);
+        }
+        synchronized (frames) {
+            if (frames.put(vector, frame) == null) {
+                framesSize += frame.getSize();
+            }
+            Iterator<ObjectFrame> eldest = frames.values().iterator();
+            while (framesSize > FRAME_CACHE_SIZE && eldest.hasNext()) {
+                framesSize -= eldest.next().getSize();
+                eldest.remove();
+            }
+        }
+        return frame;
+    }
+
     @Override
     public List<ObjectMessage> getObjects(long stream, long version, ObjectType... types) {
         StringBuilder query = new StringBuilder("SELECT data, version FROM Inventory WHERE 1=1");
@@ -183,5 +229,9 @@ public class JdbcInventory extends JdbcHelper implements Inventory {
         for (Map<InventoryVector, Long> c : cache.values()) {
             c.entrySet().removeIf(e -> e.getValue() < now(-5 * MINUTE));
         }
+        synchronized (frames) {
+            frames.clear();
+            framesSize = 0;
+        }
     }
 }
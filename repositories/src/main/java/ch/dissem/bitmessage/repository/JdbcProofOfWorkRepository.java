@@ -32,7 +32,7 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
         try (
                 Connection connection = config.getConnection();
                 PreparedStatement ps = connection.prepareStatement("SELECT data, version, nonce_trials_per_byte, " +
-                        "extra_bytes, expiration_time, message_id FROM POW WHERE initial_hash=?")
+                        "extra_bytes, expiration_time, message_id, nonce_checkpoint FROM POW WHERE initial_hash=?")
         ) {
             ps.setBytes(1, initialHash);
             try (ResultSet rs = ps.executeQuery()) {
@@ -42,7 +42,10 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
                         return new Item(
                                 Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length()),
                                 rs.getLong("nonce_trials_per_byte"),
-                                rs.getLong("extra_bytes")
+                                rs.getLong("extra_bytes"),
+                                0,
+                                null,
+                                rs.getLong("nonce_checkpoint")
                         );
                     } else {
                         return new Item(
@@ -50,7 +53,8 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
                                 rs.getLong("nonce_trials_per_byte"),
                                 rs.getLong("extra_bytes"),
                                 rs.getLong("expiration_time"),
-                                ctx.getMessageRepository().getMessage(rs.getLong("message_id"))
+                                ctx.getMessageRepository().getMessage(rs.getLong("message_id")),
+                                rs.getLong("nonce_checkpoint")
                         );
                     }
                 } else {
@@ -127,6 +131,20 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
         }
     }
 
+    @Override
+    public void updateNonceCheckpoint(byte[] initialHash, long checkpoint) {
+        try (
+                Connection connection = config.getConnection();
+                PreparedStatement ps = connection.prepareStatement("UPDATE POW SET nonce_checkpoint=? WHERE initial_hash=?")
+        ) {
+            ps.setLong(1, checkpoint);
+            ps.setBytes(2, initialHash);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            LOG.debug(e.getMessage(), e);
+        }
+    }
+
     @Override
     public void setContext(InternalContext context) {
         this.ctx = context;
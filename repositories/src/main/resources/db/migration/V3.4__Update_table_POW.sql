@@ -0,0 +1 @@
+ALTER TABLE POW ADD COLUMN nonce_checkpoint BIGINT NOT NULL DEFAULT 0;
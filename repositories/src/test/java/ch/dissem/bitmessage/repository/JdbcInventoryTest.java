@@ -17,14 +17,18 @@
 package ch.dissem.bitmessage.repository;
 
 import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectFrame;
 import ch.dissem.bitmessage.entity.ObjectMessage;
 import ch.dissem.bitmessage.entity.payload.GetPubkey;
 import ch.dissem.bitmessage.entity.payload.ObjectPayload;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.factory.Factory;
 import ch.dissem.bitmessage.ports.Inventory;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -90,6 +94,17 @@ public class JdbcInventoryTest extends TestBase {
         assertEquals(inventoryVectorIgnore, object.getInventoryVector());
     }
 
+    @Test
+    public void testGetObjectFrame() throws Exception {
+        ObjectFrame frame = inventory.getObjectFrame(inventoryVector1);
+        assertNotNull(frame);
+        byte[] bytes = new byte[frame.getSize()];
+        frame.getBuffer().get(bytes);
+        NetworkMessage message = Factory.getNetworkMessage(3, new ByteArrayInputStream(bytes));
+        assertEquals(inventoryVector1, ((ObjectMessage) message.getPayload()).getInventoryVector());
+        assertSame(frame, inventory.getObjectFrame(inventoryVector1));
+    }
+
     @Test
     public void testGetObjects() throws Exception {
         List<ObjectMessage> objects = inventory.getObjects(1, 4);
@@ -133,6 +133,15 @@ public class JdbcProofOfWorkRepositoryTest extends TestBase {
         assertThat(item.extraBytes, is(1000L));
     }
 
+    @Test
+    public void ensureNonceCheckpointIsStored() {
+        assertThat(repo.getItem(initialHash1).nonceCheckpoint, is(0L));
+        repo.updateNonceCheckpoint(initialHash1, 1L << 40);
+        assertThat(repo.getItem(initialHash1).nonceCheckpoint, is(1L << 40));
+        repo.updateNonceCheckpoint(initialHash2, 4096);
+        assertThat(repo.getItem(initialHash2).nonceCheckpoint, is(4096L));
+    }
+
     @Test
     public void ensureAckItemCanBeRetrieved() {
         Item item = repo.getItem(initialHash2);